@@ -593,6 +593,7 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        Database.getCatalog().buildIndexes();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -3,7 +3,14 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndexFile;
+import simpledb.storage.CompressedHeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -11,6 +18,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -28,6 +36,9 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, HashIndexFile> id2index;
+    private final Map<Integer, List<HashIndexFile>> indexes;
+    private final List<HashIndexFile> unbuilt; // named in a schema, files missing
 
     /**
      * Constructor.
@@ -39,7 +50,9 @@ public class Catalog {
         name2id = new ConcurrentHashMap<>();
         id2name = new ConcurrentHashMap<>();
         pkey = new ConcurrentHashMap<>();
-
+        id2index = new ConcurrentHashMap<>();
+        indexes = new ConcurrentHashMap<>();
+        unbuilt = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -58,6 +71,10 @@ public class Catalog {
 		if (name2id.containsKey(name)) {
 			id2table.remove( name2id.get(name) );
 			id2tupledesc.remove( name2id.get(name) );
+			List<HashIndexFile> old = indexes.remove( name2id.get(name) );
+			if (old != null)
+				for (HashIndexFile index : old)
+					id2index.remove(index.getId());
 			name2id.remove(name);
 		}
 		
@@ -116,7 +133,41 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        return id2table.get(tableid);
+        DbFile file = id2table.get(tableid);
+        return file != null ? file : id2index.get(tableid);
+    }
+
+    /**
+     * Add a hash index on a table to the catalog.  From then on the buffer
+     * pool adds and removes the index's entries as tuples are inserted
+     * into and deleted from the table, so the index must already hold the
+     * table's tuples (see {@link HashIndexFile#build}).  The index is not a
+     * table: its pages are found by {@link #getDatabaseFile}, but it has no
+     * name and is not returned by {@link #tableIdIterator}.
+     */
+    public void addIndex(HashIndexFile index) {
+        id2index.put(index.getId(), index);
+        indexes.computeIfAbsent(index.getBaseTableId(), k -> new CopyOnWriteArrayList<>()).add(index);
+    }
+
+    /**
+     * @return the hash indexes on the specified table, which may be empty
+     */
+    public List<HashIndexFile> getIndexes(int tableid) {
+        List<HashIndexFile> l = indexes.get(tableid);
+        return l == null ? Collections.emptyList() : l;
+    }
+
+    /**
+     * @return a hash index on a field of the specified table, or null if
+     *   there is none
+     */
+    public HashIndexFile getIndex(int tableid, int field) {
+        for (HashIndexFile index : getIndexes(tableid)) {
+            if (index.keyField() == field)
+                return index;
+        }
+        return null;
     }
 
     public String getPrimaryKey(int tableid) {
@@ -138,11 +189,44 @@ public class Catalog {
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        id2index.clear();
+        indexes.clear();
+        unbuilt.clear();
     }
     
+    /**
+     * Build the hash indexes named by {@link #loadSchema} whose files did
+     * not exist yet, each in a transaction of its own, and add them to the
+     * catalog.  Building an index writes to the log, which decides that
+     * the log is not to be recovered, so call this after
+     * {@link simpledb.storage.LogFile#recover}, if at all.
+     */
+    public void buildIndexes() throws IOException {
+        for (HashIndexFile index : unbuilt) {
+            unbuilt.remove(index);
+            if (!id2table.containsKey(index.getBaseTableId()))
+                continue; // the table has been replaced since
+            Transaction t = new Transaction();
+            t.start();
+            try {
+                index.build(t.getId());
+            } catch (DbException | TransactionAbortedException e) {
+                t.abort();
+                throw new IOException(e);
+            }
+            t.commit();
+            addIndex(index);
+            System.out.println("Built hash index " + index.getFile().getName());
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A hash index whose file does not exist yet is not added until
+     * {@link #buildIndexes} is called.
      * @param catalogFile
+     * @throws IllegalArgumentException if a hash index is on an unknown
+     *   field, or on a table that is not a HeapFile
      */
     public void loadSchema(String catalogFile) {
         String line = "";
@@ -151,7 +235,12 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [format]
+                //where the optional format is "slotted" for a SlottedHeapFile,
+                //"pax" for a PaxHeapFile, "compressed" for a CompressedHeapFile
+                //or "btree [field]" for a BTreeFile keyed on the field (by
+                //default the primary key, or else the first field), then
+                //optionally "hash field ..." for a hash index on each field
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -182,9 +271,60 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                List<String> tokens = new ArrayList<>(Arrays.asList(
+                        line.substring(line.indexOf(")") + 1).trim().split("\\s+")));
+                List<String> hashed = new ArrayList<>();
+                for (int i = 0; i < tokens.size(); i++) {
+                    if (tokens.get(i).equalsIgnoreCase("hash")) {
+                        hashed.addAll(tokens.subList(i + 1, tokens.size()));
+                        tokens.subList(i, tokens.size()).clear();
+                        break;
+                    }
+                }
+                if (tokens.isEmpty())
+                    tokens.add("");
+                String[] format = tokens.toArray(new String[0]);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (format[0].isEmpty())
+                    tabHf = new HeapFile(tableFile, t);
+                else if (format[0].equalsIgnoreCase("btree")) {
+                    String key = format.length > 1 ? format[1]
+                        : primaryKey.isEmpty() ? names.get(0) : primaryKey;
+                    if (!names.contains(key)) {
+                        System.out.println("Unknown key field " + key);
+                        System.exit(0);
+                        return;
+                    }
+                    tabHf = new BTreeFile(tableFile, names.indexOf(key), t);
+                } else if (format[0].equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(tableFile, t);
+                else if (format[0].equalsIgnoreCase("pax"))
+                    tabHf = new PaxHeapFile(tableFile, t);
+                else if (format[0].equalsIgnoreCase("compressed"))
+                    tabHf = new CompressedHeapFile(tableFile, t);
+                else {
+                    System.out.println("Unknown table format " + format[0]);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (String field : hashed) {
+                    if (!names.contains(field) || !(tabHf instanceof HeapFile))
+                        throw new IllegalArgumentException("Cannot hash " + name + "." + field);
+                    File indexFile = new File(baseFolder + "/" + name + "." + field + ".hash");
+                    HashIndexFile index = new HashIndexFile(indexFile, tabHf, names.indexOf(field));
+                    // building it now would write to the log before
+                    // anyone has had the chance to recover it
+                    if (index.numPages() == 0) {
+                        unbuilt.add(index);
+                        System.out.println("Hash index on " + name + "." + field + " to be built");
+                    } else {
+                        addIndex(index);
+                        System.out.println("Added hash index on " + name + "." + field);
+                    }
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
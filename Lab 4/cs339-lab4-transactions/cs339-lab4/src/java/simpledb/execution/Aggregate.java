@@ -6,6 +6,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.execution.Aggregator.Op;
 import simpledb.common.DbException;
+import simpledb.storage.PaxHeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -14,7 +15,7 @@ import simpledb.storage.TupleDesc;
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final TupleDesc td;
@@ -25,6 +26,7 @@ public class Aggregate extends Operator {
     private String gFieldName = null;
     private final String aFieldName;
     private int afield, gfield;
+    private transient TupleBatch batch = null; // returned by nextBatch, reused
 
     /**
      * Constructor.
@@ -186,9 +188,11 @@ public class Aggregate extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// Actually perform the aggregation
 	if (it == null) {
-	    while (child.hasNext()) {
-		Tuple t = child.next();
-		agg.mergeTupleIntoGroup(t);
+	    if (!mergeColumns() && !mergeBatches()) {
+		while (child.hasNext()) {
+		    Tuple t = child.next();
+		    agg.mergeTupleIntoGroup(t);
+		}
 	    }
 
 	    it = agg.iterator();
@@ -200,6 +204,91 @@ public class Aggregate extends Operator {
 	return null;
     }
 
+    /**
+     * Feed the int columns the aggregate needs straight to the aggregator, a
+     * page at a time, if the child is a scan of a table that stores its
+     * values by column.
+     *
+     * @return false, having done nothing, if the tuples have to be read
+     *         from the child instead
+     */
+    private boolean mergeColumns() throws DbException, TransactionAbortedException {
+	if (!(child instanceof SeqScan) || !(agg instanceof IntegerAggregator)
+		|| aop == Op.SC_AVG)
+	    return false;
+	boolean grouped = gfield != Aggregator.NO_GROUPING;
+	if (grouped && child.getTupleDesc().getFieldType(gfield) != Type.INT_TYPE)
+	    return false;
+	PaxHeapFile.IntColumnIterator columns = ((SeqScan) child).intColumns(
+		grouped ? new int[] { gfield, afield } : new int[] { afield });
+	if (columns == null)
+	    return false;
+
+	int n;
+	while ((n = columns.next()) >= 0) {
+	    int[][] values = columns.values();
+	    ((IntegerAggregator) agg).mergeInts(grouped ? values[0] : null,
+		    values[grouped ? 1 : 0], n);
+	}
+	return true;
+    }
+
+    /**
+     * Feed the child's tuples to the aggregator a batch at a time, if the
+     * child returns batches.  The int columns an {@link IntegerAggregator}
+     * needs are gathered from the selected rows into arrays, so it merges
+     * them without any tuples.
+     *
+     * @return false, having done nothing, if the child does not return
+     *         batches
+     */
+    private boolean mergeBatches() throws DbException, TransactionAbortedException {
+	if (!(child instanceof BatchOpIterator))
+	    return false;
+	boolean grouped = gfield != Aggregator.NO_GROUPING;
+	boolean ints = agg instanceof IntegerAggregator && aop != Op.SC_AVG
+		&& (!grouped || child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE);
+	int[] groupVals = new int[0], values = new int[0];
+	TupleBatch b;
+	while ((b = ((BatchOpIterator) child).nextBatch()) != null) {
+	    int n = b.size();
+	    int[] sel = b.selection();
+	    if (!ints) {
+		for (int i = 0; i < n; i++)
+		    agg.mergeTupleIntoGroup(b.getTuple(sel[i]));
+		continue;
+	    }
+	    if (values.length < n) {
+		values = new int[b.capacity()];
+		groupVals = new int[b.capacity()];
+	    }
+	    int[] a = b.intColumn(afield);
+	    for (int i = 0; i < n; i++)
+		values[i] = a[sel[i]];
+	    if (grouped) {
+		int[] g = b.intColumn(gfield);
+		for (int i = 0; i < n; i++)
+		    groupVals[i] = g[sel[i]];
+	    }
+	    ((IntegerAggregator) agg).mergeInts(grouped ? groupVals : null, values, n);
+	}
+	return true;
+    }
+
+    /**
+     * Returns the next batch of the aggregate's result tuples, computing
+     * the aggregate first if it has not been.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+	if (batch == null)
+	    batch = new TupleBatch(td);
+	batch.clear();
+	Tuple t;
+	while (!batch.isFull() && (t = fetchNext()) != null)
+	    batch.add(t);
+	return batch.size() == 0 ? null : batch;
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 	close();
 	open();
@@ -0,0 +1,107 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Adapts between the tuple-at-a-time and batch APIs: it returns the tuples
+ * of its child either way, reading the child with nextBatch() if it is a
+ * {@link BatchOpIterator} and with next() otherwise.  So a BatchAdapter
+ * over a batch operator hands its tuples to a parent that only calls
+ * next(), and one over any other operator feeds a parent that wants
+ * batches.
+ */
+public class BatchAdapter extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private transient TupleBatch batch = null;
+    private transient int pos = 0;
+
+    /**
+     * @param child the operator whose tuples to return
+     */
+    public BatchAdapter(OpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * Read the next batch of tuples from an operator: with nextBatch() if
+     * it is a {@link BatchOpIterator}, or else by filling a batch with
+     * next().
+     *
+     * @param child the operator to read
+     * @param into the batch to fill if the child returns tuples one at a
+     *   time, which is cleared first; it must have the child's TupleDesc
+     * @return the batch, with at least one selected row, or null if the
+     *   child has no more tuples
+     */
+    public static TupleBatch nextBatch(OpIterator child, TupleBatch into)
+            throws DbException, TransactionAbortedException {
+        if (child instanceof BatchOpIterator)
+            return ((BatchOpIterator) child).nextBatch();
+        into.clear();
+        while (!into.isFull() && child.hasNext())
+            into.add(child.next());
+        return into.size() == 0 ? null : into;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (child instanceof BatchOpIterator)
+            return ((BatchOpIterator) child).nextBatch();
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        return nextBatch(child, batch);
+    }
+
+    /**
+     * Returns the tuples of the child's batches one at a time, or the
+     * child's own tuples if it does not return batches.
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!(child instanceof BatchOpIterator))
+            return child.hasNext() ? child.next() : null;
+        if (batch == null || pos == batch.size()) {
+            batch = ((BatchOpIterator) child).nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
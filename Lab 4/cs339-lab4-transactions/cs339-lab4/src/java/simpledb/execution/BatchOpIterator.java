@@ -0,0 +1,28 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * An OpIterator that can also return its tuples a {@link TupleBatch} at a
+ * time, so that its parent can work on a whole column of values in a loop
+ * rather than call next() for each tuple.  Between open() and close() or
+ * rewind(), a caller reads the iterator either with nextBatch() or with
+ * hasNext() and next(), not both.
+ * <p>
+ * Use {@link BatchAdapter#nextBatch(OpIterator, TupleBatch)} to read
+ * batches from a child that may not implement this interface, and a
+ * {@link BatchAdapter} to put any OpIterator where the other API is
+ * wanted.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples, or null if there are no more.  The
+     * batch has at least one selected row.  It belongs to the iterator,
+     * which may reuse it, so it is only valid until the next call.
+     *
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
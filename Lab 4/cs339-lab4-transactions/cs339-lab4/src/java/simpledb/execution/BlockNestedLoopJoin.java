@@ -0,0 +1,164 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * A nested loops join that reads the outer child a block of tuples at a
+ * time, and scans the inner child once per block rather than once per
+ * outer tuple.  It handles any join predicate, like {@link Join}.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The default block size, in tuples of the outer child. */
+    public final static int BLOCK_SIZE = HashEquiJoin.MAP_SIZE;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int blockSize;
+    private final List<Tuple> block = new ArrayList<>();
+    private transient Tuple t2 = null;
+    private transient int next = 0;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockSize
+     *            The most tuples of child1 to hold at once
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("block size must be positive");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockSize = blockSize;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, BLOCK_SIZE);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * Read the next block of child1, replacing the current one.
+     *
+     * @return false if child1 is exhausted
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext())
+            block.add(child1.next());
+        t2 = null;
+        return !block.isEmpty();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        readBlock();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        block.clear();
+        t2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        readBlock();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  Each tuple of child2 is matched against the whole block
+     * of child1 before the next one is read; once child2 is exhausted, the
+     * next block is read and child2 is rewound.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!block.isEmpty()) {
+            while (t2 != null || child2.hasNext()) {
+                if (t2 == null) {
+                    t2 = child2.next();
+                    next = 0;
+                }
+                while (next < block.size()) {
+                    Tuple t1 = block.get(next++);
+                    if (!pred.filter(t1, t2))
+                        continue;
+
+                    int td1n = t1.getTupleDesc().numFields();
+                    int td2n = t2.getTupleDesc().numFields();
+                    Tuple t = new Tuple(comboTD);
+                    for (int i = 0; i < td1n; i++)
+                        t.setField(i, t1.getField(i));
+                    for (int i = 0; i < td2n; i++)
+                        t.setField(td1n + i, t2.getField(i));
+                    return t;
+                }
+                t2 = null;
+            }
+
+            // child2 is done: move on to the next block
+            if (!readBlock())
+                return null;
+            child2.rewind();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -2,6 +2,8 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -10,11 +12,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final Predicate pred;
     private OpIterator child;
+    private boolean pushedDown; // the child scan only returns tuples that pass
+    private transient TupleBatch batch; // for reading a child without batches
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -38,8 +42,15 @@ public class Filter extends Operator {
         return child.getTupleDesc();
     }
 
+    /**
+     * Opens the child, first handing the predicate to it if it is a
+     * {@link SeqScan} that can apply it to its pages (see
+     * {@link SeqScan#pushPredicate}), in which case the tuples it returns
+     * are not checked again.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        pushedDown = child instanceof SeqScan && ((SeqScan) child).pushPredicate(pred);
         child.open();
         super.open();
     }
@@ -66,12 +77,101 @@ public class Filter extends Operator {
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple t = child.next();
-            if (pred.filter(t))
+            if (pushedDown || pred.filter(t))
                 return t;
         }
         return null;
     }
 
+    /**
+     * Returns the next batch of the child's tuples that pass the predicate:
+     * the child's own batch, with the tuples that do not pass removed from
+     * its selection.  On an int field the predicate is applied in a loop
+     * over the column's values.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        while (true) {
+            TupleBatch b = BatchAdapter.nextBatch(child, batch);
+            if (b == null || pushedDown)
+                return b;
+            int f = pred.getField();
+            int[] sel = b.selection();
+            int n;
+            if (b.getTupleDesc().getFieldType(f) == Type.INT_TYPE)
+                n = select(b.intColumn(f), sel, b.size(), pred.getOp(),
+                        ((IntField) pred.getOperand()).getValue());
+            else {
+                n = 0;
+                for (int i = 0; i < b.size(); i++) {
+                    int r = sel[i];
+                    if (b.getField(f, r).compare(pred.getOp(), pred.getOperand()))
+                        sel[n++] = r;
+                }
+            }
+            b.setSelected(n);
+            if (n > 0)
+                return b;
+        }
+    }
+
+    /**
+     * Keep the selected rows whose values pass a comparison with v, as
+     * {@link Predicate#filterInt} would, with a loop for each operator.
+     *
+     * @return the number of rows kept, at the front of sel
+     */
+    private static int select(int[] values, int[] sel, int n, Predicate.Op op, int v) {
+        int k = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] == v)
+                        sel[k++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] != v)
+                        sel[k++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] > v)
+                        sel[k++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] >= v)
+                        sel[k++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] < v)
+                        sel[k++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = sel[i];
+                    if (values[r] <= v)
+                        sel[k++] = r;
+                }
+                break;
+        }
+        return k;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[] { this.child };
@@ -2,27 +2,50 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join.  It builds a hash table of the tuples
+ * of child1, and probes it with each tuple of child2.  If child1 has more
+ * tuples than the memory budget allows, both children are divided into
+ * {@link #PARTITIONS} partitions by a hash of the join field, and all but
+ * one are written to temporary files as they are read: the remaining
+ * partition of child1 stays in memory and is joined as child2 is read, and
+ * then each pair of partitions on disk is joined in turn.  So each child is
+ * read once, and the tuples of the spilled partitions are written and read
+ * once more.  A partition of child1 that still does not fit is joined a
+ * budget's worth of tuples at a time, reading its child2 partition again
+ * for each.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget: the most tuples of child1 kept in memory. */
+    public final static int MAP_SIZE = 20000;
+
+    /** The number of partitions the children are divided into, a power of 2. */
+    public final static int PARTITIONS = 16;
+    private final static int PARTITION_BITS = Integer.numberOfTrailingZeros(PARTITIONS);
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int memoryBudget;
     transient private Tuple t2 = null;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -31,9 +54,20 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor for a join with a given memory budget.
+     *
+     * @param memoryBudget
+     *            the most tuples of child1 to keep in memory at once
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int memoryBudget) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memoryBudget = Math.max(1, memoryBudget);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -44,7 +78,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,29 +88,241 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
+
+    /**
+     * @return the most tuples of child1 the join keeps in memory at once
+     */
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return true if child1 did not fit in the memory budget, so that
+     *   partitions of the children were written to disk
+     */
+    public boolean hasSpilled() {
+        return spilled;
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    transient private int inMap = 0;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    // the partitions, once child1 has not fit in memory
+    transient private boolean spilled = false;
+    transient private int resident = -1; // the partition of child1 in map, or -1
+    transient private SpillFile[] buildParts = null;
+    transient private SpillFile[] probeParts = null;
+
+    // the partition being joined from disk, once child2 has been read
+    transient private int part = -1;
+    transient private SpillFile.Reader buildReader = null;
+    transient private SpillFile.Reader probeReader = null;
+
+    private static int partition(Field key) {
+        return (key.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    private void put(Tuple t) {
+        map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+        inMap++;
+    }
+
+    private static void spill(SpillFile[] parts, int p, Tuple t, TupleDesc td) throws IOException {
+        if (parts[p] == null)
+            parts[p] = new SpillFile(td);
+        parts[p].add(t);
+    }
+
+    /**
+     * Read child1 into the hash table, partitioning it if it does not fit:
+     * the tuples of partition 0 stay in memory, and the others are written
+     * out, as are those of partition 0 if they do not fit either.
+     */
+    private void build() throws DbException, TransactionAbortedException, IOException {
+        TupleDesc td = child1.getTupleDesc();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            if (!spilled) {
+                put(t);
+                if (inMap > memoryBudget)
+                    partitionMap(td);
+                continue;
+            }
+            int p = partition(t.getField(pred.getField1()));
+            if (p != resident) {
+                spill(buildParts, p, t, td);
+                continue;
+            }
+            put(t);
+            if (inMap > memoryBudget)
+                evictResident(td);
+        }
+    }
+
+    // write out all the tuples in the map but those of partition 0
+    private void partitionMap(TupleDesc td) throws IOException {
+        spilled = true;
+        resident = 0;
+        buildParts = new SpillFile[PARTITIONS];
+        probeParts = new SpillFile[PARTITIONS];
+        inMap = 0;
+        for (Iterator<List<Tuple>> it = map.values().iterator(); it.hasNext(); ) {
+            List<Tuple> l = it.next();
+            int p = partition(l.get(0).getField(pred.getField1()));
+            if (p == resident) {
+                inMap += l.size();
+                continue;
+            }
+            for (Tuple t : l)
+                spill(buildParts, p, t, td);
+            it.remove();
         }
-        return cnt > 0;
+        if (inMap > memoryBudget)
+            evictResident(td);
+    }
 
+    // write out the partition in memory too
+    private void evictResident(TupleDesc td) throws IOException {
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l)
+                spill(buildParts, resident, t, td);
+        }
+        map.clear();
+        inMap = 0;
+        resident = -1;
+    }
+
+    /**
+     * Fill the hash table with the next budget's worth of tuples of the
+     * partition of child1 being joined.
+     */
+    private void loadChunk() throws IOException {
+        map.clear();
+        inMap = 0;
+        while (inMap < memoryBudget && buildReader.hasNext())
+            put(buildReader.next());
+    }
+
+    /**
+     * Move on to the next pair of partitions on disk that can have matches,
+     * or the next chunk of the current one.
+     *
+     * @return false if there are none left
+     */
+    private boolean nextPartition() throws IOException {
+        if (probeReader != null)
+            probeReader.close();
+        probeReader = null;
+        if (buildReader != null && buildReader.hasNext()) {
+            loadChunk();
+            probeReader = probeParts[part].reader();
+            return true;
+        }
+        if (buildReader != null)
+            buildReader.close();
+        buildReader = null;
+        map.clear();
+        inMap = 0;
+        while (++part < PARTITIONS) {
+            if (part == resident || buildParts[part] == null || probeParts[part] == null)
+                continue;
+            buildReader = buildParts[part].reader();
+            loadChunk();
+            probeReader = probeParts[part].reader();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a tuple of child2 with the given join value has to
+     *   be joined now, with the hash table, rather than be written to its
+     *   partition to be joined later
+     */
+    private boolean probeNow(Field key) {
+        return !spilled || partition(key) == resident;
+    }
+
+    // write a tuple of child2 to its partition, unless it can have no matches
+    private void spillProbe(Field key, Tuple t) throws IOException {
+        int p = partition(key);
+        if (buildParts[p] != null)
+            spill(probeParts, p, t, child2.getTupleDesc());
+    }
+
+    /**
+     * @return the next tuple of child2 to probe the hash table with, or
+     *   null if there are no more
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        while (part < 0) {
+            if (!child2.hasNext()) {
+                if (!spilled || !nextPartition())
+                    return null;
+                break;
+            }
+            Tuple t = child2.next();
+            Field key = t.getField(pred.getField2());
+            if (probeNow(key))
+                return t;
+            spillProbe(key, t);
+        }
+        while (probeReader != null) {
+            Tuple t = probeReader.next();
+            if (t != null)
+                return t;
+            if (!nextPartition())
+                return null;
+        }
+        return null;
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        try {
+            build();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // forget the build, removing any partitions on disk
+    private void reset() {
+        try {
+            if (buildReader != null)
+                buildReader.close();
+            if (probeReader != null)
+                probeReader.close();
+        } catch (IOException e) {
+            // the files are going anyway
+        }
+        buildReader = null;
+        probeReader = null;
+        for (SpillFile[] parts : new SpillFile[][]{buildParts, probeParts}) {
+            if (parts == null)
+                continue;
+            for (SpillFile f : parts) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        spilled = false;
+        resident = -1;
+        part = -1;
+        map.clear();
+        inMap = 0;
+        t2 = null;
+        listIt = null;
+        resetBatches();
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        reset();
+        start();
         super.open();
     }
 
@@ -84,15 +330,14 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        reset();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        reset();
+        start();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -111,12 +356,12 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
-        t1 = listIt.next();
+        Tuple t1 = listIt.next();
 
         int td1n = t1.getTupleDesc().numFields();
         int td2n = t2.getTupleDesc().numFields();
@@ -136,28 +381,99 @@ public class HashEquiJoin extends Operator {
             return processList();
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        try {
+            // loop around child2, and then the partitions of it on disk
+            while ((t2 = nextProbe()) != null) {
+                List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
+                return processList();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+    // nextBatch's place in the join
+    transient private TupleBatch out = null;
+    transient private TupleBatch probeBatch = null; // for a child2 without batches
+    transient private TupleBatch probe = null; // the batch of child2 being probed
+    transient private int probePos = 0;
+    transient private List<Tuple> matches = null; // for probe's last row, or t2
+    transient private int matchPos = 0;
+    transient private boolean joined = false;
 
-            return processList();
+    private void resetBatches() {
+        probe = null;
+        matches = null;
+        joined = false;
+    }
 
+    /**
+     * Returns the next batch of joined tuples, reading child2 a batch at a
+     * time: each row of child2's batch is looked up in the hash table, and
+     * its values are copied column by column into the output batch after
+     * those of each matching tuple.  The partitions of child2 on disk are
+     * then read a tuple at a time.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (out == null) {
+            out = new TupleBatch(comboTD);
+            probeBatch = new TupleBatch(child2.getTupleDesc());
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        out.clear();
+        int td1n = child1.getTupleDesc().numFields();
+        int td2n = child2.getTupleDesc().numFields();
+        try {
+            while (!out.isFull() && !joined) {
+                if (matches != null && matchPos < matches.size()) {
+                    Tuple m = matches.get(matchPos++);
+                    int r = out.addRow();
+                    for (int i = 0; i < td1n; i++)
+                        out.setField(i, r, m.getField(i));
+                    if (probe != null) {
+                        int pr = probe.row(probePos - 1);
+                        for (int i = 0; i < td2n; i++)
+                            out.copy(td1n + i, r, probe, i, pr);
+                    } else {
+                        for (int i = 0; i < td2n; i++)
+                            out.setField(td1n + i, r, t2.getField(i));
+                    }
+                    continue;
+                }
+                matches = null;
+                if (part >= 0) {
+                    // joining the partitions on disk
+                    probe = null;
+                    t2 = nextProbe();
+                    if (t2 == null)
+                        joined = true;
+                    else
+                        matches = map.get(t2.getField(pred.getField2()));
+                    matchPos = 0;
+                    continue;
+                }
+                if (probe != null && probePos < probe.size()) {
+                    int pr = probe.row(probePos++);
+                    Field key = probe.getField(pred.getField2(), pr);
+                    if (probeNow(key))
+                        matches = map.get(key);
+                    else
+                        spillProbe(key, probe.getTuple(pr));
+                    matchPos = 0;
+                    continue;
+                }
+                probe = BatchAdapter.nextBatch(child2, probeBatch);
+                probePos = 0;
+                if (probe == null && (!spilled || !nextPartition()))
+                    joined = true;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-
-        return null;
+        return out.size() == 0 ? null : out;
     }
 
     @Override
@@ -170,5 +486,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
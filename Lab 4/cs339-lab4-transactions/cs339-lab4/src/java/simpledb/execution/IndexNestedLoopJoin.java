@@ -0,0 +1,188 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.HashIndexFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * An equality join that, for each tuple of the outer child, looks up the
+ * inner tuples with the same join value in a {@link HashIndexFile} on the
+ * inner table, instead of scanning the inner child.  The inner child must
+ * be a {@link SeqScan} returning all the table's fields, possibly under
+ * {@link Filter}s, whose predicates are applied to the tuples looked up;
+ * the inner child itself is never opened.  See {@link #canProbe}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator outer, inner;
+    private final TupleDesc comboTD;
+    private transient SeqScan scan;
+    private transient List<Predicate> filters;
+    private transient HashIndexFile index;
+    private transient Tuple t1 = null;
+    private transient DbFileIterator matches = null;
+
+    /**
+     * Constructor.  Accepts the outer child and the inner child to probe,
+     * and the predicate to join them on.
+     *
+     * @param p the predicate to join on, which must be EQUALS
+     * @param outer iterator for the left(outer) relation to join
+     * @param inner iterator for the right(inner) relation, which must be
+     *   one that {@link #canProbe} accepts
+     * @throws IllegalArgumentException if the inner child cannot be probed
+     *   on the predicate
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator outer, OpIterator inner) {
+        if (!canProbe(p.getOperator(), p.getField2(), inner))
+            throw new IllegalArgumentException("no hash index to probe for " + p);
+        this.pred = p;
+        this.outer = outer;
+        this.inner = inner;
+        comboTD = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    /**
+     * @return the scan at the bottom of a chain of Filters, or null if the
+     *   iterator is not one
+     */
+    private static SeqScan scanOf(OpIterator it) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (!(it instanceof SeqScan) || ((SeqScan) it).getColumns() != null)
+            return null;
+        return (SeqScan) it;
+    }
+
+    /**
+     * @param op the operator of a join predicate
+     * @param field the index of the join field in the inner child
+     * @param inner the inner child of a join
+     * @return true if an IndexNestedLoopJoin can join with the inner child:
+     *   op is EQUALS, and the inner child is a scan of all of a table's
+     *   fields, possibly filtered, with a hash index on the join field
+     */
+    public static boolean canProbe(Predicate.Op op, int field, OpIterator inner) {
+        if (op != Predicate.Op.EQUALS)
+            return false;
+        SeqScan s = scanOf(inner);
+        return s != null && Database.getCatalog().getIndex(s.getTableId(), field) != null;
+    }
+
+    // find the scan, filters and index of the inner child
+    private void bind() {
+        scan = scanOf(inner);
+        filters = new ArrayList<>();
+        for (OpIterator it = inner; it instanceof Filter; it = ((Filter) it).getChildren()[0])
+            filters.add(((Filter) it).getPredicate());
+        index = Database.getCatalog().getIndex(scan.getTableId(), pred.getField2());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *   name
+     */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *   name
+     */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        bind();
+        outer.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (matches != null)
+            matches.close();
+        matches = null;
+        t1 = null;
+        outer.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (matches != null)
+            matches.close();
+        matches = null;
+        t1 = null;
+        outer.rewind();
+    }
+
+    /**
+     * Returns the next outer tuple joined with one of the inner tuples the
+     * index has for its join value that pass the inner child's filters, or
+     * null if there are no more.  The joined tuples are the concatenation
+     * of the outer and inner tuples, as for {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches == null) {
+                if (!outer.hasNext())
+                    return null;
+                t1 = outer.next();
+                Field key = t1.getField(pred.getField1());
+                if (key.getType() != index.getTupleDesc().getFieldType(0))
+                    continue;
+                matches = index.lookup(scan.getTransactionId(), key);
+                matches.open();
+            }
+            while (matches.hasNext()) {
+                Tuple t2 = matches.next();
+                boolean passes = true;
+                for (Predicate f : filters)
+                    passes &= f.filter(t2);
+                if (!passes)
+                    continue;
+
+                int td1n = t1.getTupleDesc().numFields();
+                int td2n = t2.getTupleDesc().numFields();
+                Tuple t = new Tuple(comboTD);
+                for (int i = 0; i < td1n; i++)
+                    t.setField(i, t1.getField(i));
+                for (int i = 0; i < td2n; i++)
+                    t.setField(td1n + i, t2.getField(i));
+                return t;
+            }
+            matches.close();
+            matches = null;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.outer, this.inner };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.outer = children[0];
+        this.inner = children[1];
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored in
+ * a {@link BTreeFile} whose keys satisfy a predicate, in key order, by
+ * reading only the leaves in the predicate's range rather than the whole
+ * table.  It returns the same tuples, with the same TupleDesc, as a
+ * {@link SeqScan} of the table under a {@link Filter} with the predicate.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final Predicate predicate;
+    private final String tableName;
+    private final String alias;
+    private final TupleDesc myTd;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, which must be a BTreeFile
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link SeqScan#SeqScan(TransactionId, int, String)}
+     * @param p
+     *            the predicate the tuples returned satisfy; it must be on the
+     *            field the table is keyed on
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate p) {
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof BTreeFile))
+            throw new IllegalArgumentException("table " + tableid + " has no B+ tree index");
+        BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(tableid);
+        if (p.getField() != file.keyField())
+            throw new IllegalArgumentException("the predicate is not on the key of table " + tableid);
+        this.tid = tid;
+        this.predicate = p;
+        this.alias = tableAlias;
+        this.tableName = Database.getCatalog().getTableName(tableid);
+        this.it = file.indexIterator(tid, p.getOp(), p.getOperand());
+
+        TupleDesc td = file.getTupleDesc();
+        String[] names = new String[td.numFields()];
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            names[i] = tableAlias + "." + td.getFieldName(i);
+            types[i] = td.getFieldType(i);
+        }
+        this.myTd = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the table name of the table the operator scans
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the predicate the index is searched with
+     */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        it.open();
+        isOpen = true;
+    }
+
+    /**
+     * @return the TupleDesc of the table, with field names prefixed with
+     *   the table alias, as for a SeqScan
+     */
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        it.close();
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
@@ -74,6 +74,56 @@ public class IntegerAggregator implements Aggregator {
         groups.put(groupVal, agg);
     }
 
+    /**
+     * Merge a batch of values into the aggregate, as mergeTupleIntoGroup
+     * would for tuples holding them, but without any tuples or fields.
+     * Not supported for SC_AVG, which needs a second field of each tuple.
+     *
+     * @param groupVals
+     *            the value of the int group-by field of each tuple, or null
+     *            if there is no grouping
+     * @param values
+     *            the value of the aggregate field of each tuple
+     * @param n
+     *            the number of tuples
+     */
+    public void mergeInts(int[] groupVals, int[] values, int n) {
+        if (what == Op.SC_AVG)
+            throw new UnsupportedOperationException("sc_avg needs more than the aggregate field");
+        if (groupVals == null) {
+            if (n == 0)
+                return;
+            AggregateFields agg = groups.computeIfAbsent("", AggregateFields::new);
+            int min = agg.min, max = agg.max, sum = agg.sum;
+            for (int i = 0; i < n; i++) {
+                int x = values[i];
+                sum += x;
+                min = Math.min(x, min);
+                max = Math.max(x, max);
+            }
+            agg.count += n;
+            agg.sum = sum;
+            agg.min = min;
+            agg.max = max;
+            return;
+        }
+
+        // tuples of a group often come together, so keep the last group
+        AggregateFields agg = null;
+        int last = 0;
+        for (int i = 0; i < n; i++) {
+            if (agg == null || groupVals[i] != last) {
+                last = groupVals[i];
+                agg = groups.computeIfAbsent(Integer.toString(last), AggregateFields::new);
+            }
+            int x = values[i];
+            agg.count++;
+            agg.sum += x;
+            agg.min = Math.min(x, agg.min);
+            agg.max = Math.max(x, agg.max);
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
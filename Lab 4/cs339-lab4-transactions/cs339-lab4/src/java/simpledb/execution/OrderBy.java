@@ -3,28 +3,54 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * OrderBy is an external merge sort.  If its child fits in the memory
+ * budget, its tuples are sorted in memory.  Otherwise the child is read a
+ * budget's worth of tuples at a time, and each of these runs is sorted and
+ * written to a temporary file, except the last, which is kept in memory.
+ * The runs are then merged through a tree of losers as tuples are fetched,
+ * after first merging groups of {@link #MERGE_FAN_IN} runs into longer runs
+ * on disk if there are too many to read at once.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default memory budget: the most tuples of the child held at once. */
+    public final static int RUN_SIZE = HashEquiJoin.MAP_SIZE;
+
+    /** The most runs merged at once. */
+    public final static int MERGE_FAN_IN = 64;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
     private final int orderByField;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
     private final boolean asc;
+    private final int memoryBudget;
+    private final TupleComparator comparator;
+    private transient Iterator<Tuple> it;
+
+    // once the child does not fit in memory: the sorted runs on disk, in
+    // the order they were read, with childTups as the last run, and the
+    // merge of them all
+    private final List<SpillFile> runs = new ArrayList<>();
+    private final List<SpillFile.Reader> readers = new ArrayList<>();
+    private transient LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,39 +59,175 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, RUN_SIZE);
+    }
+
+    /**
+     * Creates a new OrderBy node with a given memory budget.
+     *
+     * @param memoryBudget
+     *            the most tuples of the child to hold in memory at once.
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int memoryBudget) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryBudget = Math.max(1, memoryBudget);
+        this.comparator = new TupleComparator(orderbyField, asc);
     }
-    
+
     public boolean isASC()
     {
 	return this.asc;
     }
-    
+
     public int getOrderByField()
     {
         return this.orderByField;
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    public int getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the number of sorted runs written to disk and still to be
+     *   merged, or 0 if the child fit in memory
+     */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Returns true if an iterator already returns its tuples in order of
+     * one of its fields, so that they need not be sorted: it is an OrderBy
+     * or an {@link IndexScan} on the field, a {@link SortMergeJoin} that
+     * reads its children in that order, or a {@link Filter} of one of
+     * those, or a nested loops join whose outer child is one of those.
+     *
+     * @param it the iterator
+     * @param field the index of the field in the iterator's TupleDesc
+     * @param asc true for ascending order
+     */
+    public static boolean isSorted(OpIterator it, int field, boolean asc) {
+        if (it instanceof Filter)
+            return isSorted(((Filter) it).getChildren()[0], field, asc);
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).orderByField == field && ((OrderBy) it).asc == asc;
+        if (it instanceof IndexScan)
+            return asc && ((IndexScan) it).getPredicate().getField() == field;
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).isSortedOn(field, asc);
+        if (it instanceof Join || it instanceof IndexNestedLoopJoin) {
+            OpIterator outer = ((Operator) it).getChildren()[0];
+            return field < outer.getTupleDesc().numFields() && isSorted(outer, field, asc);
+        }
+        return false;
+    }
+
+    /**
+     * Sort the tuples in memory and write them to a new run.
+     */
+    private void writeRun() throws IOException {
+        childTups.sort(comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /**
+     * Merge each group of MERGE_FAN_IN consecutive runs into one.
+     */
+    private void mergeRuns() throws IOException {
+        List<SpillFile> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            LoserTree tree = startMerge(group, Collections.emptyList());
+            SpillFile run = new SpillFile(td);
+            Tuple t;
+            while ((t = tree.next()) != null)
+                run.add(t);
+            closeReaders();
+            for (SpillFile f : group)
+                f.delete();
+            merged.add(run);
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    /**
+     * @return a tree merging the runs on disk and a sorted run in memory
+     */
+    private LoserTree startMerge(List<SpillFile> files, List<Tuple> inMemory) throws IOException {
+        List<LoserTree.Run> sources = new ArrayList<>();
+        for (SpillFile f : files) {
+            SpillFile.Reader r = f.reader();
+            readers.add(r);
+            sources.add(r::next);
+        }
+        if (!inMemory.isEmpty()) {
+            Iterator<Tuple> i = inMemory.iterator();
+            sources.add(() -> i.hasNext() ? i.next() : null);
+        }
+        return new LoserTree(sources, comparator);
+    }
+
+    private void closeReaders() throws IOException {
+        for (SpillFile.Reader r : readers)
+            r.close();
+        readers.clear();
+    }
+
+    private void deleteRuns() {
+        try {
+            closeReaders();
+        } catch (IOException e) {
+            // the files are going anyway
+        }
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        merge = null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
+        // load the tuples a run at a time, and sort them
+        childTups.clear();
+        deleteRuns();
+        try {
+            while (child.hasNext()) {
+                if (childTups.size() == memoryBudget)
+                    writeRun();
+                childTups.add(child.next());
+            }
+            childTups.sort(comparator);
+            while (runs.size() + 1 > MERGE_FAN_IN)
+                mergeRuns();
+            if (!runs.isEmpty())
+                merge = startMerge(runs, childTups);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
         it = childTups.iterator();
         super.open();
     }
@@ -73,20 +235,37 @@ public class OrderBy extends Operator {
     public void close() {
         super.close();
         it = null;
+        childTups.clear();
+        deleteRuns();
     }
 
     public void rewind() {
         it = childTups.iterator();
+        if (merge != null) {
+            try {
+                closeReaders();
+                merge = startMerge(runs, childTups);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
     protected Tuple fetchNext() throws NoSuchElementException {
+        if (merge != null) {
+            try {
+                return merge.next();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -124,5 +303,79 @@ class TupleComparator implements Comparator<Tuple> {
         else
             return asc ? -1 : 1;
     }
-    
+
+}
+
+/**
+ * A tree of losers, which merges sorted runs of tuples: each internal node
+ * holds the run whose tuple lost the comparison there, and the root the
+ * overall winner, so taking the next tuple replays only the path from its
+ * run to the root, with one comparison per level.  Equal tuples are taken
+ * from the earlier run first, so a merge of consecutive runs is stable.
+ */
+class LoserTree {
+
+    /** A sorted run of tuples. */
+    interface Run {
+        /** @return the next tuple of the run, or null if there are no more */
+        Tuple next() throws IOException;
+    }
+
+    private final Run[] runs;
+    private final Tuple[] heads; // the next tuple of each run; null once it is done
+    private final int[] tree; // tree[0] is the winner, tree[1..k-1] the losers
+    private final Comparator<Tuple> comparator;
+    private final int k;
+
+    LoserTree(List<Run> runs, Comparator<Tuple> comparator) throws IOException {
+        this.k = runs.size();
+        this.runs = runs.toArray(new Run[0]);
+        this.comparator = comparator;
+        // run k is a sentinel that beats every run, so the tree fills up
+        // as each real run is played in
+        this.heads = new Tuple[k + 1];
+        this.tree = new int[Math.max(k, 1)];
+        Arrays.fill(tree, k);
+        for (int i = 0; i < k; i++)
+            heads[i] = this.runs[i].next();
+        for (int i = k - 1; i >= 0; i--)
+            replay(i);
+    }
+
+    /** @return true if the head of run a comes before that of run b */
+    private boolean beats(int a, int b) {
+        if (a == k || b == k)
+            return a == k;
+        if (heads[a] == null || heads[b] == null)
+            return heads[b] == null && heads[a] != null;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** Play the new head of run s from its leaf up to the root. */
+    private void replay(int s) {
+        for (int t = (s + k) / 2; t > 0; t /= 2) {
+            if (beats(tree[t], s)) {
+                int winner = tree[t];
+                tree[t] = s;
+                s = winner;
+            }
+        }
+        tree[0] = s;
+    }
+
+    /**
+     * @return the next tuple of the merge, or null if all the runs are done
+     */
+    Tuple next() throws IOException {
+        if (k == 0)
+            return null;
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null;
+        heads[w] = runs[w].next();
+        replay(w);
+        return t;
+    }
 }
@@ -1,9 +1,11 @@
 package simpledb.execution;
 
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -106,6 +108,50 @@ public class Predicate implements Serializable {
         return f.compare(op, operand);
     }
 
+    /**
+     * Applies the predicate to a value of an int field, as filter would to a
+     * tuple with that value, without building an IntField for it.
+     *
+     * @param value the value of the field number specified in the
+     *            constructor
+     * @return true if the comparison is true, false otherwise.
+     */
+    public boolean filterInt(int value) {
+        int v = ((IntField) operand).getValue();
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == v;
+            case NOT_EQUALS:
+                return value != v;
+            case GREATER_THAN:
+                return value > v;
+            case GREATER_THAN_OR_EQ:
+                return value >= v;
+            case LESS_THAN:
+                return value < v;
+            case LESS_THAN_OR_EQ:
+                return value <= v;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the predicate to every value of a dictionary, such as the
+     * distinct strings of a column, so that tuples holding codes into the
+     * dictionary can be filtered by code, comparing each value only once.
+     *
+     * @param dictionary the values of the field number specified in the
+     *            constructor
+     * @return whether the comparison is true for each value, by index
+     */
+    public boolean[] filterDictionary(List<? extends Field> dictionary) {
+        boolean[] passes = new boolean[dictionary.size()];
+        for (int i = 0; i < passes.length; i++)
+            passes[i] = dictionary.get(i).compare(op, operand);
+        return passes;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
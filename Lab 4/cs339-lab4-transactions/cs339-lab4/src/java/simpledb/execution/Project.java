@@ -11,12 +11,14 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final int[] columns; // outFieldIds, for projecting batches
+    private transient TupleBatch batch; // for reading a child without batches
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -35,6 +37,9 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        columns = new int[fieldList.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = fieldList.get(i);
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -81,6 +86,17 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child's tuples, projected: the batch
+     * shares the columns of the child's batch, so nothing is copied.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        TupleBatch b = BatchAdapter.nextBatch(child, batch);
+        return b == null ? null : b.project(td, columns);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -5,7 +5,11 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.DbFile;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PaxHeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -14,9 +18,9 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk).  It can also return them a batch at a time; see {@link #nextBatch}.
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -25,8 +29,15 @@ public class SeqScan implements OpIterator {
     private TupleDesc myTd;
     private transient DbFileIterator it;
 //    private transient int tableid;
+    private transient DbFile file;
     private String tableName;
     private String alias;
+    private final int[] columns; // the table fields returned, or null for all
+    private boolean projectTuples; // the file cannot project, so next() does
+    private Predicate predicate; // pushed down by a Filter, or null
+    private transient TupleBatch batch; // returned by nextBatch, reused
+    private transient PaxHeapFile.IntColumnIterator pax; // nextBatch's page arrays
+    private transient int paxPos, paxRows; // the rows of them not yet returned
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -45,7 +56,29 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the fields of the
+     * table.  Tables in a {@link HeapFile} do not decode the other fields,
+     * and a {@link PaxHeapFile} does not even read them.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as for
+     *            {@link #SeqScan(TransactionId, int, String)}
+     * @param columns
+     *            the indexes in the table of the fields to return, in the
+     *            order they are to appear in the returned tuples, or null for
+     *            all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
         this.tid = tid;
+        this.columns = columns == null ? null : columns.clone();
         reset(tableid,tableAlias);
     }
 
@@ -66,6 +99,28 @@ public class SeqScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the id of the table this scan reads
+     */
+    public int getTableId() {
+        return file.getId();
+    }
+
+    /**
+     * @return the indexes in the table of the fields this scan returns, or
+     *   null if it returns all of them in order
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -83,8 +138,16 @@ public class SeqScan implements OpIterator {
         this.isOpen=false;
         this.alias = tableAlias;
         this.tableName = Database.getCatalog().getTableName(tableid);
-        this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.projectTuples = columns != null && !(file instanceof HeapFile);
+        this.predicate = null;
+        if (columns != null && file instanceof HeapFile)
+            this.it = ((HeapFile) file).iterator(tid, columns);
+        else
+            this.it = file.iterator(tid);
         myTd = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null)
+            myTd = myTd.project(columns);
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
         for (int i = 0; i < myTd.numFields(); i++) {
@@ -106,6 +169,8 @@ public class SeqScan implements OpIterator {
             throw new DbException("double open on one OpIterator.");
 
         it.open();
+        pax = null;
+        paxPos = paxRows = 0;
         isOpen = true;
     }
 
@@ -134,8 +199,106 @@ public class SeqScan implements OpIterator {
         if (!isOpen)
             throw new IllegalStateException("iterator is closed");
 
-        return it.next();
+        Tuple t = it.next();
+        if (projectTuples) {
+            Tuple projected = new Tuple(myTd);
+            projected.setRecordId(t.getRecordId());
+            for (int j = 0; j < columns.length; j++)
+                projected.setField(j, t.getField(columns[j]));
+            t = projected;
+        }
+        return t;
+    }
 
+    /**
+     * Returns the next batch of the tuples this scan returns.  If the table
+     * is a {@link PaxHeapFile}, all the fields returned are ints and no
+     * predicate has been pushed down, the columns are copied straight from
+     * each page's arrays, without building any tuples, and the batch has no
+     * RecordIds.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        if (batch == null)
+            batch = new TupleBatch(myTd);
+        batch.clear();
+        if (predicate == null && file instanceof PaxHeapFile && allInts()) {
+            if (pax == null) {
+                int[] fields = new int[myTd.numFields()];
+                for (int j = 0; j < fields.length; j++)
+                    fields[j] = j;
+                pax = intColumns(fields);
+            }
+            while (!batch.isFull()) {
+                if (paxPos == paxRows) {
+                    paxPos = 0;
+                    paxRows = Math.max(0, pax.next());
+                    if (paxRows == 0)
+                        break;
+                }
+                int rows = batch.numRows();
+                int n = Math.min(paxRows - paxPos, batch.capacity() - rows);
+                int[][] values = pax.values();
+                for (int j = 0; j < values.length; j++)
+                    System.arraycopy(values[j], paxPos, batch.intColumn(j), rows, n);
+                batch.setNumRows(rows + n);
+                paxPos += n;
+            }
+        } else {
+            while (!batch.isFull() && it.hasNext())
+                batch.add(next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    private boolean allInts() {
+        for (int j = 0; j < myTd.numFields(); j++) {
+            if (myTd.getFieldType(j) != Type.INT_TYPE)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns an iterator over some int fields of the tuples this scan
+     * returns, as arrays of values a page at a time, if the table stores
+     * its values by column.  It reads the table independently of this
+     * scan's own position.
+     *
+     * @param fields the indexes of the fields in this scan's TupleDesc,
+     *   which must all be INT_TYPE
+     * @return the iterator, or null if the table is not a PaxHeapFile
+     */
+    public PaxHeapFile.IntColumnIterator intColumns(int[] fields) {
+        if (!(file instanceof PaxHeapFile))
+            return null;
+        int[] tableFields = new int[fields.length];
+        for (int j = 0; j < fields.length; j++)
+            tableFields[j] = columns == null ? fields[j] : columns[fields[j]];
+        return ((PaxHeapFile) file).intColumns(tid, tableFields);
+    }
+
+    /**
+     * Has this scan return only the tuples that pass a predicate, evaluated
+     * by the table's pages ({@link HeapFile#iterator(TransactionId,
+     * Predicate)}), so that a {@link CompressedHeapFile} compares codes
+     * rather than strings and skips pages none of whose values pass.  This
+     * is how a {@link Filter} over a scan hands its predicate down.
+     *
+     * @param p a predicate on the fields of this scan
+     * @return true if the scan now returns only tuples that pass p; false,
+     *   leaving the scan unchanged, if it is open, returns only some
+     *   fields, already has another predicate or is not over a HeapFile
+     */
+    public boolean pushPredicate(Predicate p) {
+        if (p == predicate)
+            return true;
+        if (isOpen || columns != null || predicate != null || !(file instanceof HeapFile))
+            return false;
+        predicate = p;
+        it = ((HeapFile) file).iterator(tid, p);
+        return true;
     }
 
     public void close() {
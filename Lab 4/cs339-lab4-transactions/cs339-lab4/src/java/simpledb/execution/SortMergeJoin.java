@@ -0,0 +1,257 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * A join that reads both children in order of their join fields and merges
+ * them, for EQUALS and the range predicates.  A child that does not already
+ * return its tuples in that order (see {@link OrderBy#isSorted}) is sorted
+ * by an {@link OrderBy}.
+ * <p>
+ * For EQUALS both children are read in ascending order, and each tuple of
+ * child1 is joined with the run of child2 tuples with the same value.  For
+ * a range predicate, the tuples of child2 that match a tuple of child1 are
+ * those at the start of child2, in the order: ascending for
+ * GREATER_THAN(_OR_EQ) and descending for LESS_THAN(_OR_EQ).  So each tuple
+ * of child1 is joined with child2 from its start up to the first tuple that
+ * does not match, and since the tuples of child1 are read in the same
+ * order, the predicate is only applied to pairs that match, and to one
+ * more per tuple of child1.
+ * <p>
+ * The join returns its tuples in the order it reads child1, and for EQUALS
+ * in the order of the join field of child2 too.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private OpIterator sorted1, sorted2;
+    private final TupleDesc comboTD;
+    private final boolean asc;
+
+    private transient Tuple t1 = null;
+    // for EQUALS: the tuples of child2 that match t1, and the next one
+    private final List<Tuple> group = new ArrayList<>();
+    private transient Field groupKey = null;
+    private transient int next = 0;
+    private transient Tuple t2 = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children, which must be one
+     *            {@link #canJoin} accepts
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate cannot be merged on
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!canJoin(p.getOperator()))
+            throw new IllegalArgumentException("cannot merge on " + p.getOperator());
+        this.pred = p;
+        this.asc = ascending(p.getOperator());
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        setChildren(new OpIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on the operator: EQUALS or
+     *   one of the range predicates
+     */
+    public static boolean canJoin(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return true if a SortMergeJoin on the operator reads its children in
+     *   ascending order of their join fields, false if in descending order
+     */
+    public static boolean ascending(Predicate.Op op) {
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return true if the join reads its children in ascending order
+     */
+    public boolean isAscending() {
+        return asc;
+    }
+
+    /**
+     * @return the number of the children that the join sorts, rather than
+     *   reading them in the order they are already in
+     */
+    public int numSorts() {
+        return (sorted1 != child1 ? 1 : 0) + (sorted2 != child2 ? 1 : 0);
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /**
+     * @return true if the join returns its tuples in the given order of one
+     *   of its fields
+     */
+    boolean isSortedOn(int field, boolean ascending) {
+        if (ascending != asc)
+            return false;
+        return field == pred.getField1() || (pred.getOperator() == Predicate.Op.EQUALS
+                && field == child1.getTupleDesc().numFields() + pred.getField2());
+    }
+
+    private void reset() {
+        t1 = null;
+        t2 = null;
+        group.clear();
+        groupKey = null;
+        next = 0;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1.open();
+        sorted2.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        sorted2.close();
+        sorted1.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        sorted2.rewind();
+        reset();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        int td1n = t1.getTupleDesc().numFields();
+        int td2n = t2.getTupleDesc().numFields();
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, t1.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, t2.getField(i));
+        return t;
+    }
+
+    /**
+     * @return the next tuple of child2 not yet read into the group, or null
+     *   if there are no more
+     */
+    private Tuple peek() throws DbException, TransactionAbortedException {
+        if (t2 == null && sorted2.hasNext())
+            t2 = sorted2.next();
+        return t2;
+    }
+
+    private Tuple fetchNextEquals() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (t1 != null && next < group.size())
+                return merge(t1, group.get(next++));
+
+            if (!sorted1.hasNext())
+                return null;
+            t1 = sorted1.next();
+            next = 0;
+            Field key = t1.getField(pred.getField1());
+            if (key.equals(groupKey))
+                continue;
+
+            // find the run of child2 with t1's value
+            group.clear();
+            groupKey = key;
+            while (peek() != null && t2.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+                t2 = null;
+            while (peek() != null && t2.getField(pred.getField2()).equals(key)) {
+                group.add(t2);
+                t2 = null;
+            }
+            if (group.isEmpty() && t2 == null)
+                return null; // child2 is exhausted
+        }
+    }
+
+    private Tuple fetchNextRange() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (t1 != null) {
+                if (sorted2.hasNext()) {
+                    Tuple t = sorted2.next();
+                    if (pred.filter(t1, t))
+                        return merge(t1, t);
+                }
+                // past the tuples of child2 that match t1
+                t1 = null;
+            }
+            if (!sorted1.hasNext())
+                return null;
+            t1 = sorted1.next();
+            sorted2.rewind();
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            return fetchNextEquals();
+        return fetchNextRange();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.sorted1 = OrderBy.isSorted(child1, pred.getField1(), asc) ? child1
+                : new OrderBy(pred.getField1(), asc, child1);
+        this.sorted2 = OrderBy.isSorted(child2, pred.getField2(), asc) ? child2
+                : new OrderBy(pred.getField2(), asc, child2);
+    }
+
+}
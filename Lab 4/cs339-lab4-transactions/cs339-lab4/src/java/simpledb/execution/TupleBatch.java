@@ -0,0 +1,265 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+/**
+ * A block of up to {@link #capacity()} tuples stored by column, as passed
+ * between {@link BatchOpIterator}s.  Each int field is an int array, so an
+ * operator can loop over a column without building a Field for each value;
+ * other fields are arrays of Fields.
+ * <p>
+ * Rows are filled from 0 to {@link #numRows()}.  A selection vector lists
+ * the rows that are actually in the batch, in order: a filter removes rows
+ * by shortening it rather than by moving values, so the rows of the batch
+ * are {@code row(0)} to {@code row(size() - 1)}.
+ */
+public class TupleBatch {
+
+    /** The number of rows operators put in a batch by default. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints; // for INT_TYPE columns, else null
+    private final Field[][] fields; // for other columns, else null
+    private final RecordId[] rids;
+    private final int[] sel;
+    private int rows = 0;
+    private int selected = 0;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the TupleDesc of the tuples of the batch
+     * @param capacity the most rows the batch holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int j = 0; j < n; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                ints[j] = new int[capacity];
+            else
+                fields[j] = new Field[capacity];
+        }
+        this.rids = new RecordId[capacity];
+        this.sel = new int[capacity];
+    }
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    // a view of some columns of another batch, sharing its arrays
+    private TupleBatch(TupleBatch b, TupleDesc td, int[] columns) {
+        this.td = td;
+        this.capacity = b.capacity;
+        this.ints = new int[columns.length][];
+        this.fields = new Field[columns.length][];
+        for (int j = 0; j < columns.length; j++) {
+            ints[j] = b.ints[columns[j]];
+            fields[j] = b.fields[columns[j]];
+        }
+        this.rids = b.rids;
+        this.sel = b.sel;
+        this.rows = b.rows;
+        this.selected = b.selected;
+    }
+
+    /**
+     * Returns a batch of some of the columns of this one, without copying
+     * them: it shares this batch's arrays and selection vector, so it is
+     * only valid until this batch is next changed.
+     *
+     * @param td the TupleDesc of the new batch, whose types must match
+     *   the columns
+     * @param columns the indexes of this batch's fields to include
+     */
+    public TupleBatch project(TupleDesc td, int[] columns) {
+        return new TupleBatch(this, td, columns);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the most rows the batch holds
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows filled, selected or not
+     */
+    public int numRows() {
+        return rows;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * Remove all the rows from the batch.
+     */
+    public void clear() {
+        rows = 0;
+        selected = 0;
+    }
+
+    /**
+     * Add a row to the end of the batch, selecting it.  Its values must
+     * then be set with {@link #setInt} and {@link #setField}.
+     *
+     * @return the row
+     */
+    public int addRow() {
+        if (rows == capacity)
+            throw new IllegalStateException("batch is full");
+        sel[selected++] = rows;
+        rids[rows] = null;
+        return rows++;
+    }
+
+    /**
+     * Add a tuple to the end of the batch, selecting it.
+     *
+     * @return the row it was added at
+     */
+    public int add(Tuple t) {
+        int r = addRow();
+        for (int j = 0; j < ints.length; j++)
+            setField(j, r, t.getField(j));
+        rids[r] = t.getRecordId();
+        return r;
+    }
+
+    /**
+     * Set the number of filled rows, selecting all of them, after their
+     * values have been written straight into the column arrays.
+     */
+    public void setNumRows(int n) {
+        if (n > capacity)
+            throw new IllegalArgumentException(n + " rows do not fit in " + capacity);
+        for (int i = 0; i < n; i++) {
+            sel[i] = i;
+            rids[i] = null;
+        }
+        rows = n;
+        selected = n;
+    }
+
+    /**
+     * @return the number of selected rows, which are the rows of the batch
+     */
+    public int size() {
+        return selected;
+    }
+
+    /**
+     * @return the ith selected row
+     */
+    public int row(int i) {
+        return sel[i];
+    }
+
+    /**
+     * @return the selection vector, whose first {@link #size()} entries are
+     *   the selected rows, in order; an operator may shorten the selection
+     *   by writing some of them back to the front of the array and calling
+     *   {@link #setSelected}
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Set the number of selected rows, the first n of the selection vector.
+     */
+    public void setSelected(int n) {
+        if (n > rows)
+            throw new IllegalArgumentException(n + " rows selected of " + rows);
+        selected = n;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, by row
+     */
+    public int[] intColumn(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        return ints[col];
+    }
+
+    public int getInt(int col, int row) {
+        return ints[col][row];
+    }
+
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /**
+     * @return the value of a field in a row, as a Field, which for an int
+     *   column is built for the call
+     */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return fields[col][row];
+    }
+
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            fields[col][row] = f;
+    }
+
+    /**
+     * Copy a value from a row of another batch, without building a Field
+     * if it is an int.
+     */
+    public void copy(int col, int row, TupleBatch from, int fromCol, int fromRow) {
+        if (ints[col] != null && from.ints[fromCol] != null)
+            ints[col][row] = from.ints[fromCol][fromRow];
+        else
+            setField(col, row, from.getField(fromCol, fromRow));
+    }
+
+    /**
+     * @return where the tuple in a row is stored, or null if it is not
+     *   known
+     */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        rids[row] = rid;
+    }
+
+    /**
+     * @return a new tuple holding the values of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < ints.length; j++)
+            t.setField(j, getField(j, row));
+        t.setRecordId(rids[row]);
+        return t;
+    }
+}
@@ -0,0 +1,756 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores a table as a B+ tree on one of its
+ * fields, the key: the tuples are kept in key order in leaf pages, linked
+ * to each other, under internal pages of keys.  Tuples with the same key
+ * are allowed.  Besides a scan of the whole table in key order, it gives
+ * {@link #indexIterator} for the tuples whose keys satisfy a predicate,
+ * which reads only the leaves in the predicate's range.
+ * <p>
+ * Page 0 is a {@link BTreeHeaderPage}, which records the root and the
+ * pages freed by deletes, which later splits reuse.  A leaf left empty by
+ * a delete is removed from the tree and freed once the delete commits,
+ * and an internal page left without children goes too; pages are not
+ * otherwise merged, so a tree that shrinks keeps its shape until its
+ * leaves empty.
+ * <p>
+ * Searches take their locks by latch coupling: shared locks on the header
+ * and internal pages on the way down, each released once the page below
+ * it is locked, unless the transaction held it before; only the leaves
+ * read keep their locks to the end of the transaction.  The lock on the
+ * leaf is only taken under the latch above it if it is free; otherwise
+ * the search lets go, waits for the leaf, and goes down again.  An insert
+ * goes down the same way and locks just its leaf exclusively, which is
+ * enough unless the leaf is full.
+ * <p>
+ * A split (or the removal of an empty leaf) locks the leaves it changes
+ * first, and then latches the header and the path down to the leaf
+ * exclusively.  It is logged as a transaction of its own that commits at
+ * once ({@link BufferPool#logStructureChange}), and then the latches are
+ * released, so the tree's shape stays if the transaction that made the
+ * change aborts, and other transactions are only kept out of the leaves
+ * it has changed.  A leaf the transaction had already changed is logged
+ * as the split leaves its committed tuples, under the transaction's own
+ * version, which an abort goes back from.  The removal of an empty leaf
+ * is skipped, leaving the leaf in place, if another transaction has one
+ * of its neighbours locked.
+ * <p>
+ * Use {@link BTreeFileEncoder#convert} to build one from a text file, or
+ * add {@code btree} and optionally the key field after a table's columns
+ * in the catalog.
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+    private volatile FileChannel channel = null; // opened on first use
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param keyField the index of the field the tree is ordered on
+     * @param td the tuple descriptor of the tuples in the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        if (keyField < 0 || keyField >= td.numFields())
+            throw new IllegalArgumentException("no field " + keyField + " to key a B+ tree on");
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile: the hash code of
+     * the absolute path of its file, as for a HeapFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * @return the index of the field the tree is keyed on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private BTreePageId headerId() {
+        return new BTreePageId(tableid, 0, BTreePageId.HEADER);
+    }
+
+    // the channel for the backing file, opening it if needed
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                c = channel;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the header
+     * and any free pages.
+     */
+    public int numPages() {
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            return (int) (f.length() / BufferPool.getPageSize());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+        try {
+            FileChannel c = channel();
+            while (buf.hasRemaining()) {
+                if (c.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            // a new file has not had its header written yet
+            if (buf.position() == 0 && id.getCategory() != BTreePageId.HEADER)
+                throw new IllegalArgumentException("Read past end of table");
+            if (buf.position() != 0 && buf.hasRemaining())
+                throw new IllegalArgumentException("Unable to read "
+                        + BufferPool.getPageSize() + " bytes from B+ tree file");
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+            return parse(id, data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // a page of the kind its id says, from its bytes
+    private BTreePage parse(BTreePageId id, byte[] data) throws IOException {
+        switch (id.getCategory()) {
+        case BTreePageId.HEADER:
+            return new BTreeHeaderPage(id, data);
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(id, data, td.getFieldType(keyField));
+        default:
+            return new BTreeLeafPage(id, data, td, keyField);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        write(page.getPageData(), page.getId().getPageNumber());
+    }
+
+    private void write(byte[] data, int pgNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel c = channel();
+        while (buf.hasRemaining())
+            c.write(buf, offset + buf.position());
+    }
+
+    private BTreePage page(TransactionId tid, BTreePageId id, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, id, perm);
+    }
+
+    private BTreePageId leafId(int pgNo) {
+        return new BTreePageId(tableid, pgNo, BTreePageId.LEAF);
+    }
+
+    private BTreeLeafPage leafPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (BTreeLeafPage) page(tid, leafId(pgNo), perm);
+    }
+
+    /** One step of a descent: an internal page and the child followed. */
+    private static class PathEntry {
+        final BTreeInternalPage page;
+        final int child;
+
+        PathEntry(BTreeInternalPage page, int child) {
+            this.page = page;
+            this.child = child;
+        }
+    }
+
+    /**
+     * Go down from the root to the leaf where a search for key starts,
+     * taking shared locks on the header and internal pages, each released
+     * once the page below it is locked unless tid held it already.
+     *
+     * @param key the key, or null for the first leaf
+     * @param upper follow the last child that may hold key, where a new
+     *   tuple with the key goes, rather than the first
+     * @param perm the lock to take on the leaf
+     * @return the leaf, or null if the tree is empty
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Field key, boolean upper, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        LockManager locks = bp.getLockManager();
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        while (true) {
+            PageId above = headerId();
+            boolean aboveHeld = bp.holdsLock(tid, above);
+            BTreePageId id = ((BTreeHeaderPage) page(tid, headerId(), Permissions.READ_ONLY)).getRootId();
+            while (id != null && id.getCategory() == BTreePageId.INTERNAL) {
+                boolean held = bp.holdsLock(tid, id);
+                BTreeInternalPage p = (BTreeInternalPage) page(tid, id, Permissions.READ_ONLY);
+                if (!aboveHeld)
+                    bp.unsafeReleasePage(tid, above);
+                above = id;
+                aboveHeld = held;
+                id = p.getChildId(key == null ? 0 : upper ? p.upperChild(key) : p.lowerChild(key));
+            }
+            boolean locked = id == null || locks.tryAcquireLock(tid, id, exclusive);
+            BTreeLeafPage leaf = id != null && locked ? (BTreeLeafPage) page(tid, id, perm) : null;
+            if (!aboveHeld)
+                bp.unsafeReleasePage(tid, above);
+            if (locked)
+                return leaf;
+            // the leaf's holder may be waiting to change the tree above it,
+            // so wait for the leaf without the latch, and then go down again,
+            // since the tree may have changed in between
+            boolean held = bp.holdsLock(tid, id);
+            locks.acquireLock(tid, id, exclusive);
+            if (!held)
+                bp.unsafeReleasePage(tid, id);
+        }
+    }
+
+    /**
+     * Returns the number of levels of the tree: 0 if it is empty, 1 if the
+     * root is a leaf.
+     */
+    public int height(TransactionId tid) throws TransactionAbortedException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        boolean held = bp.holdsLock(tid, headerId());
+        BTreePageId id = ((BTreeHeaderPage) page(tid, headerId(), Permissions.READ_ONLY)).getRootId();
+        if (!held)
+            bp.unsafeReleasePage(tid, headerId());
+        int height = 0;
+        while (id != null) {
+            height++;
+            if (id.getCategory() == BTreePageId.LEAF)
+                break;
+            held = bp.holdsLock(tid, id);
+            BTreeInternalPage p = (BTreeInternalPage) page(tid, id, Permissions.READ_ONLY);
+            id = p.getChildId(0);
+            if (!held)
+                bp.unsafeReleasePage(tid, p.getId());
+        }
+        return height;
+    }
+
+    /**
+     * A change to the shape of the tree, made by a transaction under
+     * exclusive latches on the header and the internal pages involved, and
+     * logged as a transaction of its own (see the class comment).  Header
+     * and internal pages only ever hold committed changes, so each is its
+     * own committed image; a leaf may hold changes its transaction has not
+     * committed, so the change is made both to the leaf and to a copy of
+     * its committed image, which is what gets logged.
+     */
+    private class StructureChange {
+        private final TransactionId tid;
+        private final BufferPool bp = Database.getBufferPool();
+        private final List<PageId> latched = new ArrayList<>(); // not held by tid before
+        private final Map<PageId, BTreePage> images = new LinkedHashMap<>();
+        private final Map<PageId, BTreeLeafPage> leaves = new LinkedHashMap<>();
+        final BTreeHeaderPage header;
+
+        StructureChange(TransactionId tid) throws TransactionAbortedException, DbException {
+            this.tid = tid;
+            this.header = (BTreeHeaderPage) latch(headerId());
+        }
+
+        // lock a header or internal page exclusively until the change ends
+        BTreePage latch(BTreePageId id) throws TransactionAbortedException, DbException {
+            boolean held = bp.holdsLock(tid, id);
+            BTreePage p = page(tid, id, Permissions.READ_WRITE);
+            if (!held)
+                latched.add(id);
+            return p;
+        }
+
+        // let go of a page the change turned out not to involve
+        void unlatch(BTreePageId id) {
+            if (latched.remove(id))
+                bp.unsafeReleasePage(tid, id);
+        }
+
+        /**
+         * Note a header or internal page before changing it.  It is marked
+         * dirty by the transaction until the change is logged, so that if it
+         * is evicted in between its before image is logged first.
+         */
+        void change(BTreePage p) {
+            p.markDirty(true, tid);
+            images.put(p.getId(), p);
+        }
+
+        /**
+         * Note a leaf, which tid holds the lock of, before changing it.
+         *
+         * @return the leaf's committed image, which must be changed the same
+         *   way
+         */
+        BTreeLeafPage change(BTreeLeafPage leaf) throws IOException {
+            leaf.markDirty(true, tid);
+            BTreePageId id = leaf.getId();
+            if (leaves.put(id, leaf) == null)
+                images.put(id, parse(id, bp.getCommittedImage(id).getPageData()));
+            return (BTreeLeafPage) images.get(id);
+        }
+
+        /**
+         * Take a page for a new node: a free page whose lock can be had at
+         * once, or a new one at the end of the file.
+         * <p>
+         * The new node is made empty in memory, whatever a freed page still
+         * holds on disk, and reaches the disk like any other page the change
+         * involves.  Only a page past the end of the file is written here,
+         * as zeroes, to reserve it.
+         */
+        BTreePage allocate(int category) throws TransactionAbortedException, DbException, IOException {
+            LockManager locks = bp.getLockManager();
+            BTreePageId id = null;
+            for (int i = header.firstFree(); id == null && i >= 0 && i < header.getNumBits(); i++) {
+                BTreePageId free = new BTreePageId(tableid, i, category);
+                if (header.isFree(i) && locks.tryAcquireLock(tid, free, true))
+                    id = free;
+            }
+            if (id == null) {
+                synchronized (BTreeFile.this) {
+                    if (numPages() == 0)
+                        write(BTreeHeaderPage.createEmptyPageData(), 0);
+                    id = new BTreePageId(tableid, numPages(), category);
+                    write(BTreePage.createEmptyPageData(), id.getPageNumber());
+                }
+                locks.acquireLock(tid, id, true);
+            }
+            change(header);
+            header.setFree(id.getPageNumber(), false);
+            // a cached copy of the page as it was before it was freed is stale
+            bp.discardPage(new BTreePageId(tableid, id.getPageNumber(), BTreePageId.LEAF));
+            bp.discardPage(new BTreePageId(tableid, id.getPageNumber(), BTreePageId.INTERNAL));
+            BTreePage p = parse(id, BTreePage.createEmptyPageData());
+            if (category == BTreePageId.LEAF) {
+                p.markDirty(true, tid);
+                leaves.put(id, (BTreeLeafPage) p);
+                images.put(id, parse(id, BTreePage.createEmptyPageData()));
+            } else {
+                change(p);
+            }
+            return p;
+        }
+
+        // return a page to the header's free list, and drop it from the pool
+        void free(BTreePage p) {
+            change(header);
+            header.setFree(p.getId().getPageNumber(), true);
+            images.remove(p.getId());
+            leaves.remove(p.getId());
+            bp.discardPage(p.getId());
+        }
+
+        /**
+         * Log the change and release the latches.  Each leaf changed gets
+         * its new committed image as its before image; those that still
+         * differ from it, with changes tid has not committed, are added to
+         * dirty, and the others are clean.
+         */
+        void commit(Map<PageId, Page> dirty) throws IOException {
+            // under the pool's monitor, so that no leaf is evicted, and
+            // logged against its old before image, in between
+            synchronized (bp) {
+                for (BTreeLeafPage leaf : leaves.values()) {
+                    byte[] image = images.get(leaf.getId()).getPageData();
+                    leaf.setBeforeImage(image);
+                    if (Arrays.equals(leaf.getPageData(), image)) {
+                        leaf.markDirty(false, null);
+                        dirty.remove(leaf.getId());
+                    } else {
+                        dirty.put(leaf.getId(), leaf);
+                    }
+                }
+                bp.logStructureChange(images.values());
+            }
+            release();
+        }
+
+        /**
+         * Release the latches.  Only for a change that is logged or was
+         * never made: one that fails half way keeps them, and is undone
+         * when tid aborts.
+         */
+        void release() {
+            for (PageId id : latched)
+                bp.unsafeReleasePage(tid, id);
+            latched.clear();
+        }
+    }
+
+    /**
+     * Mark a leaf dirty, and add it to the pages an operation returns, before
+     * changing it.  An operation that changes several pages reads more pages
+     * in between, which may evict the ones it has already changed; the pool
+     * only logs the before image of a page it evicts if it is marked dirty.
+     */
+    private static void markDirty(TransactionId tid, BTreePage p, Map<PageId, Page> dirty) {
+        p.markDirty(true, tid);
+        dirty.put(p.getId(), p);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in insertTuple");
+        Field key = t.getField(keyField);
+        Map<PageId, Page> dirty = new LinkedHashMap<>();
+
+        BTreeLeafPage leaf;
+        do {
+            // the common case: the leaf has room, and nothing above it changes
+            leaf = findLeaf(tid, key, true, Permissions.READ_WRITE);
+            if (leaf != null && leaf.hasRoom())
+                break;
+            if (leaf != null && leaf.getMaxTuples() < 2)
+                throw new DbException("tuples are too big for a B+ tree page");
+            leaf = split(tid, key, leaf, dirty);
+        } while (leaf == null);
+        markDirty(tid, leaf, dirty);
+        leaf.insertTuple(t);
+        return new ArrayList<>(dirty.values());
+    }
+
+    /**
+     * Make room for a tuple with the given key: split the full leaf where it
+     * goes, or make the first leaf of an empty tree.
+     * <p>
+     * The leaf's own tuples are split in half.  Its committed tuples, which
+     * are what the change logs, are split at the same key, with as many of
+     * those equal to it kept on the left, so that both versions of each
+     * leaf hold the same range of keys.
+     *
+     * @param leaf the full leaf, locked exclusively, or null if the tree was
+     *   empty
+     * @param dirty the leaves changed with changes tid has not committed
+     * @return the leaf the tuple goes in, or null if the tree changed after
+     *   the leaf was found and the search has to be made again
+     */
+    private BTreeLeafPage split(TransactionId tid, Field key, BTreeLeafPage leaf, Map<PageId, Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        // locked before any latch is taken; the leaf's lock keeps its next
+        // leaf from changing in between
+        BTreeLeafPage next = leaf == null || leaf.getNext() == 0 ? null
+                : leafPage(tid, leaf.getNext(), Permissions.READ_WRITE);
+        StructureChange sc = new StructureChange(tid);
+        BTreePageId root = sc.header.getRootId();
+        List<PathEntry> path = null;
+        if (leaf != null && root != null) {
+            if (root.equals(leaf.getId()))
+                path = new ArrayList<>();
+            else if (root.getCategory() == BTreePageId.INTERNAL)
+                path = pathTo(sc, root, key, leaf.getId().getPageNumber());
+        }
+        if (leaf == null ? root != null : path == null) {
+            sc.release();
+            return null;
+        }
+
+        if (leaf == null) {
+            leaf = (BTreeLeafPage) sc.allocate(BTreePageId.LEAF);
+            sc.change(sc.header);
+            sc.header.setRootId(leaf.getId());
+            sc.commit(dirty);
+            return leaf;
+        }
+        BTreeLeafPage right = (BTreeLeafPage) sc.allocate(BTreePageId.LEAF);
+        BTreeLeafPage leftImage = sc.change(leaf);
+        BTreeLeafPage rightImage = sc.change(right);
+        int from = leaf.getNumTuples() / 2;
+        Field separator = leaf.getKey(from);
+        int equalLeft = from - leaf.lowerBound(separator);
+        leftImage.moveTuplesTo(Math.min(leftImage.lowerBound(separator) + equalLeft,
+                leftImage.upperBound(separator)), rightImage);
+        leaf.moveTuplesTo(from, right);
+        int rightPgNo = right.getId().getPageNumber();
+        for (BTreeLeafPage p : Arrays.asList(right, rightImage)) {
+            p.setNext(leaf.getNext());
+            p.setPrev(leaf.getId().getPageNumber());
+        }
+        if (next != null) {
+            sc.change(next).setPrev(rightPgNo);
+            next.setPrev(rightPgNo);
+        }
+        leftImage.setNext(rightPgNo);
+        leaf.setNext(rightPgNo);
+        insertChild(sc, path, path.size() - 1, leaf.getId(), separator, right.getId());
+        sc.commit(dirty);
+        return BTreePage.compare(key, separator) >= 0 ? right : leaf;
+    }
+
+    /**
+     * Add a new right sibling of a page to its parent, the internal page at
+     * path[level], splitting the parent (and so on up) if it is full.  At
+     * level -1 the page was the root, and a new root is made over the two.
+     */
+    private void insertChild(StructureChange sc, List<PathEntry> path, int level,
+                             BTreePageId left, Field separator, BTreePageId right)
+            throws DbException, IOException, TransactionAbortedException {
+        if (level < 0) {
+            BTreeInternalPage root = (BTreeInternalPage) sc.allocate(BTreePageId.INTERNAL);
+            root.init(left);
+            root.insertChild(0, separator, right.getPageNumber());
+            sc.change(sc.header);
+            sc.header.setRootId(root.getId());
+            return;
+        }
+        PathEntry e = path.get(level);
+        sc.change(e.page);
+        if (e.page.hasRoom()) {
+            e.page.insertChild(e.child, separator, right.getPageNumber());
+            return;
+        }
+        BTreeInternalPage sibling = (BTreeInternalPage) sc.allocate(BTreePageId.INTERNAL);
+        Field up = e.page.split(e.child, separator, right.getPageNumber(), sibling);
+        insertChild(sc, path, level - 1, e.page.getId(), up, sibling.getId());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        Field key = t.getField(keyField);
+        Map<PageId, Page> dirty = new LinkedHashMap<>();
+
+        // tuples with the key may go on past the first leaf that has any
+        BTreeLeafPage leaf = findLeaf(tid, key, false, Permissions.READ_WRITE);
+        int i = -1;
+        while (leaf != null && (i = leaf.find(t)) < 0) {
+            int n = leaf.getNumTuples();
+            if ((n > 0 && BTreePage.compare(leaf.getKey(n - 1), key) > 0) || leaf.getNext() == 0)
+                leaf = null;
+            else
+                leaf = leafPage(tid, leaf.getNext(), Permissions.READ_WRITE);
+        }
+        if (leaf == null)
+            throw new DbException("tried to delete a tuple that is not in the table");
+        markDirty(tid, leaf, dirty);
+        leaf.deleteTuple(i);
+        if (leaf.getNumTuples() == 0) {
+            // not before the delete commits: the change to the tree's shape
+            // would stay if it aborted
+            BTreePageId id = leaf.getId();
+            Database.getBufferPool().runAtCommit(tid, () -> removeLeaf(tid, id, key));
+        }
+        return new ArrayList<>(dirty.values());
+    }
+
+    /**
+     * Find the internal pages above a leaf that holds key, latching them
+     * exclusively; pages off the way to the leaf are let go again.
+     *
+     * @return the steps from the page id down to the leaf, or null if the
+     *   leaf is not under it
+     */
+    private List<PathEntry> pathTo(StructureChange sc, BTreePageId id, Field key, int leafPgNo)
+            throws TransactionAbortedException, DbException {
+        BTreeInternalPage p = (BTreeInternalPage) sc.latch(id);
+        for (int c = p.lowerChild(key); c <= p.upperChild(key); c++) {
+            BTreePageId child = p.getChildId(c);
+            List<PathEntry> path = null;
+            if (child.getCategory() == BTreePageId.LEAF) {
+                if (child.getPageNumber() == leafPgNo)
+                    path = new ArrayList<>();
+            } else {
+                path = pathTo(sc, child, key, leafPgNo);
+            }
+            if (path != null) {
+                path.add(0, new PathEntry(p, c));
+                return path;
+            }
+        }
+        sc.unlatch(id);
+        return null;
+    }
+
+    /**
+     * Take a leaf that a committed delete left empty out of the tree and
+     * free it, along with any internal pages that are left without
+     * children.  Runs as the delete's transaction commits, while it still
+     * holds the leaf's lock.  The root leaf is kept even when empty, and so
+     * is a leaf whose neighbours are locked by other transactions, since a
+     * committed transaction does not wait; a leaf that has been taken out
+     * already, or has tuples again, is left alone.
+     */
+    private void removeLeaf(TransactionId tid, BTreePageId id, Field key) {
+        try {
+            StructureChange sc = new StructureChange(tid);
+            BTreePageId root = sc.header.getRootId();
+            List<PathEntry> path = root == null || root.getCategory() == BTreePageId.LEAF ? null
+                    : pathTo(sc, root, key, id.getPageNumber());
+            BTreeLeafPage leaf = path == null ? null : (BTreeLeafPage) page(tid, id, Permissions.READ_WRITE);
+            LockManager locks = Database.getBufferPool().getLockManager();
+            if (leaf == null || leaf.getNumTuples() > 0
+                    || (leaf.getPrev() != 0 && !locks.tryAcquireLock(tid, leafId(leaf.getPrev()), true))
+                    || (leaf.getNext() != 0 && !locks.tryAcquireLock(tid, leafId(leaf.getNext()), true))) {
+                sc.release();
+                return;
+            }
+            BTreeLeafPage prev = leaf.getPrev() == 0 ? null : leafPage(tid, leaf.getPrev(), Permissions.READ_WRITE);
+            BTreeLeafPage next = leaf.getNext() == 0 ? null : leafPage(tid, leaf.getNext(), Permissions.READ_WRITE);
+            if (prev != null) {
+                sc.change(prev).setNext(leaf.getNext());
+                prev.setNext(leaf.getNext());
+            }
+            if (next != null) {
+                sc.change(next).setPrev(leaf.getPrev());
+                next.setPrev(leaf.getPrev());
+            }
+            sc.free(leaf);
+            removeChild(sc, path, path.size() - 1);
+            sc.commit(new HashMap<>());
+        } catch (DbException | IOException | TransactionAbortedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // remove the child followed at path[level] from its page
+    private void removeChild(StructureChange sc, List<PathEntry> path, int level) {
+        BTreeInternalPage p = path.get(level).page;
+        sc.change(p);
+        p.removeChild(path.get(level).child);
+        if (p.getNumChildren() == 0) {
+            sc.free(p);
+            if (level == 0)
+                sc.header.setRootId(null);
+            else
+                removeChild(sc, path, level - 1);
+        } else if (level == 0 && p.getNumChildren() == 1) {
+            // a root with one child is replaced by the child
+            sc.free(p);
+            sc.header.setRootId(p.getChildId(0));
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeSearchIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose keys satisfy
+     * {@code key op value}, in key order.  Equality and range operators
+     * start at the first leaf that may hold a match and stop after the
+     * last; other operators (NOT_EQUALS, and LIKE on strings) scan every
+     * leaf.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field value) {
+        return new BTreeSearchIterator(tid, op, value);
+    }
+
+    /**
+     * Reads the tuples of the tree in key order, starting where a predicate
+     * on the key first holds and stopping where it no longer can.
+     */
+    private class BTreeSearchIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op; // null for every tuple
+        private final Field value;
+        private BTreeLeafPage leaf = null;
+        private int pos = 0;
+
+        BTreeSearchIterator(TransactionId tid, Predicate.Op op, Field value) {
+            this.tid = tid;
+            // LIKE is only equality on ints; on strings it matches anywhere
+            this.op = op == Predicate.Op.LIKE && value instanceof IntField ? Predicate.Op.EQUALS : op;
+            this.value = value;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            leaf = findLeaf(tid, seek ? value : null, false, Permissions.READ_ONLY);
+            pos = leaf == null || !seek ? 0
+                    : op == Predicate.Op.GREATER_THAN ? leaf.upperBound(value) : leaf.lowerBound(value);
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                if (pos >= leaf.getNumTuples()) {
+                    leaf = leaf.getNext() == 0 ? null
+                            : leafPage(tid, leaf.getNext(), Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                if (op != null) {
+                    int c = BTreePage.compare(leaf.getKey(pos), value);
+                    if ((op == Predicate.Op.EQUALS && c > 0) || (op == Predicate.Op.LESS_THAN && c >= 0)
+                            || (op == Predicate.Op.LESS_THAN_OR_EQ && c > 0)) {
+                        // past the range
+                        leaf = null;
+                        break;
+                    }
+                    if (!leaf.getKey(pos).compare(op, value)) {
+                        pos++;
+                        continue;
+                    }
+                }
+                return leaf.getTuple(pos++);
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            leaf = null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BTreeFileEncoder builds the file of a {@link BTreeFile} from a text
+ * file, by sorting the tuples on the key and loading the tree bottom up:
+ * full leaves in key order, then each level of internal pages over the
+ * one below, up to the root.
+ */
+public class BTreeFileEncoder {
+
+    /** Convert the specified input text file into the pages of a
+     * {@link BTreeFile} keyed on one of its fields.  The input is read as by
+     * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)},
+     * one tuple per line, in any order.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param typeAr the type of each field of a tuple
+     * @param fieldSeparator the character between fields on a line
+     * @param keyField the index of the field to key the tree on
+     * @throws IOException if the input/output file can't be opened
+     */
+    public static void convert(File inFile, File outFile, int npagebytes,
+                               Type[] typeAr, char fieldSeparator, int keyField)
+            throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        List<Tuple> tuples = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(inFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                Tuple t = HeapFileEncoder.parseTuple(line, td, fieldSeparator);
+                if (t != null)
+                    tuples.add(t);
+            }
+        }
+        tuples.sort((a, b) -> BTreePage.compare(a.getField(keyField), b.getField(keyField)));
+
+        List<byte[]> pages = new ArrayList<>();
+        pages.add(null); // the header, once the root is known
+        List<Integer> level = new ArrayList<>(); // page numbers of one level
+        List<Tuple> firstTuples = new ArrayList<>(); // and the first tuple under each
+
+        // the leaves, each as full as it can be
+        BTreeLeafPage leaf = null;
+        try {
+            for (Tuple t : tuples) {
+                if (leaf == null || !leaf.hasRoom()) {
+                    int pgNo = pages.size();
+                    if (leaf != null) {
+                        leaf.setNext(pgNo);
+                        pages.set(leaf.getId().getPageNumber(), leaf.getPageData());
+                    }
+                    BTreeLeafPage prev = leaf;
+                    leaf = new BTreeLeafPage(new BTreePageId(0, pgNo, BTreePageId.LEAF),
+                            new byte[npagebytes], td, keyField);
+                    if (leaf.getMaxTuples() < 2)
+                        throw new IOException("tuples are too big for a B+ tree page");
+                    leaf.setPrev(prev == null ? 0 : prev.getId().getPageNumber());
+                    pages.add(null);
+                    level.add(pgNo);
+                    firstTuples.add(t);
+                }
+                leaf.insertTuple(t);
+            }
+        } catch (DbException e) {
+            throw new IOException(e);
+        }
+        if (leaf != null)
+            pages.set(leaf.getId().getPageNumber(), leaf.getPageData());
+
+        // internal pages, a level at a time, until one page is the root
+        int category = BTreePageId.LEAF;
+        while (level.size() > 1) {
+            List<Integer> above = new ArrayList<>();
+            List<Tuple> aboveFirst = new ArrayList<>();
+            BTreeInternalPage page = null;
+            for (int i = 0; i < level.size(); i++) {
+                BTreePageId child = new BTreePageId(0, level.get(i), category);
+                if (page != null && page.hasRoom()) {
+                    page.insertChild(page.getNumKeys(), firstTuples.get(i).getField(keyField),
+                            child.getPageNumber());
+                    continue;
+                }
+                if (page != null)
+                    pages.set(page.getId().getPageNumber(), page.getPageData());
+                int pgNo = pages.size();
+                page = new BTreeInternalPage(new BTreePageId(0, pgNo, BTreePageId.INTERNAL),
+                        new byte[npagebytes], typeAr[keyField]);
+                page.init(child);
+                pages.add(null);
+                above.add(pgNo);
+                aboveFirst.add(firstTuples.get(i));
+            }
+            pages.set(page.getId().getPageNumber(), page.getPageData());
+            level = above;
+            firstTuples = aboveFirst;
+            category = BTreePageId.INTERNAL;
+        }
+
+        BTreeHeaderPage header = new BTreeHeaderPage(new BTreePageId(0, 0, BTreePageId.HEADER),
+                new byte[npagebytes]);
+        if (!level.isEmpty())
+            header.setRootId(new BTreePageId(0, level.get(0), category));
+        pages.set(0, header.getPageData());
+
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            for (byte[] page : pages)
+                os.write(page);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The header page of a {@link BTreeFile}, always page 0.  It records the
+ * root page (an int page number, 0 for an empty tree, and a byte
+ * category) followed by a bitmap of the pages that have been freed and
+ * can be reused, bit i for page i.  A page of all zeroes is the header of
+ * an empty tree.  Pages past the end of the bitmap cannot be recorded as
+ * free, and are just not reused.
+ */
+public class BTreeHeaderPage extends BTreePage {
+    static final int BITMAP_OFFSET = 5;
+
+    private int root;
+    private int rootCategory;
+    private final byte[] freePages;
+
+    /**
+     * Create a header page from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) {
+        super(id, data.length);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        root = in.getInt();
+        rootCategory = in.get();
+        freePages = Arrays.copyOfRange(data, BITMAP_OFFSET, data.length);
+        setBeforeImage();
+    }
+
+    BTreePage copyOf(byte[] data) {
+        return new BTreeHeaderPage(pid, data);
+    }
+
+    /**
+     * @return the id of the root page, or null if the tree is empty
+     */
+    public BTreePageId getRootId() {
+        return root == 0 ? null : new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /**
+     * Make a page the root, or (given null) empty the tree.
+     */
+    public void setRootId(BTreePageId id) {
+        root = id == null ? 0 : id.getPageNumber();
+        rootCategory = id == null ? 0 : id.getCategory();
+    }
+
+    /**
+     * @return the number of pages the bitmap has a bit for
+     */
+    public int getNumBits() {
+        return freePages.length * 8;
+    }
+
+    /**
+     * @return true if page pgNo has been freed and not reused since
+     */
+    public boolean isFree(int pgNo) {
+        return pgNo < getNumBits() && (freePages[pgNo / 8] & (1 << (pgNo % 8))) != 0;
+    }
+
+    /**
+     * Record that a page is free, or in use again.  A page past the end of
+     * the bitmap is ignored.
+     */
+    public void setFree(int pgNo, boolean free) {
+        if (pgNo >= getNumBits())
+            return;
+        if (free)
+            freePages[pgNo / 8] |= (byte) (1 << (pgNo % 8));
+        else
+            freePages[pgNo / 8] &= (byte) ~(1 << (pgNo % 8));
+    }
+
+    /**
+     * @return the lowest numbered free page, or -1 if there is none
+     */
+    public int firstFree() {
+        for (int i = 0; i < freePages.length; i++) {
+            if (freePages[i] != 0)
+                return i * 8 + Integer.numberOfTrailingZeros(freePages[i] & 0xFF);
+        }
+        return -1;
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer out = ByteBuffer.allocate(pageSize);
+        out.putInt(root);
+        out.put((byte) rootCategory);
+        out.put(freePages);
+        return out.array();
+    }
+
+    /**
+     * @return the bytes of a header page of an empty tree
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+}
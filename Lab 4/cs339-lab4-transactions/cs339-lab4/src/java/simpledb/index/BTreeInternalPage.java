@@ -0,0 +1,215 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An internal page of a {@link BTreeFile}: n keys and the page numbers of
+ * n + 1 children, all of them leaves or all internal pages.  Child i holds
+ * the keys from key i - 1 to key i, inclusive at both ends, since tuples
+ * with the same key may be split across leaves; a search for the first
+ * tuple with a key follows the first child that may hold it
+ * ({@link #lowerChild}) and then moves right through the leaves.
+ * <p>
+ * The page format is an unsigned short number of keys n, a byte category
+ * of the children, the first child's page number and then n pairs of a
+ * key and the page number of the child after it.  Keys are serialized as
+ * fields of the file's key type.
+ */
+public class BTreeInternalPage extends BTreePage {
+    static final int HEADER_SIZE = 2 + 1 + 4;
+
+    final Type keyType;
+    private final int maxKeys;
+    private final List<Field> keys;
+    private final List<Integer> children;
+    private int childCategory;
+
+    /**
+     * Create an internal page from a set of bytes of data read from disk,
+     * in the format described above.  The key type comes from the BTreeFile
+     * in the catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, fileOf(id).getTupleDesc().getFieldType(fileOf(id).keyField()));
+    }
+
+    BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data.length);
+        this.keyType = keyType;
+        this.maxKeys = (data.length - HEADER_SIZE) / (keyType.getLen() + 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int n = in.readUnsignedShort();
+        childCategory = in.readByte();
+        keys = new ArrayList<>(n);
+        children = new ArrayList<>(n + 1);
+        children.add(in.readInt());
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType.parse(in));
+                children.add(in.readInt());
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad key on " + id, e);
+        }
+        setBeforeImage();
+    }
+
+    BTreePage copyOf(byte[] data) throws IOException {
+        return new BTreeInternalPage(pid, data, keyType);
+    }
+
+    /**
+     * Make this (new) page hold just one child.
+     */
+    void init(BTreePageId child) {
+        keys.clear();
+        children.clear();
+        children.add(child.getPageNumber());
+        childCategory = child.getCategory();
+    }
+
+    /**
+     * @return the number of keys on this page, one less than the number of
+     *   children
+     */
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    /**
+     * @return the number of children
+     */
+    public int getNumChildren() {
+        return children.size();
+    }
+
+    /**
+     * @return true if another key fits on the page
+     */
+    public boolean hasRoom() {
+        return keys.size() < maxKeys;
+    }
+
+    /**
+     * @return key i, between child i and child i + 1
+     */
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    /**
+     * @return the id of child i
+     */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /**
+     * @return the index of the child holding page pgNo, or -1
+     */
+    public int indexOfChild(int pgNo) {
+        return children.indexOf(pgNo);
+    }
+
+    /**
+     * @return the index of the first child that may hold key: the number of
+     *   keys less than it
+     */
+    public int lowerChild(Field key) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys.get(mid), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the last child that may hold key: the number of
+     *   keys no greater than it
+     */
+    public int upperChild(Field key) {
+        int lo = 0, hi = keys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys.get(mid), key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Add a child just after child i, separated from it by key.  The page
+     * must have room.
+     */
+    public void insertChild(int i, Field key, int child) {
+        keys.add(i, key);
+        children.add(i + 1, child);
+    }
+
+    /**
+     * Remove child i, and the key between it and a neighbour: the key
+     * before it, or for the first child the key after it.
+     */
+    public void removeChild(int i) {
+        children.remove(i);
+        if (!keys.isEmpty())
+            keys.remove(i > 0 ? i - 1 : 0);
+    }
+
+    /**
+     * Add a child just after child i, as insertChild does, to a full page,
+     * and move the upper half of the children to an empty page.
+     *
+     * @return the key between the two halves, which is on neither page
+     */
+    Field split(int i, Field key, int child, BTreeInternalPage right) {
+        keys.add(i, key);
+        children.add(i + 1, child);
+        int mid = keys.size() / 2;
+        Field up = keys.get(mid);
+        right.keys.clear();
+        right.children.clear();
+        right.childCategory = childCategory;
+        right.keys.addAll(keys.subList(mid + 1, keys.size()));
+        right.children.addAll(children.subList(mid + 1, children.size()));
+        keys.subList(mid, keys.size()).clear();
+        children.subList(mid + 1, children.size()).clear();
+        return up;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeShort(keys.size());
+            dos.writeByte(childCategory);
+            dos.writeInt(children.isEmpty() ? 0 : children.get(0));
+            for (int i = 0; i < keys.size(); i++) {
+                keys.get(i).serialize(dos);
+                dos.writeInt(children.get(i + 1));
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,241 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A leaf page of a {@link BTreeFile}: tuples in key order, and the page
+ * numbers of the leaves before and after it, so that a range scan can
+ * move from leaf to leaf without going back up the tree.
+ * <p>
+ * The page format is an unsigned short number of tuples, an int previous
+ * leaf and an int next leaf (0 for none, since page 0 is the header), and
+ * then the tuples, each in the HeapPage tuple format.  A page of all
+ * zeroes is an empty leaf.
+ * <p>
+ * A tuple's RecordId is its position on the page, which changes as tuples
+ * are added before it, so the file finds a tuple to delete by its key.
+ */
+public class BTreeLeafPage extends BTreePage {
+    static final int HEADER_SIZE = 2 + 4 + 4;
+
+    final TupleDesc td;
+    final int keyField;
+    private final int maxTuples;
+    private final List<Tuple> tuples;
+    private int prev, next;
+
+    /**
+     * Create a leaf page from a set of bytes of data read from disk, in
+     * the format described above.  The layout of the tuples comes from the
+     * BTreeFile in the catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, fileOf(id).getTupleDesc(), fileOf(id).keyField());
+    }
+
+    BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, data.length);
+        this.td = td;
+        this.keyField = keyField;
+        this.maxTuples = (data.length - HEADER_SIZE) / td.getSize();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int n = in.readUnsignedShort();
+        prev = in.readInt();
+        next = in.readInt();
+        tuples = new ArrayList<>(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(in));
+                tuples.add(t);
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad tuple on " + id, e);
+        }
+        setBeforeImage();
+    }
+
+    BTreePage copyOf(byte[] data) throws IOException {
+        return new BTreeLeafPage(pid, data, td, keyField);
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    /**
+     * @return the most tuples the page holds
+     */
+    public int getMaxTuples() {
+        return maxTuples;
+    }
+
+    /**
+     * @return true if another tuple fits on the page
+     */
+    public boolean hasRoom() {
+        return tuples.size() < maxTuples;
+    }
+
+    /**
+     * @return a copy of the tuple at position i, with its RecordId set
+     */
+    public Tuple getTuple(int i) {
+        Tuple stored = tuples.get(i);
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, stored.getField(j));
+        t.setRecordId(new RecordId(pid, i));
+        return t;
+    }
+
+    /**
+     * @return the key of the tuple at position i
+     */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /**
+     * @return the position of the first tuple whose key is at least key
+     */
+    public int lowerBound(Field key) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(getKey(mid), key) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the position of the first tuple whose key is greater than key
+     */
+    public int upperBound(Field key) {
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(getKey(mid), key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the position of a tuple with the same fields as t, or -1
+     */
+    public int find(Tuple t) {
+        Field key = t.getField(keyField);
+        for (int i = lowerBound(key); i < tuples.size() && compare(getKey(i), key) == 0; i++) {
+            if (sameFields(tuples.get(i), t))
+                return i;
+        }
+        return -1;
+    }
+
+    private boolean sameFields(Tuple a, Tuple b) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (!a.getField(j).equals(b.getField(j)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a tuple after any with the same key, and set its RecordId.
+     *
+     * @throws DbException if the page is full, or the tuple's TupleDesc
+     *   does not match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        if (!hasRoom())
+            throw new DbException("called addTuple on page with no room for the tuple.");
+        int i = upperBound(t.getField(keyField));
+        tuples.add(i, t);
+        t.setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * Remove the tuple at position i.
+     */
+    public void deleteTuple(int i) {
+        tuples.remove(i);
+    }
+
+    /**
+     * Move the tuples from position from on to the end of another leaf,
+     * which must have room for them.
+     */
+    void moveTuplesTo(int from, BTreeLeafPage other) {
+        List<Tuple> moved = tuples.subList(from, tuples.size());
+        other.tuples.addAll(moved);
+        moved.clear();
+    }
+
+    /**
+     * @return the page number of the previous leaf, or 0 if this is the
+     *   first
+     */
+    public int getPrev() {
+        return prev;
+    }
+
+    /**
+     * @return the page number of the next leaf, or 0 if this is the last
+     */
+    public int getNext() {
+        return next;
+    }
+
+    public void setPrev(int prev) {
+        this.prev = prev;
+    }
+
+    public void setNext(int next) {
+        this.next = next;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeShort(tuples.size());
+            dos.writeInt(prev);
+            dos.writeInt(next);
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+}
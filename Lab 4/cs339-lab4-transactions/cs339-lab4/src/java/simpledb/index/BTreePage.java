@@ -0,0 +1,111 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+/**
+ * Each instance of BTreePage stores data for one page of a
+ * {@link BTreeFile}.  The subclasses are the header page, internal pages
+ * and leaf pages; which one a page is comes from its {@link BTreePageId}.
+ */
+public abstract class BTreePage implements Page {
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final BTreePageId pid;
+    final int pageSize;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    BTreePage(BTreePageId id, int pageSize) {
+        this.pid = id;
+        this.pageSize = pageSize;
+    }
+
+    // the file a page belongs to, which says how its keys and tuples are
+    // laid out
+    static BTreeFile fileOf(BTreePageId id) {
+        return (BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    /**
+     * Orders two keys.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *   than, equal to or greater than b
+     */
+    static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * @return the bytes of an empty leaf or internal page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /** Rebuild a page of the same kind from bytes of getPageData. */
+    abstract BTreePage copyOf(byte[] data) throws IOException;
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public BTreePage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return copyOf(oldDataRef.clone());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    // for a page whose committed contents changed under the changes a
+    // running transaction made to it
+    void setBeforeImage(byte[] data) {
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/** Unique identifier for the pages of a {@link BTreeFile}, which also says
+ * what kind of page it is, since the page bytes alone do not. */
+public class BTreePageId implements PageId {
+
+    /** The header page, page 0 of every BTreeFile. */
+    public static final int HEADER = 0;
+    /** An internal page, of keys and child page numbers. */
+    public static final int INTERNAL = 1;
+    /** A leaf page, of tuples in key order. */
+    public static final int LEAF = 2;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category HEADER, INTERNAL or LEAF
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        if (category < HEADER || category > LEAF)
+            throw new IllegalArgumentException("bad page category " + category);
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the kind of page: HEADER, INTERNAL or LEAF
+     */
+    public int getCategory() {
+        return category;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo, category);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the table ids, page numbers and categories are the
+     *   same
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId p = (BTreePageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo && category == p.category;
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ", " + category + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk: the table id, page number and
+     *  category, the arguments of the constructor.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, category};
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPageId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * A page of a bucket of a {@link HashIndexFile}: the bucket's primary page
+ * or one of the overflow pages chained after it.  Each entry is a key and
+ * the page number and slot of the tuple of the indexed table that holds
+ * it, in no particular order.
+ * <p>
+ * The page format is an int bucket number, a byte count of the hash bits
+ * the keys in the bucket agree on, an unsigned short number of entries, an
+ * int page number of the next page of the bucket (0 for none) and then the
+ * entries, each a key serialized as a field of the file's key type and two
+ * ints.  The bits are only kept on a primary page; a lookup that read the
+ * header before the bucket was split finds them grown, and starts again.
+ */
+public class HashBucketPage extends HashIndexPage {
+    static final int HEADER_SIZE = 4 + 1 + 2 + 4;
+
+    final Type keyType;
+    private final int maxEntries;
+    private int bucket;
+    private int bits;
+    private int next;
+    private int n;
+    private final Field[] keys;
+    private final int[] pages;
+    private final int[] slots;
+
+    /**
+     * Create a bucket page from a set of bytes of data read from disk, in
+     * the format described above.  The key type comes from the
+     * HashIndexFile in the catalog.
+     */
+    public HashBucketPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, fileOf(id).getTupleDesc().getFieldType(0));
+    }
+
+    HashBucketPage(HeapPageId id, byte[] data, Type keyType) throws IOException {
+        super(id, data.length);
+        this.keyType = keyType;
+        this.maxEntries = (data.length - HEADER_SIZE) / (keyType.getLen() + 8);
+        this.keys = new Field[maxEntries];
+        this.pages = new int[maxEntries];
+        this.slots = new int[maxEntries];
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        bucket = in.readInt();
+        bits = in.readByte();
+        n = in.readUnsignedShort();
+        next = in.readInt();
+        try {
+            for (int i = 0; i < n; i++) {
+                keys[i] = keyType.parse(in);
+                pages[i] = in.readInt();
+                slots[i] = in.readInt();
+            }
+        } catch (ParseException e) {
+            throw new IOException("bad key on " + id, e);
+        }
+        setBeforeImage();
+    }
+
+    HashIndexPage copyOf(byte[] data) throws IOException {
+        return new HashBucketPage(pid, data, keyType);
+    }
+
+    /**
+     * Make this page an empty page of a bucket.
+     *
+     * @param bits the hash bits the bucket's keys agree on, if this is its
+     *   primary page
+     */
+    void init(int bucket, int bits) {
+        this.bucket = bucket;
+        this.bits = bits;
+        this.next = 0;
+        this.n = 0;
+    }
+
+    /**
+     * @return the bucket this page belongs to
+     */
+    public int getBucket() {
+        return bucket;
+    }
+
+    /**
+     * @return the number of low hash bits the keys in this bucket agree on,
+     *   which give the bucket number
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    void setBits(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * @return the next page of the bucket, or 0 if this is the last
+     */
+    public int getNext() {
+        return next;
+    }
+
+    void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the number of entries on this page
+     */
+    public int getNumEntries() {
+        return n;
+    }
+
+    /**
+     * @return the number of entries that fit on a page
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return true if another entry fits on this page
+     */
+    public boolean hasRoom() {
+        return n < maxEntries;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number of the tuple of entry i */
+    public int getPageNo(int i) {
+        return pages[i];
+    }
+
+    /** @return the slot of the tuple of entry i */
+    public int getSlot(int i) {
+        return slots[i];
+    }
+
+    /**
+     * @return the index of the entry for a key and tuple, or -1 if there
+     *   is none
+     */
+    int find(Field key, int pageNo, int slot) {
+        for (int i = 0; i < n; i++) {
+            if (pages[i] == pageNo && slots[i] == slot && keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    void add(Field key, int pageNo, int slot) {
+        if (n >= maxEntries)
+            throw new IllegalStateException("no room on " + pid);
+        keys[n] = key;
+        pages[n] = pageNo;
+        slots[n] = slot;
+        n++;
+    }
+
+    // the order of entries does not matter, so the last takes its place
+    void remove(int i) {
+        n--;
+        keys[i] = keys[n];
+        pages[i] = pages[n];
+        slots[i] = slots[n];
+        keys[n] = null;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(pageSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(bucket);
+            dos.writeByte(bits);
+            dos.writeShort(n);
+            dos.writeInt(next);
+            for (int i = 0; i < n; i++) {
+                keys[i].serialize(dos);
+                dos.writeInt(pages[i]);
+                dos.writeInt(slots[i]);
+            }
+            dos.write(new byte[pageSize - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,107 @@
+package simpledb.index;
+
+import simpledb.storage.HeapPageId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The header page of a {@link HashIndexFile}, always page 0.  It records
+ * the number of buckets (an int, 0 for an index that has none yet), the
+ * first page of the list of free overflow pages (an int, 0 for none), and
+ * where each group of buckets starts.
+ * <p>
+ * Buckets are created in groups that double in size: group 0 is bucket 0,
+ * and group g is buckets 2<sup>g-1</sup> to 2<sup>g</sup>-1.  The primary
+ * pages of a group are reserved together, at the end of the file, when
+ * its first bucket is created, so a bucket's page is found from the start
+ * of its group without a directory; overflow pages go wherever the file
+ * ends when they are needed.
+ */
+public class HashHeaderPage extends HashIndexPage {
+    static final int GROUPS = 32;
+
+    private int numBuckets;
+    private int freeList;
+    private final int[] groupStart = new int[GROUPS];
+
+    /**
+     * Create a header page from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public HashHeaderPage(HeapPageId id, byte[] data) {
+        super(id, data.length);
+        ByteBuffer in = ByteBuffer.wrap(data);
+        numBuckets = in.getInt();
+        freeList = in.getInt();
+        for (int g = 0; g < GROUPS; g++)
+            groupStart[g] = in.getInt();
+        setBeforeImage();
+    }
+
+    HashIndexPage copyOf(byte[] data) {
+        return new HashHeaderPage(pid, data);
+    }
+
+    /** @return the group bucket b is in */
+    static int group(int b) {
+        return 32 - Integer.numberOfLeadingZeros(b);
+    }
+
+    /** @return the first bucket of group g */
+    static int firstBucket(int g) {
+        return g == 0 ? 0 : 1 << (g - 1);
+    }
+
+    /**
+     * @return the number of buckets in the index
+     */
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public void setNumBuckets(int numBuckets) {
+        this.numBuckets = numBuckets;
+    }
+
+    /**
+     * @return the first free overflow page, or 0 if there is none; each
+     *   free page holds the next in its overflow link
+     */
+    public int getFreeList() {
+        return freeList;
+    }
+
+    public void setFreeList(int pgNo) {
+        this.freeList = pgNo;
+    }
+
+    /**
+     * @return the page of the first bucket of group g, or 0 if the group's
+     *   pages have not been reserved
+     */
+    public int getGroupStart(int g) {
+        return groupStart[g];
+    }
+
+    public void setGroupStart(int g, int pgNo) {
+        groupStart[g] = pgNo;
+    }
+
+    /**
+     * @return the primary page of bucket b, whose group must have been
+     *   reserved
+     */
+    public int pageOf(int b) {
+        int g = group(b);
+        return groupStart[g] + b - firstBucket(g);
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer out = ByteBuffer.allocate(pageSize);
+        out.putInt(numBuckets);
+        out.putInt(freeList);
+        for (int g = 0; g < GROUPS; g++)
+            out.putInt(groupStart[g]);
+        return out.array();
+    }
+}
@@ -0,0 +1,637 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * HashIndexFile is a secondary index on one field of a table stored in a
+ * {@link HeapFile}: a linear hash table on disk from each key to the
+ * tuples that hold it, for equality lookups ({@link #lookup}) such as the
+ * probes of an {@link simpledb.execution.IndexNestedLoopJoin}.  Once it is
+ * added to the catalog with {@link simpledb.common.Catalog#addIndex},
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} keep it
+ * in step with the table.
+ * <p>
+ * The table of buckets grows one bucket at a time: whenever a bucket needs
+ * a new overflow page, the next bucket in turn is split in two by one more
+ * bit of the hash, so an insert never rehashes more than one bucket.
+ * Buckets are not merged when the table shrinks; overflow pages left
+ * empty by a split go on a free list, and later overflows reuse them.
+ * <p>
+ * Lookups take a shared lock on the header only while they read it, as
+ * B+ tree searches do, and keep their locks on the pages of their bucket;
+ * a lookup that reaches a bucket that has been split since it read the
+ * header finds the bucket's bits have grown, and starts again.  An insert
+ * that needs an overflow page, and so a split, locks the header
+ * exclusively and keeps the lock, so splits in different transactions
+ * happen one at a time.
+ * <p>
+ * The tuples of the file, as given by {@link #iterator}, are its entries:
+ * the key and the page number and slot of the tuple of the table that
+ * holds it.  {@link #insertTuple} and {@link #deleteTuple} take tuples of
+ * the table, with their RecordIds.  Use {@link #build} to index a table
+ * that already has tuples, or add {@code hash} and the fields to index
+ * after a table's columns in the catalog.
+ */
+public class HashIndexFile implements DbFile {
+
+    // split buckets so that a table built from scratch starts this full
+    private static final double BUILD_LOAD = 0.75;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int baseTableId;
+    private final int keyField;
+    private volatile FileChannel channel = null; // opened on first use
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param base the table the index is on
+     * @param keyField the index of the field of the table to index
+     */
+    public HashIndexFile(File f, DbFile base, int keyField) {
+        if (!(base instanceof HeapFile))
+            throw new IllegalArgumentException("only a HeapFile can have a hash index");
+        TupleDesc baseTd = base.getTupleDesc();
+        this.f = f;
+        this.baseTableId = base.getId();
+        this.keyField = keyField;
+        this.td = new TupleDesc(new Type[]{baseTd.getFieldType(keyField), Type.INT_TYPE, Type.INT_TYPE},
+                new String[]{baseTd.getFieldName(keyField), "page", "slot"});
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this index on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * @return the id of the table the index is on
+     */
+    public int getBaseTableId() {
+        return baseTableId;
+    }
+
+    /**
+     * @return the index of the field of the table the index is on
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of the index: the key, and the
+     * page number and slot of the tuple that holds it.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // the channel for the backing file, opening it if needed
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                c = channel;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Returns the number of pages in this index, including the header and
+     * any reserved or free pages.
+     */
+    public int numPages() {
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            return (int) (f.length() / BufferPool.getPageSize());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HeapPageId id = (HeapPageId) pid;
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+        try {
+            FileChannel c = channel();
+            while (buf.hasRemaining()) {
+                if (c.read(buf, offset + buf.position()) < 0)
+                    break;
+            }
+            // a new index has not had its header written yet
+            if (buf.position() == 0 && id.getPageNumber() != 0)
+                throw new IllegalArgumentException("Read past end of index");
+            if (buf.position() != 0 && buf.hasRemaining())
+                throw new IllegalArgumentException("Unable to read "
+                        + BufferPool.getPageSize() + " bytes from hash index file");
+            Debug.log(1, "HashIndexFile.readPage: read page %d", id.getPageNumber());
+            if (id.getPageNumber() == 0)
+                return new HashHeaderPage(id, data);
+            return new HashBucketPage(id, data, td.getFieldType(0));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        write(page.getPageData(), page.getId().getPageNumber());
+    }
+
+    private void write(byte[] data, int pgNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        FileChannel c = channel();
+        while (buf.hasRemaining())
+            c.write(buf, offset + buf.position());
+    }
+
+    /**
+     * Add count pages of zeroes to the end of the file, after the header
+     * if the file is still empty.
+     *
+     * @return the page number of the first of them
+     */
+    private synchronized int extend(int count) throws IOException {
+        if (numPages() == 0)
+            write(new byte[BufferPool.getPageSize()], 0);
+        int first = numPages();
+        write(new byte[BufferPool.getPageSize()], first + count - 1);
+        return first;
+    }
+
+    /**
+     * Spreads the bits of a key's hash code, since buckets are chosen by
+     * the low ones.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int mask(int bits) {
+        return (1 << bits) - 1;
+    }
+
+    // the number of times the table has doubled, given its number of buckets
+    private static int level(int numBuckets) {
+        return 31 - Integer.numberOfLeadingZeros(numBuckets);
+    }
+
+    /** @return the bucket a hash goes in, in a table of numBuckets buckets */
+    static int bucketOf(int h, int numBuckets) {
+        int i = level(numBuckets);
+        int b = h & mask(i + 1);
+        return b < numBuckets ? b : h & mask(i);
+    }
+
+    /**
+     * @return the number of hash bits the keys in bucket b agree on, in a
+     *   table of numBuckets buckets: one more than before for the buckets
+     *   split since the table last doubled, and for their new halves
+     */
+    static int bitsOf(int b, int numBuckets) {
+        int i = level(numBuckets);
+        return b < numBuckets - (1 << i) || b >= (1 << i) ? i + 1 : i;
+    }
+
+    private HeapPageId pageId(int pgNo) {
+        return new HeapPageId(tableid, pgNo);
+    }
+
+    private HashHeaderPage header(TransactionId tid, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashHeaderPage) Database.getBufferPool().getPage(tid, pageId(0), perm);
+    }
+
+    private HashBucketPage bucketPage(TransactionId tid, int pgNo, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid, pageId(pgNo), perm);
+    }
+
+    /**
+     * Find the primary page of the bucket a hash goes in, locking the
+     * header only while it is read, unless the transaction held it before.
+     *
+     * @return the page, or null if the index has no buckets
+     */
+    private HashBucketPage findBucket(TransactionId tid, int h, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        BufferPool bp = Database.getBufferPool();
+        while (true) {
+            boolean held = bp.holdsLock(tid, pageId(0));
+            HashHeaderPage header = header(tid, Permissions.READ_ONLY);
+            int n = header.getNumBuckets();
+            int pgNo = n == 0 ? 0 : header.pageOf(bucketOf(h, n));
+            if (!held)
+                bp.unsafeReleasePage(tid, pageId(0));
+            if (pgNo == 0)
+                return null;
+            held = bp.holdsLock(tid, pageId(pgNo));
+            HashBucketPage p = bucketPage(tid, pgNo, perm);
+            if ((h & mask(p.getBits())) == p.getBucket())
+                return p;
+            // split since the header was read
+            if (!held)
+                bp.unsafeReleasePage(tid, p.getId());
+        }
+    }
+
+    /**
+     * Mark a page dirty, and add it to the pages an operation returns, before
+     * changing it, so that the buffer pool logs its before image if it
+     * evicts the page while the operation reads others.
+     */
+    private static void markDirty(TransactionId tid, HashIndexPage p, Map<PageId, Page> dirty) {
+        p.markDirty(true, tid);
+        dirty.put(p.getId(), p);
+    }
+
+    /**
+     * Take a page for an overflow page of a bucket: a free one, or a new
+     * one at the end of the file.  Pages freed by this transaction are not
+     * reused, since they go back into their buckets if it aborts.
+     */
+    private HashBucketPage allocate(TransactionId tid, HashHeaderPage header, int bucket,
+                                    Map<PageId, Page> dirty)
+            throws TransactionAbortedException, DbException, IOException {
+        markDirty(tid, header, dirty);
+        int pgNo = header.getFreeList();
+        HashBucketPage p;
+        if (pgNo != 0 && !Database.getBufferPool().holdsLock(tid, pageId(pgNo))) {
+            p = bucketPage(tid, pgNo, Permissions.READ_WRITE);
+            header.setFreeList(p.getNext());
+        } else {
+            p = bucketPage(tid, extend(1), Permissions.READ_WRITE);
+        }
+        markDirty(tid, p, dirty);
+        p.init(bucket, 0);
+        return p;
+    }
+
+    // put an overflow page on the header's free list
+    private void free(TransactionId tid, HashHeaderPage header, HashBucketPage p,
+                      Map<PageId, Page> dirty) {
+        markDirty(tid, header, dirty);
+        markDirty(tid, p, dirty);
+        p.init(-1, 0);
+        p.setNext(header.getFreeList());
+        header.setFreeList(p.getId().getPageNumber());
+    }
+
+    /**
+     * Add an entry for a tuple of the table to the index.
+     *
+     * @param t a tuple of the table, with its RecordId
+     */
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple has no RecordId, in insertTuple");
+        Field key = t.getField(keyField);
+        int h = hash(key);
+        Map<PageId, Page> dirty = new LinkedHashMap<>();
+
+        // the common case: a page of the bucket has room
+        HashBucketPage p = findBucket(tid, h, Permissions.READ_WRITE);
+        while (p != null) {
+            if (p.hasRoom()) {
+                markDirty(tid, p, dirty);
+                p.add(key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+                return new ArrayList<>(dirty.values());
+            }
+            p = p.getNext() == 0 ? null : bucketPage(tid, p.getNext(), Permissions.READ_WRITE);
+        }
+
+        HashHeaderPage header = header(tid, Permissions.READ_WRITE);
+        boolean overflowed = false;
+        if (header.getNumBuckets() == 0) {
+            markDirty(tid, header, dirty);
+            header.setGroupStart(0, extend(1));
+            header.setNumBuckets(1);
+            p = bucketPage(tid, header.pageOf(0), Permissions.READ_WRITE);
+            markDirty(tid, p, dirty);
+            p.init(0, 0);
+        } else {
+            p = bucketPage(tid, header.pageOf(bucketOf(h, header.getNumBuckets())), Permissions.READ_WRITE);
+            while (!p.hasRoom() && p.getNext() != 0)
+                p = bucketPage(tid, p.getNext(), Permissions.READ_WRITE);
+            if (!p.hasRoom()) {
+                markDirty(tid, p, dirty);
+                HashBucketPage overflow = allocate(tid, header, p.getBucket(), dirty);
+                p.setNext(overflow.getId().getPageNumber());
+                p = overflow;
+                overflowed = true;
+            }
+        }
+        markDirty(tid, p, dirty);
+        p.add(key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+        if (overflowed)
+            split(tid, header, dirty);
+        return new ArrayList<>(dirty.values());
+    }
+
+    /**
+     * Split the next bucket in turn, adding a bucket to the table: the
+     * entries of bucket s are divided between it and the new bucket by the
+     * next bit of their hashes.  The pages of s are reused for both, and
+     * any left over are freed.
+     */
+    private void split(TransactionId tid, HashHeaderPage header, Map<PageId, Page> dirty)
+            throws TransactionAbortedException, DbException, IOException {
+        int n = header.getNumBuckets();
+        int bits = level(n) + 1;
+        int s = n - (1 << (bits - 1));
+        int g = HashHeaderPage.group(n);
+        markDirty(tid, header, dirty);
+        if (header.getGroupStart(g) == 0)
+            header.setGroupStart(g, extend(HashHeaderPage.firstBucket(g)));
+
+        List<Field> keys = new ArrayList<>();
+        List<Integer> pageNos = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        LinkedList<HashBucketPage> spare = new LinkedList<>();
+        for (int pgNo = header.pageOf(s); pgNo != 0; ) {
+            HashBucketPage p = bucketPage(tid, pgNo, Permissions.READ_WRITE);
+            markDirty(tid, p, dirty);
+            for (int i = 0; i < p.getNumEntries(); i++) {
+                keys.add(p.getKey(i));
+                pageNos.add(p.getPageNo(i));
+                slots.add(p.getSlot(i));
+            }
+            pgNo = p.getNext();
+            spare.add(p);
+        }
+        HashBucketPage low = spare.removeFirst();
+        low.init(s, bits);
+        HashBucketPage high = bucketPage(tid, header.pageOf(n), Permissions.READ_WRITE);
+        markDirty(tid, high, dirty);
+        high.init(n, bits);
+
+        for (int i = 0; i < keys.size(); i++) {
+            boolean stays = (hash(keys.get(i)) & mask(bits)) == s;
+            HashBucketPage last = stays ? low : high;
+            if (!last.hasRoom()) {
+                HashBucketPage o = spare.isEmpty() ? allocate(tid, header, last.getBucket(), dirty)
+                        : spare.removeFirst();
+                o.init(last.getBucket(), 0);
+                last.setNext(o.getId().getPageNumber());
+                last = o;
+                if (stays)
+                    low = o;
+                else
+                    high = o;
+            }
+            last.add(keys.get(i), pageNos.get(i), slots.get(i));
+        }
+        for (HashBucketPage p : spare)
+            free(tid, header, p, dirty);
+        header.setNumBuckets(n + 1);
+    }
+
+    /**
+     * Remove the entry for a tuple of the table from the index.
+     *
+     * @param t a tuple of the table, with its RecordId
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple has no RecordId, in deleteTuple");
+        Field key = t.getField(keyField);
+        Map<PageId, Page> dirty = new LinkedHashMap<>();
+        HashBucketPage p = findBucket(tid, hash(key), Permissions.READ_WRITE);
+        while (p != null) {
+            int i = p.find(key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+            if (i >= 0) {
+                markDirty(tid, p, dirty);
+                p.remove(i);
+                return new ArrayList<>(dirty.values());
+            }
+            p = p.getNext() == 0 ? null : bucketPage(tid, p.getNext(), Permissions.READ_WRITE);
+        }
+        throw new DbException("tried to delete a tuple that is not in the index");
+    }
+
+    /**
+     * Fill an empty index with the tuples of its table, which are read with
+     * the given transaction.  The pages are written straight to the file,
+     * and any copies of them cached before are dropped from the buffer
+     * pool, so the table must not change while the index is built.
+     *
+     * @throws DbException if the index is not empty
+     */
+    public void build(TransactionId tid) throws DbException, TransactionAbortedException, IOException {
+        if (numPages() > 0)
+            throw new DbException("index " + f + " is not empty");
+        List<Field> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(baseTableId).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            keys.add(t.getField(keyField));
+            rids.add(t.getRecordId());
+        }
+        it.close();
+
+        int pageSize = BufferPool.getPageSize();
+        Type keyType = td.getFieldType(0);
+        int perPage = (pageSize - HashBucketPage.HEADER_SIZE) / (keyType.getLen() + 8);
+        int n = Math.max(1, (int) Math.ceil(keys.size() / (perPage * BUILD_LOAD)));
+
+        // the header, and the primary pages of each group
+        HashHeaderPage header = new HashHeaderPage(pageId(0), new byte[pageSize]);
+        header.setNumBuckets(n);
+        int numPages = 1;
+        for (int g = 0; HashHeaderPage.firstBucket(g) < n; g++) {
+            header.setGroupStart(g, numPages);
+            numPages += g == 0 ? 1 : HashHeaderPage.firstBucket(g);
+        }
+        List<List<HashBucketPage>> buckets = new ArrayList<>();
+        for (int b = 0; b < n; b++) {
+            HashBucketPage p = new HashBucketPage(pageId(header.pageOf(b)), new byte[pageSize], keyType);
+            p.init(b, bitsOf(b, n));
+            buckets.add(new ArrayList<>(Collections.singletonList(p)));
+        }
+
+        // overflow pages after them
+        for (int i = 0; i < keys.size(); i++) {
+            List<HashBucketPage> chain = buckets.get(bucketOf(hash(keys.get(i)), n));
+            HashBucketPage last = chain.get(chain.size() - 1);
+            if (!last.hasRoom()) {
+                HashBucketPage o = new HashBucketPage(pageId(numPages++), new byte[pageSize], keyType);
+                o.init(last.getBucket(), 0);
+                last.setNext(o.getId().getPageNumber());
+                chain.add(o);
+                last = o;
+            }
+            last.add(keys.get(i), rids.get(i).getPageId().getPageNumber(), rids.get(i).getTupleNumber());
+        }
+
+        synchronized (this) {
+            write(new byte[pageSize], numPages - 1);
+            writePage(header);
+            for (List<HashBucketPage> chain : buckets) {
+                for (HashBucketPage p : chain)
+                    writePage(p);
+            }
+        }
+        // the pool may hold the header as it was while the file was empty
+        for (int i = 0; i < numPages; i++)
+            Database.getBufferPool().discardPage(pageId(i));
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose indexed field
+     * equals key.  The pages of the bucket, and of the table, are read with
+     * shared locks, as by a scan.
+     */
+    public DbFileIterator lookup(TransactionId tid, Field key) {
+        return new LookupIterator(tid, key);
+    }
+
+    /**
+     * Reads the tuples a bucket has entries for with a given key.
+     */
+    private class LookupIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Field key;
+        private HashBucketPage page = null;
+        private int pos = 0;
+
+        LookupIterator(TransactionId tid, Field key) {
+            this.tid = tid;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            page = findBucket(tid, hash(key), Permissions.READ_ONLY);
+            pos = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                if (pos >= page.getNumEntries()) {
+                    page = page.getNext() == 0 ? null : bucketPage(tid, page.getNext(), Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                int i = pos++;
+                if (!page.getKey(i).equals(key))
+                    continue;
+                TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(baseTableId, page.getPageNo(i)), Permissions.READ_ONLY);
+                Tuple t = p.getTuple(page.getSlot(i));
+                if (t != null)
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid);
+    }
+
+    /**
+     * Reads the entries of every bucket in turn.
+     */
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private HashHeaderPage header = null;
+        private int bucket = 0;
+        private HashBucketPage page = null;
+        private int pos = 0;
+
+        EntryIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            header = header(tid, Permissions.READ_ONLY);
+            bucket = 0;
+            page = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (header != null) {
+                if (page == null) {
+                    if (bucket >= header.getNumBuckets())
+                        return null;
+                    page = bucketPage(tid, header.pageOf(bucket++), Permissions.READ_ONLY);
+                    pos = 0;
+                }
+                if (pos < page.getNumEntries()) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, page.getKey(pos));
+                    t.setField(1, new IntField(page.getPageNo(pos)));
+                    t.setField(2, new IntField(page.getSlot(pos)));
+                    pos++;
+                    return t;
+                }
+                page = page.getNext() == 0 ? null : bucketPage(tid, page.getNext(), Permissions.READ_ONLY);
+                pos = 0;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            header = null;
+            page = null;
+        }
+    }
+}
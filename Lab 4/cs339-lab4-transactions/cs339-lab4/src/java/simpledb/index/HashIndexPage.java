@@ -0,0 +1,81 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+
+/**
+ * Each instance of HashIndexPage stores data for one page of a
+ * {@link HashIndexFile}: page 0 is the {@link HashHeaderPage}, and every
+ * other page a {@link HashBucketPage}.
+ */
+public abstract class HashIndexPage implements Page {
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final HeapPageId pid;
+    final int pageSize;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    HashIndexPage(HeapPageId id, int pageSize) {
+        this.pid = id;
+        this.pageSize = pageSize;
+    }
+
+    // the file a page belongs to, which says how its keys are laid out
+    static HashIndexFile fileOf(HeapPageId id) {
+        return (HashIndexFile) Database.getCatalog().getDatabaseFile(id.getTableId());
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /** Rebuild a page of the same kind from bytes of getPageData. */
+    abstract HashIndexPage copyOf(byte[] data) throws IOException;
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public HashIndexPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return copyOf(oldDataRef.clone());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+}
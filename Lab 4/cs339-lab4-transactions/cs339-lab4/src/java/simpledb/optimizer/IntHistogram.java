@@ -6,6 +6,13 @@ import simpledb.execution.Predicate;
  */
 public class IntHistogram {
 
+    private final int buckets;
+    private final int min;
+    private final int max;
+    private final long width; // of each bucket, at least 1
+    private final int[] counts;
+    private int ntups = 0;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -23,7 +30,21 @@ public class IntHistogram {
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        this.buckets = buckets;
+        this.min = min;
+        this.max = max;
+        this.width = Math.max(1, ((long) max - min + buckets) / buckets);
+        this.counts = new int[buckets];
+    }
+
+    // the bucket value v falls in, which must be between min and max
+    private int bucket(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    // the smallest value in bucket b
+    private long bucketStart(int b) {
+        return min + b * width;
     }
 
     /**
@@ -31,7 +52,10 @@ public class IntHistogram {
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        if (v < min || v > max)
+            return;
+        counts[bucket(v)]++;
+        ntups++;
     }
 
     /**
@@ -45,10 +69,45 @@ public class IntHistogram {
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
+        if (ntups == 0)
+            return 0.0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                if (v < min || v > max)
+                    return 0.0;
+                return (double) counts[bucket(v)] / width / ntups;
+            case NOT_EQUALS:
+                return 1.0 - estimateSelectivity(Predicate.Op.EQUALS, v);
+            case GREATER_THAN:
+                if (v < min)
+                    return 1.0;
+                if (v >= max)
+                    return 0.0;
+                return fractionAbove(v);
+            case GREATER_THAN_OR_EQ:
+                if (v <= min)
+                    return 1.0;
+                if (v > max)
+                    return 0.0;
+                return fractionAbove(v - 1);
+            case LESS_THAN:
+                return 1.0 - estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, v);
+            case LESS_THAN_OR_EQ:
+                return 1.0 - estimateSelectivity(Predicate.Op.GREATER_THAN, v);
+        }
         return -1.0;
     }
+
+    // the fraction of values greater than v, for v from min to max - 1,
+    // assuming the values of a bucket are spread evenly over it
+    private double fractionAbove(int v) {
+        int b = bucket(v);
+        double count = counts[b] * (double) (bucketStart(b) + width - 1 - v) / width;
+        for (int i = b + 1; i < buckets; i++)
+            count += counts[i];
+        return count / ntups;
+    }
     
     /**
      * @return
@@ -60,15 +119,22 @@ public class IntHistogram {
      * */
     public double avgSelectivity()
     {
-        // some code goes here
-        return 1.0;
+        // the chance that two values drawn at random are equal
+        if (ntups == 0)
+            return 1.0;
+        double sum = 0;
+        for (int count : counts) {
+            double fraction = (double) count / ntups;
+            sum += fraction * fraction / width;
+        }
+        return sum;
     }
     
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-        // some code goes here
-        return null;
+        return "IntHistogram(" + buckets + " buckets of width " + width + " from " + min
+                + " to " + max + ", " + ntups + " values: " + java.util.Arrays.toString(counts) + ")";
     }
 }
@@ -19,6 +19,35 @@ public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    /**
+     * The algorithms {@link #estimateJoinCost} chooses among for a join.
+     */
+    public enum JoinAlgorithm {
+        /** {@link Join}: scans the inner child once per outer tuple */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}: scans the inner child once per block
+         * of outer tuples */
+        BLOCK_NESTED_LOOP,
+        /** {@link SortMergeJoin}: sorts both children, unless they are in
+         * order already, and merges them, so only for EQUALS and ranges */
+        SORT_MERGE,
+        /** {@link HashEquiJoin}: builds a hash table on the outer child, so
+         * only for EQUALS */
+        HASH
+    }
+
+    /**
+     * The fraction of the cross product of two tables that a range
+     * predicate is assumed to keep.
+     */
+    static final double RANGE_SELECTIVITY = 0.3;
+
+    /**
+     * The cost of writing a tuple to a spill file and reading it back, in
+     * the units of a predicate application.
+     */
+    static final double SPILL_COST = 2.0;
+
     /**
      * Constructor
      * 
@@ -39,6 +68,14 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * An equality join whose right child scans a table with a hash index on
+     * the join field is an {@link IndexNestedLoopJoin}, which probes the
+     * index rather than scanning plan2 for each tuple of plan1.  Otherwise
+     * the join uses the algorithm {@link #orderJoins} chose for it from
+     * the estimated cardinalities and orders of its children; a join it has not
+     * ordered is a {@link HashEquiJoin} if it is on EQUALS, and a
+     * {@link Join} otherwise.
      * 
      * @param lj
      *            The join being considered
@@ -73,7 +110,26 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (!(lj instanceof LogicalSubplanJoinNode)
+                && IndexNestedLoopJoin.canProbe(lj.p, t2id, plan2))
+            return new IndexNestedLoopJoin(p, plan1, plan2);
+
+        JoinAlgorithm a = lj.algorithm;
+        if (a == null)
+            a = lj.p == Predicate.Op.EQUALS ? JoinAlgorithm.HASH : JoinAlgorithm.NESTED_LOOP;
+        switch (a) {
+        case HASH:
+            j = new HashEquiJoin(p, plan1, plan2);
+            break;
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
@@ -82,11 +138,11 @@ public class JoinOptimizer {
     /**
      * Estimate the cost of a join.
      * 
-     * The cost of the join should be calculated based on the join algorithm (or
-     * algorithms) that you implemented for Lab 2. It should be a function of
-     * the amount of data that must be read over the course of the query, as
-     * well as the number of CPU opertions performed by your join. Assume that
-     * the cost of a single predicate application is roughly 1.
+     * The cost of the join is that of the cheapest algorithm that can
+     * evaluate it (see {@link #chooseJoinAlgorithm}): a function of the
+     * amount of data that must be read over the course of the query, as
+     * well as the number of CPU operations performed by the join. The cost
+     * of a single predicate application is taken to be 1.
      * 
      * 
      * @param j
@@ -112,12 +168,146 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            return estimateJoinCost(chooseJoinAlgorithm(j.p, card1, card2, cost1, cost2, false, false),
+                    j.p, card1, card2, cost1, cost2, false, false);
+        }
+    }
+
+    /**
+     * Estimate the cost of a join of a subplan with another table, taking
+     * into account the order the subplan returns its tuples in.
+     *
+     * @param prevBest the joins of the subplan
+     * @see #estimateJoinCost(LogicalJoinNode, int, int, double, double)
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, List<LogicalJoinNode> prevBest) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
+        boolean sorted1 = isSortedOn(prevBest, j.t1Alias, j.f1PureName, j.p);
+        boolean sorted2 = isSortedOn(prevBest, j.t2Alias, j.f2PureName, j.p);
+        return estimateJoinCost(chooseJoinAlgorithm(j.p, card1, card2, cost1, cost2, sorted1, sorted2),
+                j.p, card1, card2, cost1, cost2, sorted1, sorted2);
+    }
+
+    /**
+     * Return true if the subplan of a list of joins returns its tuples in
+     * the order that a {@link SortMergeJoin} on a field of it would read
+     * them, because its last join is a sort-merge join that returns them in
+     * that order.
+     *
+     * @param plan the joins of the subplan, in left-deep order
+     * @param alias the table of the field
+     * @param field the pure name of the field
+     * @param op the predicate of the sort-merge join
+     */
+    private static boolean isSortedOn(List<LogicalJoinNode> plan, String alias, String field,
+            Predicate.Op op) {
+        if (plan.isEmpty() || !SortMergeJoin.canJoin(op))
+            return false;
+        LogicalJoinNode last = plan.get(plan.size() - 1);
+        if (last.algorithm != JoinAlgorithm.SORT_MERGE
+                || SortMergeJoin.ascending(last.p) != SortMergeJoin.ascending(op))
+            return false;
+        return (last.t1Alias.equals(alias) && last.f1PureName.equals(field))
+                || (last.p == Predicate.Op.EQUALS && last.t2Alias.equals(alias)
+                        && last.f2PureName.equals(field));
+    }
+
+    /**
+     * Estimate the cost of a join with a given algorithm, in the terms of
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     * A join may be on a side that is already in the order a sort-merge
+     * join reads it in.
+     * <ul>
+     * <li>A nested loops join reads the left side once, and the right side
+     * once for each tuple of the left.</li>
+     * <li>A block nested loops join reads the right side once for each
+     * {@link BlockNestedLoopJoin#BLOCK_SIZE} tuples of the left.</li>
+     * <li>Both apply the predicate to every pair of tuples.</li>
+     * <li>A hash join reads each side once and hashes each tuple.  If the
+     * left side does not fit in {@link HashEquiJoin#MAP_SIZE} tuples, all
+     * but one of its {@link HashEquiJoin#PARTITIONS} partitions of each side
+     * are written to disk and read back.</li>
+     * <li>A sort-merge join sorts each side that is not in order (see
+     * {@link #sortCost}), and reads each side once.  On a range
+     * predicate it also reads each tuple of the right side again for each
+     * tuple of the left that it matches.</li>
+     * </ul>
+     *
+     * @param op the join predicate
+     * @param sorted1 true if the left side is already in order
+     * @param sorted2 true if the right side is already in order
+     */
+    public static double estimateJoinCost(JoinAlgorithm a, Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        switch (a) {
+        case SORT_MERGE:
+            double merge = (double) card1 + card2;
+            if (op != Predicate.Op.EQUALS)
+                merge += RANGE_SELECTIVITY * card1 * card2;
+            return cost1 + cost2 + merge + (sorted1 ? 0 : sortCost(card1))
+                    + (sorted2 ? 0 : sortCost(card2));
+        case HASH:
+            double cost = cost1 + cost2 + card1 + card2;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                double spilled = (HashEquiJoin.PARTITIONS - 1) / (double) HashEquiJoin.PARTITIONS;
+                cost += spilled * ((double) card1 + card2) * SPILL_COST;
+            }
+            return cost;
+        case BLOCK_NESTED_LOOP:
+            double blocks = Math.ceil(card1 / (double) BlockNestedLoopJoin.BLOCK_SIZE);
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        default:
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the cost of sorting n tuples with an {@link OrderBy}: n log n
+     *   comparisons, and if they do not fit in {@link OrderBy#RUN_SIZE}
+     *   tuples, writing and reading back each of them once for each pass
+     *   of merging {@link OrderBy#MERGE_FAN_IN} runs
+     */
+    static double sortCost(int n) {
+        if (n <= 1)
+            return 0;
+        double cost = n * (Math.log(n) / Math.log(2));
+        if (n > OrderBy.RUN_SIZE) {
+            double runs = Math.ceil(n / (double) OrderBy.RUN_SIZE);
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(OrderBy.MERGE_FAN_IN)));
+            cost += passes * n * SPILL_COST;
         }
+        return cost;
+    }
+
+    /**
+     * Choose the cheapest algorithm for a join, by
+     * {@link #estimateJoinCost(JoinAlgorithm, Predicate.Op, int, int, double, double, boolean, boolean)}.
+     * A hash join is only considered for EQUALS, and a sort-merge join for
+     * EQUALS and ranges.  On a tie, the algorithm listed first in
+     * {@link JoinAlgorithm} is preferred: a nested loops join holds no
+     * tuples in memory, and a sort-merge join of sorted sides none either.
+     *
+     * @param op the join predicate
+     * @return the algorithm to join with
+     */
+    public static JoinAlgorithm chooseJoinAlgorithm(Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2) {
+        JoinAlgorithm best = JoinAlgorithm.NESTED_LOOP;
+        double bestCost = estimateJoinCost(best, op, card1, card2, cost1, cost2, sorted1, sorted2);
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            if (a == JoinAlgorithm.HASH && op != Predicate.Op.EQUALS)
+                continue;
+            if (a == JoinAlgorithm.SORT_MERGE && !SortMergeJoin.canJoin(op))
+                continue;
+            double cost = estimateJoinCost(a, op, card1, card2, cost1, cost2, sorted1, sorted2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
     }
 
     /**
@@ -160,8 +350,29 @@ public class JoinOptimizer {
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
+        int card;
+        switch (joinOp) {
+        case EQUALS:
+        case LIKE:
+            // a key on one side matches each tuple of the other at most once
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+            break;
+        case NOT_EQUALS:
+            card = (int) Math.min(Integer.MAX_VALUE, (long) card1 * card2
+                    - estimateTableJoinCardinality(Predicate.Op.EQUALS, table1Alias, table2Alias,
+                    field1PureName, field2PureName, card1, card2, t1pkey, t2pkey, stats, tableAliasToId));
+            break;
+        default:
+            // a range predicate keeps a fixed fraction of the cross product
+            card = (int) Math.min(Integer.MAX_VALUE, RANGE_SELECTIVITY * card1 * card2);
+        }
         return card <= 0 ? 1 : card;
     }
 
@@ -221,11 +432,27 @@ public class JoinOptimizer {
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
-        //Not necessary for labs 1--3
+        PlanCache pc = new PlanCache();
+        for (int i = 1; i <= joins.size(); i++) {
+            for (Set<LogicalJoinNode> s : enumerateSubsets(joins, i)) {
+                CostCard best = null;
+                for (LogicalJoinNode j : s) {
+                    CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, j, s,
+                            best == null ? Double.MAX_VALUE : best.cost, pc);
+                    if (cc != null)
+                        best = cc;
+                }
+                if (best != null)
+                    pc.addPlan(s, best.cost, best.card, best.plan);
+            }
+        }
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        List<LogicalJoinNode> order = pc.getOrder(new HashSet<>(joins));
+        if (order == null) // the joins include a cross product
+            return joins;
+        if (explain)
+            printJoins(order, pc, stats, filterSelectivities);
+        return order;
     }
 
     // ===================== Private Methods =================================
@@ -353,10 +580,10 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, prevBest);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, prevBest);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -364,9 +591,19 @@ public class JoinOptimizer {
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            int card = t1card;
+            t1card = t2card;
+            t2card = card;
+            double cost = t1cost;
+            t1cost = t2cost;
+            t2cost = cost;
         }
         if (cost1 >= bestCostSoFar)
             return null;
+        if (!(j instanceof LogicalSubplanJoinNode))
+            j = j.withAlgorithm(chooseJoinAlgorithm(j.p, t1card, t2card, t1cost, t2cost,
+                    isSortedOn(prevBest, j.t1Alias, j.f1PureName, j.p),
+                    isSortedOn(prevBest, j.t2Alias, j.f2PureName, j.p)));
 
         CostCard cc = new CostCard();
 
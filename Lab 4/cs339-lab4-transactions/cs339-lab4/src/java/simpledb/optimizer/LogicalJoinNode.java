@@ -25,6 +25,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm {@link JoinOptimizer#orderJoins} chose for the join, or
+     * null if it has not chosen one */
+    public JoinOptimizer.JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +67,14 @@ public class LogicalJoinNode {
 
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
+
+    /** Return a copy of this LogicalJoinNode to be executed with the given
+     * algorithm. */
+    public LogicalJoinNode withAlgorithm(JoinOptimizer.JoinAlgorithm a) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j.algorithm = a;
+        return j;
+    }
     
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
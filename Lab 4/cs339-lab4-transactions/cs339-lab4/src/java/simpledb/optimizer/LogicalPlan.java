@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -274,6 +275,55 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** For each table stored in a {@link BTreeFile}, replace its scan in subplanMap with an
+     *  {@link IndexScan} on the filter over its key that is cheapest to read through the index,
+     *  if that costs less than scanning the whole table.
+     *  @param t The transaction that the scans will run as a part of
+     *  @param statsMap the statistics of each table, by table name
+     *  @return the filters that the index scans apply, which need no Filter of their own
+     */
+    private Set<LogicalFilterNode> chooseIndexScans(TransactionId t, Map<String,TableStats> statsMap) {
+        Map<String,LogicalFilterNode> best = new HashMap<>();
+        Map<String,Double> bestCost = new HashMap<>();
+        for (LogicalFilterNode lf : filters) {
+            Integer tableId = getTableId(lf.tableAlias);
+            if (tableId == null || !(Database.getCatalog().getDatabaseFile(tableId) instanceof BTreeFile))
+                continue;
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            int field;
+            try {
+                field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            } catch (NoSuchElementException e) {
+                continue; // reported with the filters
+            }
+            if (s == null || field != ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyField())
+                continue;
+            double cost = s.estimateIndexScanCost(field, lf.p, constant(lf, td.getFieldType(field)));
+            Double current = bestCost.get(lf.tableAlias);
+            if (cost < s.estimateScanCost() && (current == null || cost < current)) {
+                best.put(lf.tableAlias, lf);
+                bestCost.put(lf.tableAlias, cost);
+            }
+        }
+
+        for (LogicalFilterNode lf : best.values()) {
+            int tableId = getTableId(lf.tableAlias);
+            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
+            int field = td.fieldNameToIndex(lf.fieldQuantifiedName);
+            Predicate p = new Predicate(field, lf.p, constant(lf, td.getFieldType(field)));
+            subplanMap.put(lf.tableAlias, new IndexScan(t, tableId, lf.tableAlias, p));
+        }
+        return new HashSet<>(best.values());
+    }
+
+    /** @return the constant of a filter as a field of the given type */
+    private static Field constant(LogicalFilterNode lf, Type type) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(lf.c));
+        return new StringField(lf.c, Type.STRING_LEN);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -309,6 +359,8 @@ public class LogicalPlan {
 
         }
 
+        Set<LogicalFilterNode> indexed = chooseIndexScans(t, statsMap);
+
         for (LogicalFilterNode lf : filters) {
             OpIterator subplan = subplanMap.get(lf.tableAlias);
             if (subplan == null) {
@@ -335,7 +387,8 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!indexed.contains(lf))
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -472,7 +525,10 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            // a sort-merge join may already have put the tuples in order
+            if (!OrderBy.isSorted(node, oByIndex, oByAsc))
+                node = new OrderBy(oByIndex, oByAsc, node);
         }
 
         return new Project(outFields, outTypes, node);
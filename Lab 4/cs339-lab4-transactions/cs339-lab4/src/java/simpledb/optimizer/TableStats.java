@@ -1,15 +1,21 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -68,6 +74,13 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final DbFile file;
+    private final int ioCostPerPage;
+    private final Object[] histograms; // an IntHistogram or StringHistogram per field
+    private int ntups = 0;
+    private int npages = 0; // that hold tuples
+    private int height = 0; // of the index, if the table is a BTreeFile
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -79,14 +92,62 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.ioCostPerPage = ioCostPerPage;
+        TupleDesc td = file.getTupleDesc();
+        this.histograms = new Object[td.numFields()];
+
+        TransactionId tid = new TransactionId();
+        try {
+            // one pass for the range of each int field, and another to fill
+            // the histograms
+            int[] min = new int[td.numFields()];
+            int[] max = new int[td.numFields()];
+            java.util.Arrays.fill(min, Integer.MAX_VALUE);
+            java.util.Arrays.fill(max, Integer.MIN_VALUE);
+            Set<PageId> pages = new HashSet<>();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                ntups++;
+                if (t.getRecordId() != null)
+                    pages.add(t.getRecordId().getPageId());
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        int v = ((IntField) t.getField(i)).getValue();
+                        min[i] = Math.min(min[i], v);
+                        max[i] = Math.max(max[i], v);
+                    }
+                }
+            }
+            npages = pages.size();
+
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    histograms[i] = new IntHistogram(NUM_HIST_BINS, Math.min(min[i], max[i]), max[i]);
+                else
+                    histograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+            it.rewind();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (histograms[i] instanceof IntHistogram)
+                        ((IntHistogram) histograms[i]).addValue(((IntField) t.getField(i)).getValue());
+                    else
+                        ((StringHistogram) histograms[i]).addValue(((StringField) t.getField(i)).getValue());
+                }
+            }
+            it.close();
+
+            if (file instanceof BTreeFile)
+                height = ((BTreeFile) file).height(tid);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("could not compute statistics for table " + tableid, e);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
     }
 
     /**
@@ -102,8 +163,28 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        // some code goes here
-        return 0;
+        // a HeapFile scan reads every page, even the empty ones
+        int pages = file instanceof HeapFile ? ((HeapFile) file).numPages() : npages;
+        return (double) pages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that pass <tt>field op
+     * constant</tt> through the table's B+ tree: a page read per level to
+     * find the first leaf, then the leaves that hold the tuples that pass.
+     *
+     * @return The estimated cost, or infinity if the table is not a
+     *         BTreeFile keyed on the field, or the index cannot be used for
+     *         op
+     * @see simpledb.execution.IndexScan
+     */
+    public double estimateIndexScanCost(int field, Predicate.Op op, Field constant) {
+        if (!(file instanceof BTreeFile) || ((BTreeFile) file).keyField() != field
+                || op == Predicate.Op.NOT_EQUALS
+                || (op == Predicate.Op.LIKE && constant.getType() == Type.STRING_TYPE))
+            return Double.POSITIVE_INFINITY;
+        double leaves = Math.ceil(estimateSelectivity(field, op, constant) * npages);
+        return (height + Math.max(0, leaves - 1)) * ioCostPerPage;
     }
 
     /**
@@ -116,8 +197,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        // some code goes here
-        return 0;
+        return (int) (ntups * selectivityFactor);
     }
 
     /**
@@ -131,8 +211,9 @@ public class TableStats {
      * expected selectivity. You may estimate this value from the histograms.
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
-        // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram)
+            return ((IntHistogram) histograms[field]).avgSelectivity();
+        return ((StringHistogram) histograms[field]).avgSelectivity();
     }
 
     /**
@@ -149,16 +230,18 @@ public class TableStats {
      *         predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-        // some code goes here
-        return 1.0;
+        if (histograms[field] instanceof IntHistogram)
+            return ((IntHistogram) histograms[field]).estimateSelectivity(op,
+                    ((IntField) constant).getValue());
+        return ((StringHistogram) histograms[field]).estimateSelectivity(op,
+                ((StringField) constant).getValue());
     }
 
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return ntups;
     }
 
 }
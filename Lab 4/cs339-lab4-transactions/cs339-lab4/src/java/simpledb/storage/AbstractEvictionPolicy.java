@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+/**
+ * Helper for implementing EvictionPolicies.  Keeps the hit/miss counters and
+ * forwards the events to {@link #accessed} and {@link #admitted}.
+ */
+public abstract class AbstractEvictionPolicy implements EvictionPolicy {
+
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    public final void pageHit(PageId pid) {
+        hits++;
+        accessed(pid);
+    }
+
+    public final void pageAdded(PageId pid) {
+        misses++;
+        admitted(pid);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Records a reference to a page that is already resident. */
+    protected abstract void accessed(PageId pid);
+
+    /** Records a page that was just brought into the pool. */
+    protected abstract void admitted(PageId pid);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(hits=" + hits + ", misses=" + misses + ")";
+    }
+}
@@ -4,7 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
-import simpledb.transaction.Transaction;
+import simpledb.index.HashIndexFile;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -22,6 +23,24 @@ import java.util.concurrent.ConcurrentMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are managed STEAL/NO-FORCE on top of the write-ahead log: a dirty
+ * page may be evicted before its transaction commits, once an update record
+ * with its before image has been forced to the log, and commit only appends
+ * update records for the transaction's dirty pages and forces the commit
+ * record.  The pages themselves reach the disk later, on eviction, a
+ * checkpoint or {@link #flushAllPages}.
+ * <p>
+ * For each cached page whose committed updates have not reached the disk,
+ * the pool remembers the LSN of the first update record logged for it
+ * since it was last written (its recLSN).  Checkpoints record this table
+ * instead of flushing the pages, and recovery redoes the log from the
+ * oldest recLSN.
+ * <p>
+ * An index can log a change a transaction makes to its structure as a
+ * transaction of its own, which commits at once (see
+ * {@link #logStructureChange}), so that it need not keep other
+ * transactions out of the pages it changed until the first one completes.
  * 
  * @Threadsafe, all fields are final
  */
@@ -36,20 +55,50 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Random random = new Random();
     final int numPages;   // number of pages -- currently, not enforced
     final ConcurrentMap<PageId, Page> pages; // hash table storing current pages in memory
-    public LockManager lm;
+    private final EvictionPolicy policy; // protected by this
+    private final LockManager lockManager;
+    private final Map<PageId, Long> recLSNs = new HashMap<>(); // protected by this
+    // for each page that is not a SlotLoggedPage and was written out holding
+    // changes of a running transaction, the LSN of the update record logged
+    // first, which has the page as last committed as its before image: a
+    // copy read back in has the changes in its before image
+    private final Map<PageId, Long> stolenLSNs = new HashMap<>(); // protected by this
+    private final ConcurrentMap<TransactionId, List<Runnable>> commitActions = new ConcurrentHashMap<>();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, replacing pages
+     * with the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another pool
+     */
+    public BufferPool(int numPages, EvictionPolicy policy) {
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
-        this.lm = new LockManager();
+        this.policy = policy;
+        this.lockManager = new LockManager();
+    }
+
+    /** @return the replacement policy of this pool, including its hit/miss counters */
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /** @return the lock manager that grants page locks for this pool */
+    public LockManager getLockManager() {
+        return lockManager;
     }
     
     public static int getPageSize() {
@@ -67,93 +116,6 @@ public class BufferPool {
     }
 
 
-    /**
-     * Lock class
-     */
-    public class Lock{
-        public boolean exclusive;
-        public TransactionId tid;
-        public Lock(boolean exclusive, TransactionId tid) {
-            this.exclusive = exclusive;
-            this.tid = tid;
-        }
-    }
-
-
-    /**
-     * Lock manager class
-     */
-    public class LockManager{
-
-        public HashMap<PageId, ArrayList<Lock>> requests;
-        public HashMap<TransactionId, ArrayList<PageId>> tidpgid;
-
-        public LockManager() {
-            requests = new HashMap<PageId, ArrayList<Lock>>();
-            tidpgid = new HashMap<TransactionId, ArrayList<PageId>>();
-        }
-
-        public synchronized boolean addLock(boolean exclusive, PageId pgid, TransactionId tid) {
-//            System.out.println("addlock 1");
-            Lock toadd = new Lock(exclusive, tid);
-            if (!this.requests.containsKey(pgid)) {
-                this.requests.put(pgid, new ArrayList<Lock>());
-            }
-            requests.get(pgid).add(toadd);
-
-            if (!this.tidpgid.containsKey(tid)) {
-                this.tidpgid.put(tid, new ArrayList<PageId>());
-            }
-            tidpgid.get(tid).add(pgid);
-
-            if (exclusive) {
-                if (this.requests.get(pgid).get(0).tid.equals(tid)
-                        && this.requests.get(pgid).get(0).exclusive) {
-                    return true;
-                } else {
-                    if (this.requests.get(pgid).get(0).tid.equals(tid)
-                            && !this.requests.get(pgid).get(0).exclusive
-                            && this.requests.get(pgid).get(1).tid.equals(tid)) {
-                        this.requests.get(pgid).remove(0);
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            } else {
-                return !this.requests.get(pgid).get(0).exclusive;
-            }
-        }
-
-        public synchronized void unlock(PageId pgid, TransactionId tid) {
-//            System.out.println("unlock 1");
-            if (!this.requests.containsKey(pgid)) { return; }
-            if (this.requests.get(pgid).get(0).exclusive
-                    && !this.requests.get(pgid).get(0).tid.equals(tid)) { return; }
-            for (Lock lock : this.requests.get(pgid)) {
-                if (lock.tid.equals(tid)) {
-                    this.requests.get(pgid).remove(lock);
-                    this.tidpgid.get(tid).remove(pgid);
-                    break;
-                }
-            }
-        }
-
-        public boolean locked(PageId pgid, TransactionId tid) {
-//            System.out.println("locked 1");
-            if (!this.requests.containsKey(pgid)) { return false; }
-            if (this.requests.get(pgid).get(0).exclusive) {
-                return this.requests.get(pgid).get(0).tid.equals(tid);
-            } else {
-                for (Lock lock : this.requests.get(pgid)) {
-                    if (lock.tid.equals(tid) && !lock.exclusive) { return true; }
-                }
-                return false;
-            }
-        }
-    }
-
-
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -175,16 +137,8 @@ public class BufferPool {
         // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
         //     won't we still evict pages?
 
-//        lm.addLock(perm != Permissions.READ_ONLY, pid, tid);
-
-        boolean set = true;
-        while(set) {
-            if (perm == Permissions.READ_ONLY) {
-                set = !lm.addLock(false, pid, tid);
-            } else {
-                set = !lm.addLock(true, pid, tid);
-            }
-        }
+        // blocks (without holding the pool monitor) until the lock is granted
+        lockManager.acquireLock(tid, pid, perm == Permissions.READ_WRITE);
 
         Page p;
         synchronized(this) {
@@ -196,6 +150,9 @@ public class BufferPool {
                 
                 p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
                 pages.put(pid, p);
+                policy.pageAdded(pid);
+            } else {
+                policy.pageHit(pid);
             }
         }
         return p;
@@ -211,8 +168,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        lm.unlock(pid, tid);
+        lockManager.releaseLock(tid, pid);
     }
 
     /**
@@ -226,9 +182,7 @@ public class BufferPool {
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return lm.locked(p, tid);
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -239,26 +193,134 @@ public class BufferPool {
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // some code goes here
-        if(commit)
-        {
+        List<Runnable> actions = commitActions.remove(tid);
+        if (commit) {
             try {
-                flushAllPages();
-                for(PageId pgid : this.lm.tidpgid.get(tid)) {
-                    if (this.pages.containsKey(pgid)) {lm.unlock(pgid, tid);}
+                // NO-FORCE: log the after images instead of writing the pages
+                synchronized(this) {
+                    for (PageId pid : lockManager.getLockedPages(tid)) {
+                        Page p = pages.get(pid);
+                        if (p != null && tid.equals(p.isDirty())) {
+                            long lsn = Database.getLogFile().logWrite(tid, p.getBeforeImage(), p);
+                            recLSNs.putIfAbsent(pid, lsn);
+                            // the committed state is what a later abort must go back to
+                            p.setBeforeImage();
+                            // clean as far as the log goes, but its recLSN
+                            // keeps it due to be written back
+                            p.markDirty(false, null);
+                        }
+                        stolenLSNs.remove(pid);
+                    }
                 }
+                // forced while still holding the locks, so no other
+                // transaction can see these updates before they are durable
+                Database.getLogFile().logCommit(tid);
             } catch (IOException e) {
                 e.printStackTrace();
             }
-        }
-        //release all locks
-        else
-        {
-            for(PageId pgid : this.lm.tidpgid.get(tid)) {
-                if (this.pages.containsKey(pgid)) {lm.unlock(pgid, tid);}
+            if (actions != null) {
+                for (Runnable action : actions)
+                    action.run();
+            }
+        } else {
+            synchronized(this) {
+                // the log rollback restored anything that reached the disk;
+                // the cached copies that never got there go back to their
+                // before image, which may hold committed updates that are
+                // not on disk yet, so it is written out before the copy is
+                // dropped
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    stolenLSNs.remove(pid);
+                    Page p = pages.get(pid);
+                    if (p != null && tid.equals(p.isDirty())) {
+                        try {
+                            Database.getCatalog().getDatabaseFile(pid.getTableId())
+                                .writePage(p.getBeforeImage());
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                        discardPage(pid);
+                    }
+                }
             }
         }
+        lockManager.releaseAllLocks(tid);
+    }
 
+    /**
+     * Run an action when a transaction commits, once its commit record is
+     * durable and before its locks are released.  The actions of a
+     * transaction that aborts are dropped.
+     *
+     * @param tid the transaction
+     * @param action what to run, on the thread that commits
+     */
+    public void runAtCommit(TransactionId tid, Runnable action) {
+        commitActions.computeIfAbsent(tid, k -> Collections.synchronizedList(new ArrayList<>())).add(action);
+    }
+
+    /**
+     * Returns a page as the last transaction to commit a change to it left
+     * it, for a transaction that holds its lock and may have changed it
+     * since: the before image of the cached copy, unless the page was
+     * written out with the changes and read back in, when it comes from
+     * the log.  Pages that are {@link SlotLoggedPage}s are not followed
+     * through the log, so this is only for other kinds of pages.
+     *
+     * @param pid the page, which the caller has read with getPage
+     */
+    public synchronized Page getCommittedImage(PageId pid) throws IOException {
+        Long lsn = stolenLSNs.get(pid);
+        if (lsn != null)
+            return Database.getLogFile().readBeforeImage(lsn);
+        Page p = pages.get(pid);
+        return p != null ? p.getBeforeImage()
+            : Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Log a change to the structure of an index, which a transaction makes
+     * while it holds the locks of the pages involved, as a transaction of
+     * its own that commits at once.  The change then stays if the first
+     * transaction aborts, and the index can release the locks it took just
+     * for the change.  The log's undo of the first transaction stops at
+     * these updates, so pages the first transaction has changed as well
+     * must already have the images logged here as their before images.
+     * <p>
+     * Each image becomes clean and due to be written back, like a page
+     * whose transaction committed, and is cached if the page is not.
+     *
+     * @param images the new committed image of each page changed; the
+     *   before image of each is the page as last committed
+     */
+    public synchronized void logStructureChange(Collection<? extends Page> images) throws IOException {
+        LogFile log = Database.getLogFile();
+        TransactionId sys = new TransactionId();
+        log.logXactionBegin(sys);
+        for (Page image : images) {
+            PageId pid = image.getId();
+            long lsn = log.logWrite(sys, image.getBeforeImage(), image);
+            recLSNs.putIfAbsent(pid, lsn);
+            stolenLSNs.remove(pid);
+            image.setBeforeImage();
+            image.markDirty(false, null);
+        }
+        // forced before any of the pages can be written out
+        log.logSystemCommit(sys);
+        for (Page image : images) {
+            if (!pages.containsKey(image.getId())) {
+                if (pages.size() >= numPages) {
+                    try {
+                        evictPage();
+                    } catch (DbException e) {
+                        // over the limit for now, rather than lose a
+                        // committed page that is not on disk
+                    }
+                }
+                pages.put(image.getId(), image);
+                policy.pageAdded(image.getId());
+            }
+        }
     }
 
     /**
@@ -272,6 +334,8 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Adds the tuple to the table's hash indexes in the catalog, too.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -283,7 +347,10 @@ public class BufferPool {
         // let the specific implementation of the file decide which page to add it
         // to.
 
-        List<Page> dirtypages = file.insertTuple(tid, t);
+        List<Page> dirtypages = new ArrayList<>(file.insertTuple(tid, t));
+        // the tuple now has its RecordId, for the table's hash indexes
+        for (HashIndexFile index : Database.getCatalog().getIndexes(tableId))
+            dirtypages.addAll(index.insertTuple(tid, t));
 
         synchronized(this) {
             for (Page p : dirtypages){
@@ -293,7 +360,8 @@ public class BufferPool {
                 
                 // if page in pool already, done.
                 if(pages.get(p.getId()) != null) {
-                    //replace old page with new one in case addTuple returns a new copy of the page
+                    //replace old page with new one in case addTuple returns a new copy of the page;
+                    //getPage has already reported this access to the policy
                     pages.put(p.getId(), p);
                 }
                 else {
@@ -302,6 +370,7 @@ public class BufferPool {
                     if(pages.size() >= numPages)
                         evictPage();
                     pages.put(p.getId(), p);
+                    policy.pageAdded(p.getId());
                 }
             }
         }
@@ -317,13 +386,19 @@ public class BufferPool {
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
      *
+     * Removes the tuple from the table's hash indexes in the catalog, too.
+     *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-        List<Page> dirtypages = file.deleteTuple(tid, t);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> dirtypages = new ArrayList<>();
+        for (HashIndexFile index : Database.getCatalog().getIndexes(tableId))
+            dirtypages.addAll(index.deleteTuple(tid, t));
+        dirtypages.addAll(file.deleteTuple(tid, t));
 
         synchronized(this) {
         	for (Page p : dirtypages){
@@ -331,7 +406,8 @@ public class BufferPool {
                     
         		// if page in pool already, done.
         		if(pages.get(p.getId()) != null) {
-        			//replace old page with new one in case deleteTuple returns a new copy of the page
+        			//replace old page with new one in case deleteTuple returns a new copy of the page;
+        			//getPage has already reported this access to the policy
         			pages.put(p.getId(), p);
                 }
         		else {
@@ -340,6 +416,7 @@ public class BufferPool {
         			if(pages.size() >= numPages)
         				evictPage();
                     pages.put(p.getId(), p);
+                    policy.pageAdded(p.getId());
                 }	
         	}   
         }    
@@ -368,6 +445,41 @@ public class BufferPool {
         Page p = pages.get(pid);
         if (p != null) {
             pages.remove(pid);
+            policy.pageRemoved(pid);
+        }
+        recLSNs.remove(pid);
+        stolenLSNs.remove(pid);
+    }
+
+    /**
+     * @return a copy of the dirty page table: for each cached page with
+     *   logged updates that are not on disk yet, the LSN of the first such
+     *   update record
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<>(recLSNs);
+    }
+
+    /**
+     * Write out the cached pages whose recLSN is older than the given LSN,
+     * so that later checkpoints let recovery start after it.  Each page is
+     * written under its own short hold of the pool monitor, and pages that
+     * a running transaction is still changing are skipped.
+     *
+     * @param lsn the LSN before which no logged update should be left
+     *   unflushed
+     */
+    public void flushPagesBefore(long lsn) throws IOException {
+        for (Map.Entry<PageId, Long> e : getDirtyPageTable().entrySet()) {
+            if (e.getValue() >= lsn)
+                continue;
+            PageId pid = e.getKey();
+            synchronized (this) {
+                Page p = pages.get(pid);
+                TransactionId dirtier = p == null ? null : p.isDirty();
+                if (dirtier == null || !lockManager.holdsExclusiveLock(dirtier, pid))
+                    flushPage(pid);
+            }
         }
     }
 
@@ -381,16 +493,25 @@ public class BufferPool {
         if (p == null)
             return; //not in buffer pool -- doesn't need to be flushed
 
+        // write-ahead: the update record has to be on disk before the page
+        TransactionId dirtier = p.isDirty();
+        if (dirtier != null) {
+            long lsn = Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+            Database.getLogFile().force();
+            if (!(p instanceof SlotLoggedPage))
+                stolenLSNs.putIfAbsent(pid, lsn);
+        }
+
         DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
         file.writePage(p);
         p.markDirty(false, null);
+        recLSNs.remove(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        for (PageId pgid : lm.tidpgid.get(tid)) {
+        for (PageId pgid : lockManager.getLockedPages(tid)) {
             flushPage(pgid);
         }
     }
@@ -398,37 +519,21 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Dirty pages of running transactions may be chosen (STEAL); flushPage
+     * logs their before image first so that the write can be undone.
      */
     private synchronized  void evictPage() throws DbException {
-        // pick a random page and flush it.
-        // XXX this will work for lab1, but not for lab4.
-        // XXX this can cause pages to be evicted that have uncommitted updates on them
-        Object[] pids = pages.keySet().toArray();
-        PageId pid = (PageId) pids[random.nextInt(pids.length)];
+        PageId pid = policy.chooseVictim(pages::containsKey);
+        if (pid == null) {
+            throw new DbException("No buffer pool page can be evicted");
+        }
         try {
-            Page p = pages.get(pid);
-            if (p.isDirty() != null) { //if this is dirty, remove first non-dirty
-                boolean gotNew = false;
-                for (PageId pg : pages.keySet()) {
-                    if (pages.get(pg).isDirty() == null) {
-                        pid = pg;
-                        gotNew = true;
-                        break;
-                    }
-                }
-                if (!gotNew) {
-                    throw new DbException("All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
-                }
-            }
-            //XXX: The above code makes sure page is not dirty. 
-            //Assuming we have FORCE, Why do we flush it to disk?
-            //Answer: yes we don't need this if we have FORCE, but we do need it if we don't.
-            //it doesn't hurt to keep it here.            
             flushPage(pid);
         } catch (IOException e) {
             throw new DbException("could not evict page");
         }
         pages.remove(pid);
+        policy.pageRemoved(pid);
     }
 
 }
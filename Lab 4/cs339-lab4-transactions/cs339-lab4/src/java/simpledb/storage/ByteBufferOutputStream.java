@@ -0,0 +1,23 @@
+package simpledb.storage;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An OutputStream that writes into the remaining bytes of a ByteBuffer.
+ */
+class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buf;
+
+    public ByteBufferOutputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public void write(int b) {
+        buf.put((byte) b);
+    }
+
+    public void write(byte[] b, int off, int len) {
+        buf.put(b, off, len);
+    }
+}
@@ -0,0 +1,87 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement.  Resident pages sit in a ring of frames,
+ * each with a reference bit that is set on every hit.  The clock hand sweeps
+ * the ring, clearing reference bits, and stops at the first evictable page
+ * whose bit is already clear.  Hits cost a single bit write and victim
+ * selection is amortized O(1).
+ */
+public class ClockEvictionPolicy extends AbstractEvictionPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final Map<PageId, Integer> frameOf = new HashMap<>();
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    private int hand = 0;
+
+    /**
+     * @param capacity the number of pages the owning BufferPool may hold
+     */
+    public ClockEvictionPolicy(int capacity) {
+        frames = new PageId[Math.max(capacity, 1)];
+        referenced = new boolean[frames.length];
+        for (int i = 0; i < frames.length; i++)
+            freeFrames.add(i);
+    }
+
+    protected void accessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame != null)
+            referenced[frame] = true;
+    }
+
+    protected void admitted(PageId pid) {
+        if (frameOf.containsKey(pid)) {
+            accessed(pid);
+            return;
+        }
+        if (freeFrames.isEmpty())
+            grow();
+        int frame = freeFrames.poll();
+        frames[frame] = pid;
+        referenced[frame] = true;
+        frameOf.put(pid, frame);
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.add(frame);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        // two full sweeps clear every reference bit, so if nothing turns up by
+        // then every resident page must be unevictable
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            PageId pid = frames[frame];
+            if (pid == null)
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+
+    // the pool can briefly hold more pages than its nominal size when an
+    // insert hands back several dirty pages at once
+    private void grow() {
+        int old = frames.length;
+        frames = Arrays.copyOf(frames, old * 2);
+        referenced = Arrays.copyOf(referenced, old * 2);
+        for (int i = old; i < frames.length; i++)
+            freeFrames.add(i);
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapFile whose pages are {@link CompressedPage}s, which store each
+ * column dictionary encoded (strings) or bit-packed or run-length encoded
+ * (ints).  It suits tables with few distinct strings or narrow, sorted or
+ * repetitive ints: many more tuples fit on a page, both on disk and in the
+ * buffer pool, and a {@link simpledb.execution.Filter} over a scan of the
+ * table compares a string predicate against each page's dictionary rather
+ * than against every tuple ({@link #iterator(simpledb.transaction.TransactionId,
+ * simpledb.execution.Predicate)}).  Everything but the page format is the
+ * same as for a HeapFile.
+ * <p>
+ * Use {@link HeapFileEncoder#convertCompressed} to build one from a text
+ * file, or add {@code compressed} after a table's columns in the catalog.
+ *
+ * @see CompressedPage
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file,
+     * optionally reading its pages through a memory mapping of the file.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public CompressedHeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        super(f, td, memoryMapped);
+    }
+
+    @Override
+    protected TuplePage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new CompressedPage(id, data);
+    }
+}
@@ -0,0 +1,710 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * Each instance of CompressedPage stores data for one page of a
+ * {@link CompressedHeapFile}, compressing each column of the page on its
+ * own.  A string column is stored as a dictionary of the distinct strings
+ * on the page and, for each slot, the bit-packed code of its string in the
+ * dictionary.  An int column is stored either bit-packed, as the column's
+ * minimum and each value's difference from it in as few bits as the
+ * largest difference needs, or run-length encoded, whichever is smaller.
+ * <p>
+ * In memory a page keeps each column decoded into an int array of values
+ * or codes, so a tuple costs 4 bytes per column however long its strings
+ * are, and a predicate on a string column is evaluated once per dictionary
+ * entry rather than once per tuple ({@link #iterator(Predicate)}).  The
+ * page bytes are rebuilt when the page is written.
+ * <p>
+ * The page format is: an unsigned short number of slots n; a bitmap of
+ * the slots in use, as in a HeapPage; then each column in turn.  An int
+ * column is a byte saying how it is encoded, then either (packed) an int
+ * minimum, a byte number of bits b and n b-bit values, or (run-length) an
+ * unsigned short number of runs and for each run an int value and an
+ * unsigned short length.  A string column is an unsigned short dictionary
+ * size, each entry as an unsigned short length and its characters, a byte
+ * number of bits b and n b-bit codes.  Bit-packed values are stored least
+ * significant bit first.  A page of all zeroes is an empty page.
+ * <p>
+ * Slots keep their numbers, so RecordIds stay valid.  Deleting a tuple
+ * only clears its bit; the slot's values stay until the slot is reused, so
+ * they do not break up runs, and dictionary entries are never removed.  A
+ * page has at most one slot per byte of page.
+ *
+ * @see CompressedHeapFile
+ */
+public class CompressedPage implements SlotLoggedPage, TuplePage {
+    static final int PACKED = 0;
+    static final int RUN_LENGTH = 1;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+    private final int maxSlots;
+
+    private int numSlots;
+    private boolean[] used;
+    private int[][] values; // per column, the value or dictionary code of each slot
+    private final List<List<StringField>> dictionaries; // null for int columns
+    private final List<Map<String, Integer>> codes; // code of each dictionary entry
+    private final int[] dictBytes; // encoded size of each dictionary's entries
+
+    // statistics of the values (or codes) of every slot, used or not, that
+    // give the encoded size of each column
+    private final int[] min, max, runs;
+
+    private byte[] encoded = null; // the page bytes, until the page changes
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a CompressedPage from a set of bytes of data read from disk, in
+     * the format described above.  The bytes are padded with zeroes if they
+     * are shorter than a page.
+     */
+    public CompressedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+             Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a CompressedPage from the bytes between the position and limit
+     * of a buffer.  The buffer's position is not changed.
+     *
+     * @see #CompressedPage(HeapPageId, byte[])
+     */
+    public CompressedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    // a page of the given table layout decoded from data; data.length is
+    // the page size
+    CompressedPage(HeapPageId id, TupleDesc td, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = data.length;
+        this.maxSlots = Math.min(65535, pageSize);
+        int cols = td.numFields();
+        dictionaries = new ArrayList<>(cols);
+        codes = new ArrayList<>(cols);
+        dictBytes = new int[cols];
+        min = new int[cols];
+        max = new int[cols];
+        runs = new int[cols];
+        for (int j = 0; j < cols; j++) {
+            boolean string = td.getFieldType(j) == Type.STRING_TYPE;
+            dictionaries.add(string ? new ArrayList<>() : null);
+            codes.add(string ? new HashMap<>() : null);
+        }
+        decode(data);
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public CompressedPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        try {
+            return new CompressedPage(pid, td, oldDataRef.clone());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    // number of bits needed for values from 0 to range
+    private static int bitsFor(long range) {
+        return range == 0 ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private int packedSize(int col, int n) {
+        int bits = bitsFor((long) max[col] - min[col]);
+        return 1 + 4 + 1 + (n * bits + 7) / 8;
+    }
+
+    private int runLengthSize(int col) {
+        return 1 + 2 + 6 * runs[col];
+    }
+
+    private int stringColumnSize(int col, int n) {
+        int dictSize = dictionaries.get(col).size();
+        int bits = bitsFor(Math.max(dictSize - 1, 0));
+        return 2 + dictBytes[col] + 1 + (n * bits + 7) / 8;
+    }
+
+    private int columnSize(int col) {
+        if (dictionaries.get(col) != null)
+            return stringColumnSize(col, numSlots);
+        if (numSlots == 0)
+            return 1 + 4 + 1;
+        return Math.min(packedSize(col, numSlots), runLengthSize(col));
+    }
+
+    /**
+     * @return the number of bytes the page takes when encoded
+     */
+    int encodedSize() {
+        int size = 2 + (numSlots + 7) / 8;
+        for (int j = 0; j < td.numFields(); j++)
+            size += columnSize(j);
+        return size;
+    }
+
+    // recompute the statistics of a column from its values
+    private void recomputeStats(int col) {
+        int[] v = values[col];
+        min[col] = Integer.MAX_VALUE;
+        max[col] = Integer.MIN_VALUE;
+        runs[col] = 0;
+        for (int i = 0; i < numSlots; i++) {
+            min[col] = Math.min(min[col], v[i]);
+            max[col] = Math.max(max[col], v[i]);
+            if (i == 0 || v[i] != v[i - 1])
+                runs[col]++;
+        }
+    }
+
+    private void ensureCapacity(int slots) {
+        if (used != null && used.length >= slots)
+            return;
+        int capacity = Math.max(slots, used == null ? 16 : Math.min(maxSlots, used.length * 2));
+        used = used == null ? new boolean[capacity] : Arrays.copyOf(used, capacity);
+        if (values == null)
+            values = new int[td.numFields()][];
+        for (int j = 0; j < values.length; j++)
+            values[j] = values[j] == null ? new int[capacity] : Arrays.copyOf(values[j], capacity);
+    }
+
+    // the dictionary code of s in a column, adding it if it is new
+    private int code(int col, StringField s) {
+        Integer code = codes.get(col).get(s.getValue());
+        if (code == null) {
+            List<StringField> dict = dictionaries.get(col);
+            code = dict.size();
+            dict.add(s);
+            codes.get(col).put(s.getValue(), code);
+            dictBytes[col] += 2 + s.getValue().length();
+        }
+        return code;
+    }
+
+    // set the value of a column in slot i, which is below numSlots; the
+    // minimum and maximum only have to bound the values, but runs must be
+    // exact
+    private void setValue(int col, int i, int v) {
+        int[] vals = values[col];
+        int old = vals[i];
+        if (old == v)
+            return;
+        vals[i] = v;
+        if (i == numSlots - 1) {
+            // the last slot, as when one has just been appended
+            if (i > 0 && old == vals[i - 1])
+                runs[col]++;
+            else if (i > 0 && v == vals[i - 1])
+                runs[col]--;
+            min[col] = Math.min(min[col], v);
+            max[col] = Math.max(max[col], v);
+        } else {
+            recomputeStats(col);
+        }
+    }
+
+    // add a slot at the end, empty, repeating the last values so that runs
+    // are not broken up
+    private void appendSlot() {
+        ensureCapacity(numSlots + 1);
+        int i = numSlots++;
+        used[i] = false;
+        for (int j = 0; j < values.length; j++) {
+            int v = i == 0 ? 0 : values[j][i - 1];
+            values[j][i] = v;
+            if (i == 0) {
+                min[j] = max[j] = v;
+                runs[j] = 1;
+            }
+        }
+    }
+
+    private void decode(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int n = in.getChar();
+        if (n > maxSlots)
+            throw new IOException("page " + pid + " has " + n + " slots");
+        numSlots = n;
+        ensureCapacity(Math.max(n, 1));
+        for (int i = 0; i < n; i++)
+            used[i] = (data[2 + i / 8] & (1 << (i % 8))) != 0;
+        in.position(2 + (n + 7) / 8);
+        for (int j = 0; j < td.numFields(); j++) {
+            int[] v = values[j];
+            if (dictionaries.get(j) != null) {
+                int dictSize = in.getChar();
+                for (int k = 0; k < dictSize; k++) {
+                    byte[] s = new byte[in.getChar()];
+                    in.get(s);
+                    code(j, new StringField(new String(s), Type.STRING_LEN));
+                }
+                unpack(in, v, n, in.get(), 0);
+            } else if (in.get() == PACKED) {
+                int base = in.getInt();
+                unpack(in, v, n, in.get(), base);
+            } else {
+                int numRuns = in.getChar();
+                int i = 0;
+                for (int r = 0; r < numRuns; r++) {
+                    int value = in.getInt();
+                    int length = in.getChar();
+                    Arrays.fill(v, i, i + length, value);
+                    i += length;
+                }
+            }
+            recomputeStats(j);
+        }
+    }
+
+    private static void unpack(ByteBuffer in, int[] v, int n, int bits, int base) {
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            while (accBits < bits) {
+                acc |= (long) (in.get() & 0xFF) << accBits;
+                accBits += 8;
+            }
+            long mask = bits == 64 ? -1L : (1L << bits) - 1;
+            v[i] = (int) (base + (acc & mask));
+            acc >>>= bits;
+            accBits -= bits;
+        }
+    }
+
+    private static void pack(ByteBuffer out, int[] v, int n, int bits, int base) {
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; i++) {
+            acc |= ((long) v[i] - base) << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                out.put((byte) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+        if (accBits > 0)
+            out.put((byte) acc);
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the CompressedPage constructor and
+     * have it produce an identical CompressedPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return encode().clone();
+    }
+
+    public void writePageData(ByteBuffer dst) {
+        dst.put(encode());
+    }
+
+    public int getPageDataSize() {
+        return pageSize;
+    }
+
+    public ByteBuffer pageBuffer() {
+        return ByteBuffer.wrap(encode()).asReadOnlyBuffer();
+    }
+
+    // the page bytes, encoding them if the page has changed since they were
+    private byte[] encode() {
+        if (encoded != null)
+            return encoded;
+        byte[] data = new byte[pageSize];
+        ByteBuffer out = ByteBuffer.wrap(data);
+        int n = numSlots;
+        out.putChar((char) n);
+        for (int i = 0; i < n; i++) {
+            if (used[i])
+                data[2 + i / 8] |= 1 << (i % 8);
+        }
+        out.position(2 + (n + 7) / 8);
+        for (int j = 0; j < td.numFields(); j++) {
+            int[] v = values[j];
+            List<StringField> dict = dictionaries.get(j);
+            if (dict != null) {
+                out.putChar((char) dict.size());
+                for (StringField s : dict) {
+                    String value = s.getValue();
+                    out.putChar((char) value.length());
+                    for (int k = 0; k < value.length(); k++)
+                        out.put((byte) value.charAt(k));
+                }
+                int bits = bitsFor(Math.max(dict.size() - 1, 0));
+                out.put((byte) bits);
+                pack(out, v, n, bits, 0);
+            } else if (n == 0 || packedSize(j, n) <= runLengthSize(j)) {
+                int base = n == 0 ? 0 : min[j];
+                int bits = n == 0 ? 0 : bitsFor((long) max[j] - min[j]);
+                out.put((byte) PACKED);
+                out.putInt(base);
+                out.put((byte) bits);
+                pack(out, v, n, bits, base);
+            } else {
+                out.put((byte) RUN_LENGTH);
+                out.putChar((char) runs[j]);
+                for (int i = 0; i < n; ) {
+                    int start = i;
+                    while (i < n && v[i] == v[start])
+                        i++;
+                    out.putInt(v[start]);
+                    out.putChar((char) (i - start));
+                }
+            }
+        }
+        encoded = data;
+        return data;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (used[i])
+                count++;
+        return count;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++)
+            if (!used[i])
+                return i;
+        return numSlots;
+    }
+
+    /**
+     * Returns true if there is room for any tuple of this page's table: if
+     * the page would still fit with a new slot, a new dictionary entry of
+     * the longest string in every string column, and int columns at their
+     * worst (32-bit values, or runs broken up).
+     */
+    public boolean hasRoom() {
+        int slot = firstEmptySlot();
+        if (slot >= maxSlots)
+            return false;
+        int n = Math.max(numSlots, slot + 1);
+        int size = 2 + (n + 7) / 8;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (dictionaries.get(j) != null) {
+                int dictSize = dictionaries.get(j).size() + 1;
+                int bits = bitsFor(dictSize - 1);
+                size += 2 + dictBytes[j] + 2 + Type.STRING_LEN + 1 + (n * bits + 7) / 8;
+            } else {
+                size += Math.min(1 + 4 + 1 + 4 * n, runLengthSize(j) + 12);
+            }
+        }
+        return size <= pageSize;
+    }
+
+    /**
+     * Put a tuple's values in slot i, undoing it if the page no longer fits.
+     *
+     * @return false if the page would not fit
+     */
+    private boolean place(int i, Field[] fields) {
+        int n = numSlots;
+        int[] dictSizes = new int[fields.length];
+        int[] oldValues = new int[fields.length];
+        int[] oldMin = min.clone(), oldMax = max.clone(), oldRuns = runs.clone();
+        int[] oldDictBytes = dictBytes.clone();
+        while (numSlots <= i)
+            appendSlot();
+        for (int j = 0; j < fields.length; j++) {
+            oldValues[j] = values[j][i];
+            List<StringField> dict = dictionaries.get(j);
+            if (dict != null) {
+                dictSizes[j] = dict.size();
+                setValue(j, i, code(j, (StringField) fields[j]));
+            } else {
+                setValue(j, i, ((IntField) fields[j]).getValue());
+            }
+        }
+        if (encodedSize() <= pageSize) {
+            used[i] = true;
+            encoded = null;
+            return true;
+        }
+
+        // undo
+        for (int j = 0; j < fields.length; j++) {
+            values[j][i] = oldValues[j];
+            List<StringField> dict = dictionaries.get(j);
+            if (dict != null) {
+                while (dict.size() > dictSizes[j])
+                    codes.get(j).remove(dict.remove(dict.size() - 1).getValue());
+            }
+        }
+        numSlots = n;
+        System.arraycopy(oldMin, 0, min, 0, min.length);
+        System.arraycopy(oldMax, 0, max, 0, max.length);
+        System.arraycopy(oldRuns, 0, runs, 0, runs.length);
+        System.arraycopy(oldDictBytes, 0, dictBytes, 0, dictBytes.length);
+        return false;
+    }
+
+    private Field[] fieldsOf(Tuple t) {
+        Field[] fields = new Field[td.numFields()];
+        for (int j = 0; j < fields.length; j++)
+            fields[j] = t.getField(j);
+        return fields;
+    }
+
+    /**
+     * Add a tuple to the first empty slot if it fits on the page.  Used to
+     * fill pages as full as they can be.
+     *
+     * @return false, leaving the page as it was, if it does not fit
+     */
+    boolean tryInsert(Tuple t) {
+        int slot = firstEmptySlot();
+        if (slot >= maxSlots || !place(slot, fieldsOf(t)))
+            return false;
+        t.setRecordId(new RecordId(pid, slot));
+        return true;
+    }
+
+    /**
+     * Delete the specified tuple from the page, leaving its slot empty.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tried to delete null tuple.");
+        setSlotData(rid.getTupleNumber(), null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the tuple does not fit on the page, or
+     *         its tupledesc does not match
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        if (!tryInsert(t))
+            throw new DbException("called addTuple on page with no room for the tuple.");
+        Debug.log(1, "CompressedPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d",
+                  pid.getTableId(), pid.getPageNumber(), t.getRecordId().getTupleNumber());
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the fields of the tuple in slot i in the HeapPage tuple
+     * format, so that a logged slot does not depend on the dictionaries.
+     */
+    public byte[] getSlotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (int j = 0; j < td.numFields(); j++)
+                getField(i, j).serialize(dos);
+            return baos.toByteArray();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Overwrite slot i with a tuple in the form returned by getSlotData, or
+     * empty it, adding empty slots to the page if it has no slot i yet.
+     *
+     * @throws IllegalStateException if the tuple does not fit on the page
+     */
+    public void setSlotData(int i, byte[] slotData) {
+        if (slotData == null) {
+            if (i < numSlots) {
+                used[i] = false;
+                encoded = null;
+            }
+            return;
+        }
+        Field[] fields = new Field[td.numFields()];
+        try {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(slotData));
+            for (int j = 0; j < fields.length; j++)
+                fields[j] = td.getFieldType(j).parse(dis);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("bad slot data for " + pid, e);
+        }
+        if (i >= maxSlots || !place(i, fields))
+            throw new IllegalStateException("no room for slot " + i + " of " + pid);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && used[i];
+    }
+
+    /**
+     * Returns one field of the tuple in a slot.
+     *
+     * @param slot the slot of the tuple; it must be in use
+     * @param col the index of the field
+     */
+    public Field getField(int slot, int col) {
+        List<StringField> dict = dictionaries.get(col);
+        if (dict != null)
+            return dict.get(values[col][slot]);
+        return new IntField(values[col][slot]);
+    }
+
+    @Override
+    public Tuple getTuple(int i) {
+        if (i >= numSlots || !used[i])
+            return null;
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, getField(i, j));
+        return t;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(slot -> true);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that pass a
+     * predicate, evaluated without building the tuples that do not.  On a
+     * string column the predicate is applied once to each dictionary
+     * entry, and then tuples are matched by their codes; on an int column
+     * it is applied to the int values.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        int col = p.getField();
+        int[] v = values[col];
+        List<StringField> dict = dictionaries.get(col);
+        if (dict == null)
+            return iterator(slot -> p.filterInt(v[slot]));
+        boolean[] passes = p.filterDictionary(dict);
+        boolean any = false;
+        for (boolean b : passes)
+            any |= b;
+        if (!any)
+            return Collections.emptyIterator();
+        return iterator(slot -> passes[v[slot]]);
+    }
+
+    private interface SlotFilter {
+        boolean passes(int slot);
+    }
+
+    private Iterator<Tuple> iterator(SlotFilter filter) {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !(used[from] && filter.passes(from)))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = getTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+}
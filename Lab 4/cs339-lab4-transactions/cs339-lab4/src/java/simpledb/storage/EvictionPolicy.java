@@ -0,0 +1,60 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the BufferPool should give up
+ * when it needs a free slot.  The BufferPool tells the policy about every
+ * page it admits, every hit on a resident page and every page it drops, and
+ * asks it for a victim on a miss when the pool is full.
+ * <p>
+ * The pool has no notion of pinned pages.  It passes every resident page
+ * as evictable, dirty ones too since it is STEAL, and an operator holding
+ * a page it got from the pool keeps using its copy if the page is evicted.
+ * <p>
+ * Implementations are not thread safe on their own; the BufferPool only
+ * calls into its policy while holding its own monitor.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a page that is already resident in the pool is requested.
+     *
+     * @param pid the id of the page that was hit
+     */
+    void pageHit(PageId pid);
+
+    /**
+     * Called when a page is brought into the pool (a miss).
+     *
+     * @param pid the id of the page that was admitted
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called when a page leaves the pool, either because it was chosen as a
+     * victim or because it was discarded.
+     *
+     * @param pid the id of the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose a resident page to evict.  The policy must skip over pages for
+     * which <tt>evictable</tt> returns false (dirty pages under NO STEAL,
+     * for example) and must not remove the victim from its own bookkeeping;
+     * the BufferPool calls {@link #pageRemoved} once the page is gone.
+     *
+     * @param evictable test for whether a resident page may be evicted
+     * @return the id of the page to evict, or null if no page qualifies
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /** @return the number of requests that found their page resident */
+    long getHits();
+
+    /** @return the number of pages that had to be brought into the pool */
+    long getMisses();
+}
@@ -0,0 +1,98 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * The free-space map of a HeapFile: one bit per page, set unless the page
+ * is known to be full.  It is only a hint -- the bit of a page that has not
+ * been seen since the map was created is set, and a page is always checked
+ * for room after it has been locked -- so it does not have to be logged or
+ * kept exactly in step with the pages on disk.
+ * <p>
+ * The map is kept in memory, and the byte holding a page's bit is written
+ * to a file next to the table file whenever the page is written, so that
+ * the next time the table is opened inserts do not have to look at full
+ * pages again.  Bit i of the file is bit (i % 8) of byte i / 8.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+
+    private final File file;
+    private final BitSet hasSpace; // protected by this
+    private int known; // pages covered by the map file when it was loaded
+    private FileChannel channel = null; // protected by this
+
+    /**
+     * Load the map persisted for a table, or start an empty one.
+     *
+     * @param file the file the map is kept in
+     */
+    FreeSpaceMap(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            byte[] bits = Files.readAllBytes(file.toPath());
+            hasSpace = BitSet.valueOf(bits);
+            known = bits.length * 8;
+        } else {
+            hasSpace = new BitSet();
+            known = 0;
+        }
+    }
+
+    /**
+     * @return the first page at or after from, wrapping around to page 0,
+     *   that may have a free slot, or -1 if every page is known to be full
+     * @param numPages the number of pages in the table
+     */
+    synchronized int find(int from, int numPages) {
+        cover(numPages);
+        if (from >= numPages)
+            from = 0;
+        int page = hasSpace.nextSetBit(from);
+        if (page < 0 || page >= numPages) {
+            page = hasSpace.nextSetBit(0);
+            if (page >= from || page >= numPages)
+                page = -1;
+        }
+        return page;
+    }
+
+    /** Record whether a page has a free slot, in memory only. */
+    synchronized void update(int page, boolean space) {
+        cover(page + 1);
+        hasSpace.set(page, space);
+    }
+
+    // pages the map has never seen might have room
+    private void cover(int numPages) {
+        if (known < numPages) {
+            hasSpace.set(known, numPages);
+            known = numPages;
+        }
+    }
+
+    /** Record whether a page has a free slot, and write it to the map file. */
+    synchronized void persist(int page, boolean space) throws IOException {
+        update(page, space);
+        if (channel == null)
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int base = page & ~7;
+        byte b = 0;
+        for (int i = 0; i < 8; i++) {
+            // pages not seen yet are stored as possibly having room
+            if (base + i >= known || hasSpace.get(base + i))
+                b |= 1 << i;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(new byte[]{b});
+        while (buf.hasRemaining())
+            channel.write(buf, page / 8);
+    }
+}
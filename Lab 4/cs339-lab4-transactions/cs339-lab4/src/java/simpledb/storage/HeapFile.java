@@ -4,10 +4,16 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -16,6 +22,19 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * All page reads and writes go through one FileChannel that stays open for
+ * the life of the HeapFile, using positional reads and writes, so readers
+ * of different pages do not contend with each other.
+ * <p>
+ * A HeapFile can instead be memory mapped, for read-mostly tables.  Pages
+ * are then read straight out of mapped segments of the file, without a
+ * system call or a copy into a page buffer, and the segment at the end of
+ * the file is remapped when the file grows.  Writes still go through the
+ * channel; the mapping sees them since both share the OS page cache.
+ * <p>
+ * Subclasses can store their tuples in another page format by overriding
+ * {@link #newPage}; everything else about the file stays the same.
  * 
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -25,8 +44,19 @@ public class HeapFile implements DbFile {
     private final File f;
     private final TupleDesc td;
     private final int tableid ;
-    // a hack to remember the last page that had a free slot
-    private volatile int lastEmptyPage = -1;
+    // the last page a tuple was inserted into, where the search for a free
+    // slot starts
+    private volatile int lastEmptyPage = 0;
+    private FreeSpaceMap freeSpace = null; // loaded on first use; protected by this
+    // opened on first use; set back to null if it gets closed under us
+    private volatile FileChannel channel = null;
+
+    /** Bytes of the file covered by each memory-mapped segment. */
+    static final int MAP_SEGMENT_BYTES = 1 << 26;
+    private final boolean memoryMapped;
+    // mapped segments by index, each up to the end of the file when it was
+    // mapped; replaced (under this) when a segment has to grow
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -36,9 +66,60 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping of the file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether readPage should read from a memory mapping of f
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.td = td;
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Returns the file the free-space map of a table stored in the given
+     * file is kept in: the same name with the extension .fsm instead of
+     * .dat, or with .fsm added.
+     */
+    public static File freeSpaceMapFile(File f) {
+        String name = f.getName();
+        if (name.endsWith(".dat"))
+            name = name.substring(0, name.length() - 4);
+        return new File(f.getAbsoluteFile().getParentFile(), name + ".fsm");
+    }
+
+    private synchronized FreeSpaceMap freeSpace() throws IOException {
+        if (freeSpace == null)
+            freeSpace = new FreeSpaceMap(freeSpaceMapFile(f));
+        return freeSpace;
+    }
+
+    /**
+     * Build a page of this file from its bytes as read from disk, which may
+     * be a slice of a memory mapping of the file.  A page of all zeroes
+     * must be an empty page, since that is how pages are appended.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    protected TuplePage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
+    /**
+     * @return true if pages of this file are read from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
     }
 
     /**
@@ -50,6 +131,64 @@ public class HeapFile implements DbFile {
         return f;
     }
 
+    // the channel for the backing file, opening it if needed
+    private FileChannel channel() throws IOException {
+        FileChannel c = channel;
+        if (c == null) {
+            synchronized (this) {
+                if (channel == null)
+                    channel = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                c = channel;
+            }
+        }
+        return c;
+    }
+
+    // the mapped bytes of the page at the given offset, as a buffer of one
+    // page; null if the page is not all in the file yet, or crosses a
+    // segment boundary
+    private ByteBuffer mappedPage(long offset, int length) throws IOException {
+        int seg = (int) (offset / MAP_SEGMENT_BYTES);
+        int start = (int) (offset - (long) seg * MAP_SEGMENT_BYTES);
+        if (start + length > MAP_SEGMENT_BYTES)
+            return null;
+        MappedByteBuffer[] mapped = segments;
+        MappedByteBuffer m = seg < mapped.length ? mapped[seg] : null;
+        if (m == null || m.capacity() < start + length) {
+            m = remap(seg, start + length);
+            if (m == null)
+                return null;
+        }
+        ByteBuffer page = m.duplicate();
+        page.position(start).limit(start + length);
+        return page.slice();
+    }
+
+    // map (again) segment seg, if the file is now at least needed bytes
+    // into it
+    private synchronized MappedByteBuffer remap(int seg, int needed) throws IOException {
+        MappedByteBuffer[] mapped = segments;
+        if (seg < mapped.length && mapped[seg] != null && mapped[seg].capacity() >= needed)
+            return mapped[seg];
+        long segStart = (long) seg * MAP_SEGMENT_BYTES;
+        long size = Math.min(MAP_SEGMENT_BYTES, channel().size() - segStart);
+        if (size < needed)
+            return null;
+        MappedByteBuffer m = channel().map(FileChannel.MapMode.READ_ONLY, segStart, size);
+        mapped = Arrays.copyOf(mapped, Math.max(mapped.length, seg + 1));
+        mapped[seg] = m;
+        segments = mapped;
+        return m;
+    }
+
+    // an interrupted thread closes the channel for everyone; forget it so
+    // that the next read or write opens a new one
+    private synchronized void channelClosed(FileChannel c) {
+        if (channel == c)
+            channel = null;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -76,39 +215,78 @@ public class HeapFile implements DbFile {
     public Page readPage(PageId pid) {
         HeapPageId id = (HeapPageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            byte[] pageBuf = new byte[BufferPool.getPageSize()];
-            if (bis.skip((long) id.getPageNumber() * BufferPool.getPageSize()) != (long) id
-                    .getPageNumber() * BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(
-                        "Unable to seek to correct place in heapfile");
-            }
-            int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-            if (retval == -1) {
-                throw new IllegalArgumentException("Read past end of table");
+        if (memoryMapped) {
+            try {
+                ByteBuffer mapped = mappedPage((long) id.getPageNumber() * BufferPool.getPageSize(),
+                        BufferPool.getPageSize());
+                if (mapped != null) {
+                    Debug.log(1, "HeapFile.readPage: mapped page %d", id.getPageNumber());
+                    TuplePage p = newPage(id, mapped);
+                    freeSpace().update(id.getPageNumber(), p.hasRoom());
+                    return p;
+                }
+            } catch (ClosedChannelException e) {
+                channelClosed(channel);
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
             }
-            if (retval < BufferPool.getPageSize()) {
-                throw new IllegalArgumentException("Unable to read "
-                        + BufferPool.getPageSize() + " bytes from heapfile");
+            // not mapped: read it from the channel, which also reports reads
+            // past the end of the file
+        }
+
+        byte[] pageBuf = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(pageBuf);
+        long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+        FileChannel c = null;
+        try {
+            c = channel();
+            while (buf.hasRemaining()) {
+                if (c.read(buf, offset + buf.position()) < 0)
+                    break;
             }
-            Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
-            return new HeapPage(id, pageBuf);
+        } catch (ClosedChannelException e) {
+            channelClosed(c);
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (buf.position() == 0) {
+            throw new IllegalArgumentException("Read past end of table");
+        }
+        if (buf.hasRemaining()) {
+            throw new IllegalArgumentException("Unable to read "
+                    + BufferPool.getPageSize() + " bytes from heapfile");
+        }
+        Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
+        try {
+            // the buffer is not used again, so the page can keep it
+            TuplePage p = newPage(id, ByteBuffer.wrap(pageBuf));
+            freeSpace().update(id.getPageNumber(), p.hasRoom());
+            return p;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        HeapPage p = (HeapPage) page;
+        TuplePage p = (TuplePage) page;
         // System.out.println("Writing back page " + p.getId().pageno());
-        byte[] data = p.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek((long) p.getId().getPageNumber() * BufferPool.getPageSize());
-        rf.write(data);
-        rf.close();
+        write(p.pageBuffer(),
+                (long) p.getId().getPageNumber() * BufferPool.getPageSize());
+        freeSpace().persist(p.getId().getPageNumber(), p.hasRoom());
+    }
+
+    private void write(ByteBuffer buf, long offset) throws IOException {
+        FileChannel c = channel();
+        try {
+            while (buf.hasRemaining())
+                c.write(buf, offset + buf.position());
+        } catch (ClosedChannelException e) {
+            channelClosed(c);
+            throw e;
+        }
     }
 
     /**
@@ -117,7 +295,11 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // XXX: this seems to be rounding it down. isn't that wrong?
         // XXX: (marcua) no - we only ever write full pages
-        return (int) (f.length() / BufferPool.getPageSize());
+        try {
+            return (int) (channel().size() / BufferPool.getPageSize());
+        } catch (IOException e) {
+            return (int) (f.length() / BufferPool.getPageSize());
+        }
     }
 
     // see DbFile.java for javadocs
@@ -125,43 +307,38 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         List<Page> dirtypages = new ArrayList<>();
 
-        // find the first page with a free slot in it
-        int i = 0;
-        if (lastEmptyPage != -1)
-            i = lastEmptyPage;
-        // XXX: Would it not be better to scan from numPages() to 0 since the
-        // last pages are more likely to have empty slots?
-        for (; i < numPages(); i++) {
+        // find a page with a free slot in it.  The free-space map skips the
+        // pages known to be full without locking them; a page it is wrong
+        // about is corrected and skipped, and unlocked again if this
+        // transaction had not locked it before
+        FreeSpaceMap fsm = freeSpace();
+        int i;
+        while ((i = fsm.find(lastEmptyPage, numPages())) != -1) {
             Debug.log(
                     4,
                     "HeapFile.addTuple: checking free slots on page %d of table %d",
                     i, tableid);
             HeapPageId pid = new HeapPageId(tableid, i);
-            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid,
+            boolean locked = Database.getBufferPool().holdsLock(tid, pid);
+            TuplePage p = (TuplePage) Database.getBufferPool().getPage(tid, pid,
                     Permissions.READ_WRITE);
 
             // no empty slots
-            //
-            // think about why we have to invoke releasePage here.
-            // can you think of ways where
-            if (p.getNumEmptySlots() == 0) {
+            if (!p.hasRoom()) {
                 Debug.log(
                         4,
                         "HeapFile.addTuple: no free slots on page %d of table %d",
                         i, tableid);
-
-                // we mistakenly got here through lastEmptyPage, just add a page
-                // XXX we know this isn't very pretty.
-                if (lastEmptyPage != -1) {
-                    lastEmptyPage = -1;
-                    break;
-                }
+                fsm.update(i, false);
+                if (!locked)
+                    Database.getBufferPool().unsafeReleasePage(tid, pid);
                 continue;
             }
-            Debug.log(4, "HeapFile.addTuple: %d free slots in table %d",
-                    p.getNumEmptySlots(), tableid);
+            Debug.log(4, "HeapFile.addTuple: free slots on page %d of table %d",
+                    i, tableid);
             p.insertTuple(t);
-            lastEmptyPage = p.getId().getPageNumber();
+            fsm.update(i, p.hasRoom());
+            lastEmptyPage = i;
             // System.out.println("nfetches = " + nfetches);
             dirtypages.add(p);
             return dirtypages;
@@ -176,11 +353,10 @@ public class HeapFile implements DbFile {
         // data with an empty
         // page, losing the new data.
         synchronized (this) {
-            BufferedOutputStream bw = new BufferedOutputStream(
-                    new FileOutputStream(f, true));
-            byte[] emptyData = HeapPage.createEmptyPageData();
-            bw.write(emptyData);
-            bw.close();
+            int page = numPages();
+            write(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                    (long) page * BufferPool.getPageSize());
+            fsm.persist(page, true);
         }
 
         // by virtue of writing these bits to the HeapFile, it is now visible.
@@ -188,10 +364,11 @@ public class HeapFile implements DbFile {
         // we just created---which is ok, we haven't yet added the tuple.
         // we just need to lock the page before we can add the tuple to it.
 
-        HeapPage p = (HeapPage) Database.getBufferPool()
+        TuplePage p = (TuplePage) Database.getBufferPool()
                 .getPage(tid, new HeapPageId(tableid, numPages() - 1),
                         Permissions.READ_WRITE);
         p.insertTuple(t);
+        fsm.update(p.getId().getPageNumber(), p.hasRoom());
         lastEmptyPage = p.getId().getPageNumber();
         // System.out.println("nfetches = " + nfetches);
         dirtypages.add(p);
@@ -201,11 +378,16 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        HeapPage p = (HeapPage) Database.getBufferPool().getPage(
+        TuplePage p = (TuplePage) Database.getBufferPool().getPage(
                 tid,
                 new HeapPageId(tableid, t.getRecordId().getPageId()
                         .getPageNumber()), Permissions.READ_WRITE);
         p.deleteTuple(t);
+        try {
+            freeSpace().update(p.getId().getPageNumber(), true);
+        } catch (IOException e) {
+            throw new DbException("could not load the free-space map: " + e.getMessage());
+        }
         List<Page> pages = new ArrayList<>();
         pages.add(p);
         return pages;
@@ -213,7 +395,31 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file with only the given
+     * columns, which pages that store values by column (or can read single
+     * fields) produce without decoding the other columns.
+     *
+     * @param columns the indexes of the fields to return, in order
+     * @see TuplePage#iterator(int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(this, tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that pass a
+     * predicate, which each page evaluates itself, so pages that store
+     * encoded values can compare the encodings rather than build tuples.
+     *
+     * @param filter the predicate, on the fields of this file
+     * @see TuplePage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate filter) {
+        return new HeapFileIterator(this, tid, null, filter);
     }
 
 }
@@ -228,10 +434,14 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final HeapFile hf;
+    final int[] columns; // null for all of them
+    final Predicate filter; // null for all tuples
 
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    public HeapFileIterator(HeapFile hf, TransactionId tid, int[] columns, Predicate filter) {
         this.hf = hf;
         this.tid = tid;
+        this.columns = columns;
+        this.filter = filter;
     }
 
     public void open() {
@@ -246,9 +456,12 @@ class HeapFileIterator extends AbstractDbFileIterator {
         while (it == null && curpgno < hf.numPages() - 1) {
             curpgno++;
             HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
-            HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
+            TuplePage curp = (TuplePage) Database.getBufferPool().getPage(tid,
                     curpid, Permissions.READ_ONLY);
-            it = curp.iterator();
+            if (filter != null)
+                it = curp.iterator(filter);
+            else
+                it = columns == null ? curp.iterator() : curp.iterator(columns);
             if (!it.hasNext())
                 it = null;
         }
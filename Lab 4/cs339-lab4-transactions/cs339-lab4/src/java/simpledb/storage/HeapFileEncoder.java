@@ -6,6 +6,7 @@ import simpledb.common.Utility;
 import java.io.*;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -224,4 +225,153 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into the pages of a
+   * {@link SlottedHeapFile}.  The input is read as by
+   * {@link #convert(File, File, int, int, Type[], char)}, one tuple per
+   * line, and each page is filled with as many tuples as fit on it, so a
+   * table of short strings takes far fewer pages than as a HeapFile.
+   *
+   * @see SlottedPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the type of each field of a tuple
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int npages = 0;
+      SlottedPage page = new SlottedPage(new HeapPageId(0, npages), td, new byte[npagebytes]);
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty())
+                  continue;
+              Tuple t = parseTuple(line, td, fieldSeparator);
+              if (t == null)
+                  continue;
+
+              byte[] record = SlottedPage.encodeRecord(t);
+              if (!page.fits(record.length)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new SlottedPage(new HeapPageId(0, npages), td, new byte[npagebytes]);
+              }
+              page.setSlotData(page.getNumSlots(), record);
+          }
+
+          // write the last page, or an empty one if there were no tuples
+          if (page.getNumSlots() > 0 || npages == 0)
+              os.write(page.getPageData());
+      }
+  }
+
+  /** Parse one line of a text table into a tuple, or print it and return
+   * null if it does not have the right number or types of fields. */
+  public static Tuple parseTuple(String line, TupleDesc td, char fieldSeparator) {
+      String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+      if (values.length != td.numFields()) {
+          System.out.println ("BAD LINE : " + line);
+          return null;
+      }
+      Tuple t = new Tuple(td);
+      try {
+          for (int i = 0; i < values.length; i++) {
+              String v = values[i].trim();
+              if (td.getFieldType(i) == Type.INT_TYPE)
+                  t.setField(i, new IntField(Integer.parseInt(v)));
+              else
+                  t.setField(i, new StringField(v, Type.STRING_LEN));
+          }
+      } catch (NumberFormatException e) {
+          System.out.println ("BAD LINE : " + line);
+          return null;
+      }
+      return t;
+  }
+
+  /** Convert the specified input text file into the pages of a
+   * {@link PaxHeapFile}.  The input is read as by
+   * {@link #convert(File, File, int, int, Type[], char)}, and each page
+   * holds the same tuples as it would in a HeapFile, stored by column.
+   *
+   * @see PaxPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the type of each field of a tuple
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File heapFile = File.createTempFile("tempTable", ".dat");
+      heapFile.deleteOnExit();
+      convert(inFile, heapFile, npagebytes, typeAr.length, typeAr, fieldSeparator);
+
+      TupleDesc td = new TupleDesc(typeAr);
+      byte[] page = new byte[npagebytes];
+      try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(heapFile)));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          for (long n = heapFile.length() / npagebytes; n > 0; n--) {
+              is.readFully(page);
+              os.write(PaxPage.fromHeapPageData(td, page));
+          }
+      }
+      heapFile.delete();
+  }
+
+  /** Convert the specified input text file into the pages of a
+   * {@link CompressedHeapFile}.  The input is read as by
+   * {@link #convert(File, File, int, int, Type[], char)}, one tuple per
+   * line, and each page is filled with as many tuples as fit on it once
+   * compressed, so a table of repetitive values takes far fewer pages
+   * than as a HeapFile.
+   *
+   * @see CompressedPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param typeAr the type of each field of a tuple
+   * @param fieldSeparator the character between fields on a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int npages = 0;
+      CompressedPage page = new CompressedPage(new HeapPageId(0, npages), td, new byte[npagebytes]);
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty())
+                  continue;
+              Tuple t = parseTuple(line, td, fieldSeparator);
+              if (t == null)
+                  continue;
+
+              if (!page.tryInsert(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new CompressedPage(new HeapPageId(0, npages), td, new byte[npagebytes]);
+                  if (!page.tryInsert(t))
+                      throw new IOException("tuple does not fit on an empty page: " + line);
+              }
+          }
+
+          // write the last page, or an empty one if there were no tuples
+          if (page.getNumSlots() > 0 || npages == 0)
+              os.write(page.getPageData());
+      }
+  }
 }
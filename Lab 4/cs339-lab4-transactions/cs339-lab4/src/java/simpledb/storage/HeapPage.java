@@ -4,31 +4,43 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage keeps the page in its serialized form and decodes a tuple the
+ * first time it is asked for; {@link #getInt} and {@link #getField} read a
+ * single field without building the tuple at all.  The bytes are shared
+ * with the before image (and, for a page read from a memory-mapped file,
+ * with the mapping) until the page is first changed, when they are copied.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements SlotLoggedPage, TuplePage {
     private volatile boolean dirty = false;
     private volatile TransactionId dirtier = null;
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
+    final int headerSize;
+    final Tuple[] tuples; // decoded tuples, null until asked for
     final int numSlots;
+    private final int[] fieldOffsets; // offset of each field within a tuple
 
-    byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private ByteBuffer data; // the page, header first
+    private boolean shared; // data may be read elsewhere, so copy it before writing
+
+    ByteBuffer oldData;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -42,30 +54,44 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a copy of data, padded with zeroes if it is shorter
+     * than a page.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize()))));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and limit of a
+     * buffer, such as a slice of a memory-mapped table file, without copying
+     * them.  The page copies them the first time it is changed, so the
+     * buffer must not be changed by anyone else while the page is in use.
+     * The buffer's position is not changed.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < BufferPool.getPageSize()) {
+            ByteBuffer padded = ByteBuffer.allocate(BufferPool.getPageSize());
+            padded.put(data.duplicate());
+            padded.clear();
+            data = padded;
+        }
+        this.data = data.slice();
+        this.shared = true;
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
         setBeforeImage();
     }
@@ -97,7 +123,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
+            ByteBuffer oldDataRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
@@ -114,7 +140,9 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        // share the bytes; the next change to the page copies them first
+        oldData = data.asReadOnlyBuffer();
+        shared = true;
         }
     }
 
@@ -125,38 +153,76 @@ public class HeapPage implements Page {
         return pid;
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
+    // offset of slot i in the page
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
+    // the page bytes, copied first if anyone else may be reading them
+    private ByteBuffer writableData() {
+        synchronized (oldDataLock) {
+            if (shared || data.isReadOnly()) {
+                ByteBuffer copy = ByteBuffer.allocate(BufferPool.getPageSize());
+                ByteBuffer src = data.duplicate();
+                src.position(0).limit(BufferPool.getPageSize());
+                copy.put(src);
+                copy.clear();
+                data = copy;
+                shared = false;
             }
-            return null;
+            return data;
         }
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode the tuple in slot slotId from the page bytes.
+     */
+    private Tuple readTuple(int slotId) {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+        for (int j=0; j<td.numFields(); j++)
+            t.setField(j, getField(slotId, j));
+        return t;
+    }
+
+    /**
+     * Read one field of a tuple straight from the page bytes, without
+     * decoding the rest of the tuple.
+     *
+     * @param slot the slot of the tuple; it must be in use
+     * @param col the index of the field
+     * @return the field
+     */
+    public Field getField(int slot, int col) {
+        int offset = slotOffset(slot) + fieldOffsets[col];
+        switch (td.getFieldType(col)) {
+        case INT_TYPE:
+            return new IntField(data.getInt(offset));
+        case STRING_TYPE:
+            int strLen = data.getInt(offset);
+            byte[] bs = new byte[Math.max(0, Math.min(strLen, Type.STRING_LEN))];
+            ByteBuffer src = data.duplicate();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        default:
+            throw new IllegalArgumentException("unknown type " + td.getFieldType(col));
         }
+    }
 
-        return t;
+    /**
+     * Read an integer field of a tuple straight from the page bytes, without
+     * allocating anything.
+     *
+     * @param slot the slot of the tuple; it must be in use
+     * @param col the index of the field, which must be an INT_TYPE field
+     * @return the value of the field
+     */
+    public int getInt(int slot, int col) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        return data.getInt(slotOffset(slot) + fieldOffsets[col]);
     }
 
     /**
@@ -171,64 +237,23 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        pageBuffer().get(bytes);
+        return bytes;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public void writePageData(ByteBuffer dst) {
+        dst.put(pageBuffer());
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public int getPageDataSize() {
+        return BufferPool.getPageSize();
+    }
 
-        return baos.toByteArray();
+    public ByteBuffer pageBuffer() {
+        ByteBuffer page = data.asReadOnlyBuffer();
+        page.position(0).limit(BufferPool.getPageSize());
+        return page;
     }
 
     /**
@@ -258,7 +283,7 @@ public class HeapPage implements Page {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null tuple.");
-        markSlotUsed(rid.getTupleNumber(), false);
+        setSlotData(rid.getTupleNumber(), null);
     }
 
     /**
@@ -284,6 +309,16 @@ public class HeapPage implements Page {
         if (goodSlot == -1)
             throw new DbException("called addTuple on page with no empty slots.");
 
+        ByteBuffer slot = writableData().duplicate();
+        slot.position(slotOffset(goodSlot)).limit(slotOffset(goodSlot) + td.getSize());
+        DataOutputStream dos = new DataOutputStream(new ByteBufferOutputStream(slot));
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+
         markSlotUsed(goodSlot, true);
         Debug.log(1, "HeapPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
         RecordId rid = new RecordId(pid, goodSlot);
@@ -322,13 +357,45 @@ public class HeapPage implements Page {
         return cnt;
     }
 
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public byte[] getSlotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        byte[] bytes = new byte[td.getSize()];
+        ByteBuffer src = data.duplicate();
+        src.position(slotOffset(i));
+        src.get(bytes);
+        return bytes;
+    }
+
+    public void setSlotData(int i, byte[] slotData) {
+        ByteBuffer slot = writableData().duplicate();
+        slot.position(slotOffset(i));
+        if (slotData == null) {
+            // empty slots are all zeroes on disk
+            for (int j=0; j<td.getSize(); j++)
+                slot.put((byte) 0);
+        } else {
+            slot.put(slotData, 0, td.getSize());
+        }
+        markSlotUsed(i, slotData != null);
+        tuples[i] = null;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
         int headerbit = i % 8;
         int headerbyte = (i - headerbit) / 8;
-        return (header[headerbyte] & (1 << headerbit)) != 0;
+        return (data.get(headerbyte) & (1 << headerbit)) != 0;
     }
 
     /**
@@ -339,10 +406,11 @@ public class HeapPage implements Page {
         int headerbyte = (i - headerbit) / 8;
 
         Debug.log(1, "HeapPage.setSlot: setting slot %d to %b", i, value);
+        ByteBuffer header = writableData();
         if(value)
-            header[headerbyte] |= 1 << headerbit;
+            header.put(headerbyte, (byte) (header.get(headerbyte) | 1 << headerbit));
         else
-            header[headerbyte] &= (0xFF ^ (1 << headerbit));
+            header.put(headerbyte, (byte) (header.get(headerbyte) & (0xFF ^ (1 << headerbit))));
     }
 
     /**
@@ -353,9 +421,42 @@ public class HeapPage implements Page {
         return new HeapPageIterator(this);
     }
 
-    // protected method used by the iterator to get the ith tuple
+    /**
+     * Returns an iterator over the tuples on this page that reads only the
+     * given columns from the page bytes, in the given order.
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        TupleDesc projected = td.project(columns);
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(projected);
+                t.setRecordId(new RecordId(pid, next));
+                for (int j = 0; j < columns.length; j++)
+                    t.setField(j, getField(next, columns[j]));
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+
+    // used by the iterator, and by index lookups, to get the ith tuple
     // out of this page
-    Tuple getTuple(int i) throws NoSuchElementException {
+    @Override
+    public Tuple getTuple(int i) throws NoSuchElementException {
 
         if (i >= tuples.length)
             throw new NoSuchElementException();
@@ -367,7 +468,12 @@ public class HeapPage implements Page {
             }
 
             Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+            Tuple t = tuples[i];
+            if (t == null) {
+                t = readTuple(i);
+                tuples[i] = t;
+            }
+            return t;
 
         } catch (ArrayIndexOutOfBoundsException e) {
             throw new NoSuchElementException();
@@ -0,0 +1,135 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K replacement (O'Neil, O'Neil and Weikum).  The victim is the page
+ * whose K-th most recent reference is furthest in the past.  Pages that have
+ * been referenced fewer than K times have an infinite backward K-distance
+ * and are evicted first, least recently used first, which keeps a single
+ * sequential scan from flushing the pages that are genuinely hot.
+ * <p>
+ * As in the paper, the reference history of an evicted page is retained
+ * for a while, so that a hot page that is evicted and soon read again
+ * comes back hot rather than as a page seen once.  The histories of a
+ * bounded number of the most recently evicted pages are kept, rather
+ * than those evicted within a retained information period.  There is no
+ * correlated reference period either: every request counts as a
+ * reference.
+ * <p>
+ * Pages with fewer than K references live in an access-ordered list, so
+ * picking among them is O(1); the rest are kept ordered by their K-th most
+ * recent reference, so a hit on a hot page costs O(log n).
+ */
+public class LRUKEvictionPolicy extends AbstractEvictionPolicy {
+
+    /** Default K; LRU-2 captures most of the benefit in practice. */
+    public static final int DEFAULT_K = 2;
+
+    /** Default number of evicted pages whose history is retained. */
+    public static final int DEFAULT_RETAINED = BufferPool.DEFAULT_PAGES;
+
+    private final int k;
+    private final int retainedLimit;
+    private long clock = 0;
+
+    /** Reference history per resident page, most recent reference first. */
+    private final Map<PageId, long[]> history = new HashMap<>();
+    /** Reference history of recently evicted pages, least recently evicted first. */
+    private final LinkedHashMap<PageId, long[]> retained = new LinkedHashMap<>();
+    /** Pages with fewer than K references, least recently used first. */
+    private final LinkedHashMap<PageId, Boolean> cold = new LinkedHashMap<>(16, 0.75f, true);
+    /** Pages with K or more references, keyed by their K-th most recent reference. */
+    private final TreeMap<Long, PageId> hot = new TreeMap<>();
+
+    public LRUKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references that determine a page's priority
+     */
+    public LRUKEvictionPolicy(int k) {
+        this(k, DEFAULT_RETAINED);
+    }
+
+    /**
+     * @param k the number of past references that determine a page's priority
+     * @param retained the number of evicted pages whose history is kept
+     */
+    public LRUKEvictionPolicy(int k, int retained) {
+        if (k < 1)
+            throw new IllegalArgumentException("K must be at least 1");
+        this.k = k;
+        this.retainedLimit = Math.max(retained, 0);
+    }
+
+    protected void accessed(PageId pid) {
+        long[] refs = history.get(pid);
+        if (refs == null) {
+            admitted(pid);
+            return;
+        }
+        unfile(pid, refs);
+        reference(pid, refs);
+    }
+
+    protected void admitted(PageId pid) {
+        if (history.containsKey(pid)) {
+            accessed(pid);
+            return;
+        }
+        long[] refs = retained.remove(pid);
+        if (refs == null)
+            refs = new long[k];
+        history.put(pid, refs);
+        reference(pid, refs);
+    }
+
+    /** Record a reference to a page, and file it as hot or cold. */
+    private void reference(PageId pid, long[] refs) {
+        System.arraycopy(refs, 0, refs, 1, k - 1);
+        refs[0] = ++clock;
+        if (refs[k - 1] != 0)
+            hot.put(refs[k - 1], pid);
+        else
+            cold.put(pid, Boolean.TRUE);
+    }
+
+    private void unfile(PageId pid, long[] refs) {
+        if (refs[k - 1] != 0)
+            hot.remove(refs[k - 1]);
+        else
+            cold.remove(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        long[] refs = history.remove(pid);
+        if (refs == null)
+            return;
+        unfile(pid, refs);
+        if (retainedLimit == 0)
+            return;
+        retained.put(pid, refs);
+        if (retained.size() > retainedLimit) {
+            Iterator<PageId> oldest = retained.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        // iterate over the key set so that the access-ordered map is not
+        // reordered by the scan
+        for (PageId pid : cold.keySet()) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        for (PageId pid : hot.values()) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -4,9 +4,22 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.HashBucketPage;
+import simpledb.index.HashHeaderPage;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.reflect.*;
 
 /*
@@ -43,40 +56,65 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The file starts with a header of two long integers: the LSN of
+the last written checkpoint, or -1 if there are no checkpoints, and the
+LSN of the first byte of the file.
 
 <li> All additional data in the log consists of log records.  Log
-records are variable length.
-
-<li> Each log record begins with an integer type and a long integer
+records are variable length.  Each record is identified by its log
+sequence number (LSN), which is the position at which it begins counted
+from the start of the log as it was when first created.  The LSN of the
+record at file offset x is therefore x plus the base LSN from the header;
+truncating the log raises the base instead of renumbering records, so
+LSNs only ever grow.
+
+<li> Each log record begins with a byte type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing
+the position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  A page image is a byte
+code for the page class and one for the page id class (see
+{@link #registerPageType}), the number of ints in the serialized page id
+as a byte, those ints, and the page data prefixed with its length.
+
+<li> DELTA records log a change to a {@link SlotLoggedPage} by the
+slots it changed, and are used instead of an UPDATE record once the page
+has had a full image logged since the last checkpoint.  A DELTA record
+holds a page id (id class code, the number of ints, the ints), a count of
+changed slots, and for each one its number and its contents before and
+after the change.  Slot contents are prefixed with their length, which is
+-1 for an empty slot.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first log record on disk, followed by
+the buffer pool's dirty page table.  The format of the record is an
+integer count of the number of transactions, as well as a long integer
+transaction id and a long integer first record LSN for each active
+transaction; then an integer count of dirty pages, and for each one its
+page id (as in a DELTA record) and the long integer LSN of the first
+update to it that may not be on disk (its recLSN).
 
 </ul>
+<p>
+Records are appended to an in-memory buffer and written to the file in
+one positional write when the log is forced, when the buffer fills up,
+or before the log is read back.
 */
 public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
+    private FileChannel channel;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,16 +122,80 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
+    final static int HEADER_SIZE = 2 * LONG_SIZE;
+    /** bytes of record type and tid, plus the trailing LSN */
+    final static int RECORD_OVERHEAD = 1 + 2 * LONG_SIZE;
+
+    /** Default size of the in-memory log buffer, in bytes. */
+    public static final int LOG_BUFFER_SIZE = 64 * 1024;
+
+    /** Page type code meaning the class name follows in the log. */
+    static final byte CLASS_NAME_CODE = 0;
+
+    private static final Map<Class<?>, Byte> typeCodes = new ConcurrentHashMap<>();
+    private static final Map<Byte, Class<?>> pageTypes = new ConcurrentHashMap<>();
+    private static final Map<Byte, Class<?>> idTypes = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<>();
+
+    static {
+        registerPageType(1, HeapPage.class, HeapPageId.class);
+        registerPageType(2, SlottedPage.class, HeapPageId.class);
+        registerPageType(3, PaxPage.class, HeapPageId.class);
+        registerPageType(4, CompressedPage.class, HeapPageId.class);
+        registerPageType(5, BTreeHeaderPage.class, BTreePageId.class);
+        registerPageType(6, BTreeInternalPage.class, BTreePageId.class);
+        registerPageType(7, BTreeLeafPage.class, BTreePageId.class);
+        registerPageType(8, HashHeaderPage.class, HeapPageId.class);
+        registerPageType(9, HashBucketPage.class, HeapPageId.class);
+    }
 
-    long currentOffset = -1;//protected by this
+    long currentOffset = -1;//LSN of the end of the log; protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    private ByteBuffer buffer = ByteBuffer.allocate(LOG_BUFFER_SIZE); //protected by this
+    private long bufferStart = 0; // file offset the buffer will be written at; protected by this
+    private long baseLSN = 0; // LSN of file offset 0; protected by this
+
+    // group commit: committers wait for a flusher thread to force the log
+    // once for a whole batch of commit records.  Commits are numbered in
+    // the order their records are appended, so that a force is known to
+    // cover every commit appended before it started.
+    private final Object commitLock = new Object();
+    private long commitsAppended = 0; //protected by commitLock
+    private long commitsDurable = 0; //protected by commitLock
+    private Thread groupCommitFlusher = null; //protected by commitLock
+    private int maxBatchSize; //protected by commitLock
+    private long maxDelayMicros; //protected by commitLock
+    private long forces = 0; //protected by this
+    private long writes = 0; //protected by this
+
+    // background checkpoints, taken every checkpointMillis or once the log
+    // has grown by checkpointLogBytes
+    private final Object checkpointLock = new Object();
+    private Thread checkpointer = null; //protected by checkpointLock
+    private long checkpointLogBytes; //protected by checkpointLock
+    private long checkpointMillis; //protected by checkpointLock
+    private volatile long checkpointTrigger = Long.MAX_VALUE; // LSN that wakes the checkpointer
+    private long lastCheckpointLSN = NO_CHECKPOINT_ID; //protected by this
+
+    // statistics about the last call to recover()
+    long recoveryMillis = 0; //protected by this
+    int recoveryRecordsReplayed = 0; //protected by this
+
+    // pages that have had a full image logged since the last checkpoint;
+    // later updates to them are logged as deltas
+    private final Set<PageId> imagedPages = new HashSet<>(); //protected by this
+
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    // bytes of UPDATE records per live transaction; read without the
+    // LogFile monitor by the lock manager when it picks deadlock victims
+    final Map<Long,Long> tidToLogBytes = new ConcurrentHashMap<>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -109,6 +211,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        channel = raf.getChannel();
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -122,6 +225,31 @@ public class LogFile {
         // may not match tableids in the current catalog.
     }
 
+    /** Register the classes of a kind of page, so that images of it are
+        logged with a one-byte code rather than with the class names.
+        Pages of unregistered classes can still be logged.  The page class
+        needs a constructor taking its id and the page data, and the id
+        class one taking the ints returned by {@link PageId#serialize}.
+
+        @param code the code to log, from 1 to 127; the same code must be
+        used for the same classes every time the log is opened
+        @param pageClass the page class
+        @param idClass the class of the ids of those pages
+    */
+    public static void registerPageType(int code, Class<? extends Page> pageClass,
+                                        Class<? extends PageId> idClass) {
+        if (code <= CLASS_NAME_CODE || code > Byte.MAX_VALUE)
+            throw new IllegalArgumentException("page type codes must be between 1 and 127");
+        Class<?> old = pageTypes.putIfAbsent((byte) code, pageClass);
+        if (old != null && old != pageClass)
+            throw new IllegalArgumentException("page type code " + code + " is already used by " + old.getName());
+        old = idTypes.putIfAbsent((byte) code, idClass);
+        if (old != null && old != idClass)
+            throw new IllegalArgumentException("page type code " + code + " is already used by " + old.getName());
+        typeCodes.putIfAbsent(pageClass, (byte) code);
+        typeCodes.putIfAbsent(idClass, (byte) code);
+    }
+
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
     // the log.
@@ -129,18 +257,36 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            channel.truncate(0);
+            baseLSN = 0;
+            writeHeader(NO_CHECKPOINT_ID);
+            bufferStart = HEADER_SIZE;
+            buffer.clear();
+            currentOffset = HEADER_SIZE;
         }
     }
 
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
-    
+
+    /** @return the LSN the next log record will get */
+    public synchronized long getCurrentLSN() {
+        return currentOffset;
+    }
+
+    /** @return the number of write calls issued against the log file */
+    public synchronized long getWriteCount() {
+        return writes;
+    }
+
+    /** @return the number of bytes of update records written so far by a
+        live transaction; 0 once it has committed or aborted */
+    public long getLogBytesWritten(TransactionId tid) {
+        Long bytes = tidToLogBytes.get(tid.getId());
+        return bytes == null ? 0 : bytes;
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -160,46 +306,273 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                startRecord(ABORT_RECORD, tid.getId(), 0);
+                endRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLogBytes.remove(tid.getId());
             }
         }
     }
 
-    /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+    /** Write a commit record for a transaction the buffer pool runs to
+        log a change to the structure of an index (see
+        {@link BufferPool#logStructureChange}), and force the log.  The
+        caller holds the buffer pool's monitor, so the force is not left
+        to group commit.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public synchronized void logSystemCommit(TransactionId tid) throws IOException {
         preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        startRecord(COMMIT_RECORD, tid.getId(), 0);
+        endRecord();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToLogBytes.remove(tid.getId());
+        force();
+    }
+
+    /** Write a commit record to disk for the specified tid,
+        and force the log to disk.  With group commit enabled, the caller
+        instead waits for the flusher thread to force the log for a batch
+        of commits that includes this one.
+
+        @param tid The committing transaction.
+    */
+    public void logCommit(TransactionId tid) throws IOException {
+        long commit;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            startRecord(COMMIT_RECORD, tid.getId(), 0);
+            endRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLogBytes.remove(tid.getId());
+            synchronized (commitLock) {
+                commit = ++commitsAppended;
+                if (groupCommitFlusher == null) {
+                    force();
+                    return;
+                }
+                commitLock.notifyAll();
+            }
+        }
+        awaitDurable(commit);
+    }
+
+    // block until the given commit has been covered by a force
+    private void awaitDurable(long commit) throws IOException {
+        boolean interrupted = false;
+        synchronized (commitLock) {
+            while (commitsDurable < commit && groupCommitFlusher != null) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        // group commit was turned off before the flusher got to us
+        if (!isDurable(commit))
+            force();
+    }
+
+    private boolean isDurable(long commit) {
+        synchronized (commitLock) {
+            return commitsDurable >= commit;
+        }
+    }
+
+    /** Turn on group commit.  Commit records are then forced by a
+        background thread, once per batch: a batch is forced as soon as it
+        holds maxBatchSize commits, or maxDelayMicros after its first
+        commit arrived, whichever comes first.  Calling this again changes
+        the settings.
+
+        @param maxBatchSize the number of commits that triggers a force
+        @param maxDelayMicros the longest a commit waits for others to join
+        its batch, in microseconds
+    */
+    public void enableGroupCommit(int maxBatchSize, long maxDelayMicros) {
+        if (maxBatchSize < 1 || maxDelayMicros < 0)
+            throw new IllegalArgumentException("bad group commit settings");
+        synchronized (commitLock) {
+            this.maxBatchSize = maxBatchSize;
+            this.maxDelayMicros = maxDelayMicros;
+            if (groupCommitFlusher == null) {
+                groupCommitFlusher = new Thread(this::flushCommits, "LogFile group commit");
+                groupCommitFlusher.setDaemon(true);
+                groupCommitFlusher.start();
+            }
+            commitLock.notifyAll();
+        }
+    }
+
+    /** Turn off group commit.  Commits still waiting for a batch force
+        the log themselves, and the flusher thread exits once everything
+        it had been given is durable. */
+    public void disableGroupCommit() {
+        synchronized (commitLock) {
+            groupCommitFlusher = null;
+            commitLock.notifyAll();
+        }
+    }
+
+    public boolean isGroupCommitEnabled() {
+        synchronized (commitLock) {
+            return groupCommitFlusher != null;
+        }
+    }
+
+    /** Turn on background checkpoints.  A thread takes a fuzzy checkpoint
+        every intervalMillis, or sooner once the log has grown by
+        maxLogBytes since the last one, and then writes the pages that
+        have been dirty since the checkpoint before it, one at a time, so
+        that recovery and log truncation can move forward.  Calling this
+        again changes the settings.
+
+        @param maxLogBytes the log growth that triggers a checkpoint
+        @param intervalMillis the longest time between checkpoints, in
+        milliseconds
+    */
+    public void enableCheckpointer(long maxLogBytes, long intervalMillis) {
+        if (maxLogBytes < 1 || intervalMillis < 1)
+            throw new IllegalArgumentException("bad checkpointer settings");
+        synchronized (checkpointLock) {
+            this.checkpointLogBytes = maxLogBytes;
+            this.checkpointMillis = intervalMillis;
+            if (checkpointer == null) {
+                checkpointer = new Thread(this::runCheckpoints, "LogFile checkpointer");
+                checkpointer.setDaemon(true);
+                checkpointer.start();
+            }
+            checkpointLock.notifyAll();
+        }
+    }
+
+    /** Turn off background checkpoints.  A checkpoint already under way
+        is finished first by the checkpointer thread, which then exits. */
+    public void disableCheckpointer() {
+        synchronized (checkpointLock) {
+            checkpointer = null;
+            checkpointLock.notifyAll();
+        }
+    }
+
+    public boolean isCheckpointerEnabled() {
+        synchronized (checkpointLock) {
+            return checkpointer != null;
+        }
+    }
+
+    // body of the checkpointer thread
+    private void runCheckpoints() {
+        Thread self = Thread.currentThread();
+        long previous = NO_CHECKPOINT_ID;
+        while (true) {
+            // endRecord takes checkpointLock while holding this, so the
+            // checkpoint LSN is read before taking checkpointLock
+            long last;
+            synchronized (this) {
+                last = lastCheckpointLSN == NO_CHECKPOINT_ID ? currentOffset : lastCheckpointLSN;
+            }
+            synchronized (checkpointLock) {
+                checkpointTrigger = last + checkpointLogBytes;
+                long deadline = System.currentTimeMillis() + checkpointMillis;
+                try {
+                    while (checkpointer == self && checkpointTrigger != Long.MAX_VALUE) {
+                        long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0)
+                            break;
+                        checkpointLock.wait(wait);
+                    }
+                } catch (InterruptedException e) {
+                    // checkpoint now
+                }
+                checkpointTrigger = Long.MAX_VALUE;
+                // stop once disabled, or once the database has been reset
+                // under us
+                if (checkpointer != self || Database.getLogFile() != this)
+                    return;
+            }
+            try {
+                if (previous != NO_CHECKPOINT_ID)
+                    Database.getBufferPool().flushPagesBefore(previous);
+                logCheckpoint();
+                synchronized (this) {
+                    previous = lastCheckpointLSN;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                disableCheckpointer();
+                return;
+            }
+        }
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public synchronized long getForceCount() {
+        return forces;
+    }
+
+    // body of the group commit flusher thread
+    private void flushCommits() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            synchronized (commitLock) {
+                try {
+                    while (groupCommitFlusher == self && commitsAppended == commitsDurable)
+                        commitLock.wait();
+                    // give the batch time to fill up
+                    long deadline = System.nanoTime() + maxDelayMicros * 1000;
+                    while (groupCommitFlusher == self
+                           && commitsAppended - commitsDurable < maxBatchSize) {
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0)
+                            break;
+                        commitLock.wait(wait / 1000000, (int) (wait % 1000000));
+                    }
+                } catch (InterruptedException e) {
+                    // fall through and force what we have
+                }
+                if (commitsAppended == commitsDurable && groupCommitFlusher != self)
+                    return;
+            }
+            try {
+                force();
+            } catch (IOException e) {
+                // the committers will each retry the force themselves
+                e.printStackTrace();
+                disableGroupCommit();
+                return;
+            }
+        }
     }
 
-    /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+
+    /** Write an UPDATE record to the log for the specified tid and page
+        (with provided         before and after images.)  The record is
+        only buffered; it is on disk once the log is forced.
+        <p>
+        If the page is a {@link SlotLoggedPage} whose full image has
+        already been logged since the last checkpoint, a DELTA record with
+        just the slots that differ between the two images is written
+        instead.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the LSN of the new record
 
         @see Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
@@ -207,87 +580,262 @@ public class LogFile {
            transaction id
            before page data (see writePageData)
            after page data
-           start offset
+           start LSN
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        long start = currentOffset;
+        long lsn;
+        if (before instanceof SlotLoggedPage && after instanceof SlotLoggedPage
+            && imagedPages.contains(after.getId())) {
+            lsn = writeDelta(tid, (SlotLoggedPage) before, (SlotLoggedPage) after);
+        } else {
+            startRecord(UPDATE_RECORD, tid.getId(), pageDataSize(before) + pageDataSize(after));
+            writePageData(buffer, before);
+            writePageData(buffer, after);
+            lsn = endRecord();
+            imagedPages.add(after.getId());
+        }
+        tidToLogBytes.merge(tid.getId(), currentOffset - start, Long::sum);
 
         Debug.log("WRITE OFFSET = " + currentOffset);
+        return lsn;
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    private long writeDelta(TransactionId tid, SlotLoggedPage before, SlotLoggedPage after)
+        throws IOException {
+        List<Integer> slots = new ArrayList<>();
+        List<byte[]> befores = new ArrayList<>();
+        List<byte[]> afters = new ArrayList<>();
+        int size = pageIdSize(after.getId()) + INT_SIZE;
+        int n = Math.max(before.getNumSlots(), after.getNumSlots());
+        for (int i = 0; i < n; i++) {
+            byte[] b = before.getSlotData(i);
+            byte[] a = after.getSlotData(i);
+            if (!Arrays.equals(b, a)) {
+                slots.add(i);
+                befores.add(b);
+                afters.add(a);
+                size += 3 * INT_SIZE + (b == null ? 0 : b.length) + (a == null ? 0 : a.length);
+            }
+        }
+
+        startRecord(DELTA_RECORD, tid.getId(), size);
+        writePageId(buffer, after.getId());
+        buffer.putInt(slots.size());
+        for (int i = 0; i < slots.size(); i++) {
+            buffer.putInt(slots.get(i));
+            writeSlot(befores.get(i));
+            writeSlot(afters.get(i));
+        }
+        return endRecord();
+    }
+
+    private void writeSlot(byte[] data) {
+        if (data == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(data.length);
+            buffer.put(data);
+        }
+    }
+
+    private static byte[] readSlot(LogReader in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    // install one side of a DELTA record (positioned just after its tid)
+    // on the page as it is on disk, leaving the reader after the record.
+    // Slots are emptied before any are filled, so that on pages whose
+    // records vary in size there is room for the records put back
+    private void applyDelta(LogReader in, boolean redo) throws IOException {
+        PageId pid = readPageId(in);
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        SlotLoggedPage page = (SlotLoggedPage) file.readPage(pid);
+        int numSlots = in.readInt();
+        Map<Integer, byte[]> filled = new LinkedHashMap<>();
+        while (numSlots-- > 0) {
+            int slot = in.readInt();
+            byte[] before = readSlot(in);
+            byte[] after = readSlot(in);
+            page.setSlotData(slot, null);
+            if ((redo ? after : before) != null)
+                filled.put(slot, redo ? after : before);
+        }
+        for (Map.Entry<Integer, byte[]> e : filled.entrySet())
+            page.setSlotData(e.getKey(), e.getValue());
+        in.readLong();
+        installPage(page);
+    }
+
+    private void skipDelta(LogReader in) throws IOException {
+        skipPageId(in);
+        int numSlots = in.readInt();
+        while (numSlots-- > 0) {
+            in.readInt();
+            in.skip(Math.max(in.readInt(), 0));
+            in.skip(Math.max(in.readInt(), 0));
+        }
+    }
+
+    // number of bytes writePageData needs for a page
+    static int pageDataSize(Page p) {
+        return typeSize(p.getClass()) + pageIdSize(p.getId())
+            + INT_SIZE + p.getPageDataSize();
+    }
+
+    static int pageIdSize(PageId pid) {
+        return typeSize(pid.getClass()) + 1 + pid.serialize().length * INT_SIZE;
+    }
 
+    private static int typeSize(Class<?> c) {
+        if (typeCodes.containsKey(c))
+            return 1;
+        return 1 + 2 + c.getName().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    void writePageData(ByteBuffer buf, Page p) {
         //page data is:
-        // page class name
-        // id class name
-        // id class bytes
+        // page class code (and name, if it has no code)
+        // id class code (and name)
+        // id class ints
         // id class data
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writeType(buf, p.getClass());
+        writePageId(buf, p.getId());
+        buf.putInt(p.getPageDataSize());
+        p.writePageData(buf);
+    }
 
-        raf.writeInt(pageInfo.length);
+    static void writePageId(ByteBuffer buf, PageId pid) {
+        int[] pageInfo = pid.serialize();
+        writeType(buf, pid.getClass());
+        buf.put((byte) pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            buf.putInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
+    PageId readPageId(LogReader in) throws IOException {
         try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            Class<?> idClass = readType(in, idTypes);
+            int numIdArgs = in.readByte();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+                idArgs[i] = in.readInt();
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            return (PageId) constructorFor(idClass, numIdArgs).newInstance(idArgs);
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+            e.printStackTrace();
+            throw new IOException(e);
+        }
+    }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+    // read the page id of a page image, leaving the reader just after it
+    PageId readPageIdOfImage(LogReader in) throws IOException {
+        if (in.readByte() == CLASS_NAME_CODE)
+            in.readUTF();
+        return readPageId(in);
+    }
+
+    void skipPageId(LogReader in) throws IOException {
+        if (in.readByte() == CLASS_NAME_CODE)
+            in.readUTF();
+        int numIdArgs = in.readByte();
+        in.skip((long) numIdArgs * INT_SIZE);
+    }
+
+    private static void writeType(ByteBuffer buf, Class<?> c) {
+        Byte code = typeCodes.get(c);
+        if (code != null) {
+            buf.put(code);
+        } else {
+            byte[] name = c.getName().getBytes(StandardCharsets.UTF_8);
+            buf.put(CLASS_NAME_CODE);
+            buf.putShort((short) name.length);
+            buf.put(name);
+        }
+    }
+
+    Page readPageData(LogReader in) throws IOException {
+        PageId pid;
+        Page newPage = null;
+
+        try {
+            Class<?> pageClass = readType(in, pageTypes);
+            pid = readPageId(in);
+
+            int pageSize = in.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            in.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) constructorFor(pageClass, -1).newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
-            throw new IOException();
+            throw new IOException(e);
         }
         return newPage;
 
     }
 
+    private static Class<?> readType(LogReader in, Map<Byte, Class<?>> types)
+        throws IOException, ClassNotFoundException {
+        byte code = in.readByte();
+        if (code == CLASS_NAME_CODE)
+            return Class.forName(in.readUTF());
+        Class<?> c = types.get(code);
+        if (c == null)
+            throw new IOException("unknown page type code " + code + " in log");
+        return c;
+    }
+
+    // the page id constructor taking numInts ints, or (if numInts is
+    // negative) the page constructor taking an id and the page data
+    private static Constructor<?> constructorFor(Class<?> c, int numInts) throws IOException {
+        Constructor<?> cons = constructors.get(c);
+        if (cons != null)
+            return cons;
+        for (Constructor<?> candidate : c.getDeclaredConstructors()) {
+            Class<?>[] params = candidate.getParameterTypes();
+            boolean matches;
+            if (numInts < 0) {
+                matches = params.length == 2 && PageId.class.isAssignableFrom(params[0])
+                    && params[1] == byte[].class;
+            } else {
+                matches = params.length == numInts;
+                for (Class<?> param : params)
+                    matches &= param == int.class;
+            }
+            if (matches) {
+                candidate.setAccessible(true);
+                constructors.put(c, candidate);
+                return candidate;
+            }
+        }
+        throw new IOException("no constructor to rebuild a " + c.getName() + " from the log");
+    }
+
+    // like readPageData, but without building the page
+    void skipPageData(LogReader in) throws IOException {
+        if (in.readByte() == CLASS_NAME_CODE)
+            in.readUTF();
+        skipPageId(in);
+        int pageSize = in.readInt();
+        in.skip(pageSize);
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -300,49 +848,57 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        startRecord(BEGIN_RECORD, tid.getId(), 0);
+        tidToFirstLogRecord.put(tid.getId(), endRecord());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Write a fuzzy checkpoint record and truncate the log.  The
+        record holds the active transactions and the buffer pool's dirty
+        page table; no data pages are written, so both monitors are only
+        held for as long as it takes to append the record and force the
+        log.  Pages that stay dirty across checkpoints are written by the
+        background checkpointer (see {@link #enableCheckpointer}), or by
+        {@link BufferPool#flushPagesBefore}.
+    */
     public void logCheckpoint() throws IOException {
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
+                //Debug.log("CHECKPOINT, offset = " + currentOffset);
                 preAppend();
-                long startCpOffset, endCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
+                Map<PageId, Long> dirtyPages = Database.getBufferPool().getDirtyPageTable();
+
+                //write list of outstanding transactions and dirty pages
+                int size = INT_SIZE + keys.size() * 2 * LONG_SIZE + INT_SIZE;
+                for (PageId pid : dirtyPages.keySet())
+                    size += pageIdSize(pid) + LONG_SIZE;
+                startRecord(CHECKPOINT_RECORD, -1, //no tid , but leave space for convenience
+                            size);
+                buffer.putInt(keys.size());
+                for (Long key : keys) {
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    buffer.putLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    buffer.putLong(tidToFirstLogRecord.get(key));
                 }
+                buffer.putInt(dirtyPages.size());
+                for (Map.Entry<PageId, Long> e : dirtyPages.entrySet()) {
+                    writePageId(buffer, e.getKey());
+                    buffer.putLong(e.getValue());
+                }
+                long cpLSN = endRecord();
+                // the next update to each page logs a full image again
+                imagedPages.clear();
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                force();
+                writeHeader(cpLSN);
+                channel.force(true);
+                lastCheckpointLSN = cpLSN;
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -350,99 +906,89 @@ public class LogFile {
         logTruncate();
     }
 
+    // read the body of a checkpoint record (positioned just after its tid):
+    // the active transactions go into activeXactions and the dirty pages
+    // into dirtyPages, if those are not null
+    private void readCheckpoint(LogReader in, Map<Long, Long> activeXactions,
+                                Map<PageId, Long> dirtyPages) throws IOException {
+        int numXactions = in.readInt();
+        while (numXactions-- > 0) {
+            long xid = in.readLong();
+            long first = in.readLong();
+            if (activeXactions != null)
+                activeXactions.put(xid, first);
+        }
+        int numPages = in.readInt();
+        while (numPages-- > 0) {
+            if (dirtyPages != null) {
+                PageId pid = readPageId(in);
+                dirtyPages.put(pid, in.readLong());
+            } else {
+                skipPageId(in);
+                in.readLong();
+            }
+        }
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        flushBuffer();
+        LogReader in = reader();
+        long cpLoc = in.readLong();
+        if (cpLoc == NO_CHECKPOINT_ID)
+            return;
 
         long minLogRecord = cpLoc;
+        in.seek(cpLoc - baseLSN);
+        int cpType = in.readByte();
+        @SuppressWarnings("unused")
+        long cpTid = in.readLong();
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
-            }
+        // keep the first record of every active transaction, for undo,
+        // and every update that may not be on disk, for redo
+        Map<Long, Long> active = new HashMap<>();
+        Map<PageId, Long> dirtyPages = new HashMap<>();
+        readCheckpoint(in, active, dirtyPages);
+        for (long firstLogRecord : active.values())
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
+        for (long recLSN : dirtyPages.values())
+            minLogRecord = Math.min(minLogRecord, recLSN);
+
+        // we can truncate everything before minLogRecord.  LSNs do not
+        // depend on where a record is in the file, so the rest of the log
+        // is copied as is, behind a header with a new base LSN
+        long cut = minLogRecord - baseLSN;
+        if (cut <= HEADER_SIZE)
+            return;
+        long newBase = baseLSN + cut - HEADER_SIZE;
+        File newFile = new File(logFile.getAbsoluteFile().getParentFile(), logFile.getName() + ".truncating");
+        try (FileChannel logNew = FileChannel.open(newFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(cpLoc).putLong(newBase).flip();
+            while (header.hasRemaining())
+                logNew.write(header);
+            long copied = 0;
+            long length = bufferStart - cut;
+            while (copied < length)
+                copied += channel.transferTo(cut + copied, length - copied, logNew);
+            logNew.force(true);
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        Debug.log("TRUNCATING LOG;  WAS " + bufferStart + " BYTES ; NEW START : " + cut + " NEW LENGTH: " + (bufferStart - cut));
 
         raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
+        Files.move(newFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
+        channel = raf.getChannel();
+        baseLSN = newBase;
+        bufferStart = channel.size();
         //print();
     }
 
@@ -459,19 +1005,112 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstLogRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstLogRecord == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                // walk the log backwards so that the oldest before image of
+                // each page is the one that ends up on disk.  A page that
+                // another transaction updated after this one did is only
+                // restored as far back as that update (see recordPage)
+                flushBuffer();
+                LogReader in = reader();
+                Set<PageId> stopped = new HashSet<>();
+                long lsn = currentOffset;
+                while (lsn > firstLogRecord) {
+                    in.seek(lsn - baseLSN - LONG_SIZE);
+                    lsn = in.readLong();
+                    in.seek(lsn - baseLSN);
+                    int type = in.readByte();
+                    long record_tid = in.readLong();
+                    if (type != UPDATE_RECORD && type != DELTA_RECORD)
+                        continue;
+                    PageId pid = recordPage(in, type);
+                    if (record_tid != tid.getId()) {
+                        stopped.add(pid);
+                    } else if (!stopped.contains(pid)) {
+                        if (type == UPDATE_RECORD)
+                            installPage(readPageData(in));
+                        else
+                            applyDelta(in, false);
+                    }
+                }
             }
         }
     }
 
+    /** Read back the before image logged by the UPDATE record at the
+        given LSN.
+
+        @param lsn The LSN logWrite returned for the record
+    */
+    public synchronized Page readBeforeImage(long lsn) throws IOException {
+        flushBuffer();
+        LogReader in = reader();
+        in.seek(lsn - baseLSN);
+        if (in.readByte() != UPDATE_RECORD)
+            throw new IOException("no UPDATE record at LSN " + lsn);
+        in.readLong();
+        return readPageData(in);
+    }
+
+    // the page changed by an UPDATE or DELTA record (positioned just after
+    // its tid), leaving the reader where it was.
+    //
+    // Undo stops at an update to a page by another transaction: under
+    // strict two-phase locking that can only be a change to the structure
+    // of an index, made while the page's lock is held and committed at once
+    // (see BufferPool#logStructureChange).  It built the image it logged
+    // from the page as last committed, and that image is the before image
+    // of the updates logged after it, so the older updates are not undone
+    private PageId recordPage(LogReader in, int type) throws IOException {
+        long body = in.position();
+        PageId pid = type == UPDATE_RECORD ? readPageIdOfImage(in) : readPageId(in);
+        in.seek(body);
+        return pid;
+    }
+
+    // write a page image to its file and drop any cached copy of it, so that
+    // the next reader sees the restored version
+    private void installPage(Page p) throws IOException {
+        PageId pid = p.getId();
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+        Database.getBufferPool().discardPage(pid);
+    }
+
+    // advance past the body of a record of the given type (positioned just
+    // after its tid), leaving the reader after the trailing LSN
+    private void skipRecord(LogReader in, int type) throws IOException {
+        switch (type) {
+        case UPDATE_RECORD:
+            skipPageData(in);
+            skipPageData(in);
+            break;
+        case DELTA_RECORD:
+            skipDelta(in);
+            break;
+        case CHECKPOINT_RECORD:
+            readCheckpoint(in, null, null);
+            break;
+        }
+        in.readLong();
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            disableGroupCommit();
+            disableCheckpointer();
+            // with everything on disk the checkpoint's dirty page table is
+            // empty, so recovery has nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -481,23 +1120,415 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery runs in three passes, none of which looks at the log
+        before the last checkpoint except to redo updates to the pages in
+        its dirty page table and to undo transactions that were still
+        running when it was taken:
+        <ul>
+        <li> analysis scans forward from the oldest recLSN in the
+        checkpoint's dirty page table (or from the checkpoint, if no page was
+        dirty), starting from its table of active transactions, to find the
+        transactions that committed, the ones that aborted, and the losers
+        that did neither;
+        <li> redo scans forward over the same records and installs the after
+        image of every update made by a committed transaction, or the new
+        contents of the slots a DELTA record changed.  Updates older than the
+        checkpoint are skipped unless their page was in the dirty page table
+        with a recLSN at or before them, since the page on disk already
+        holds them;
+        <li> undo walks the log backwards from the end to the first record
+        of the oldest loser, installing the before images of the losers'
+        updates, and then logs an abort for each loser.
+        </ul>
+        Aborted transactions are skipped by both passes, since rollback
+        already restored their pages.  With strict two-phase locking the
+        losers are the last writers of every page they touched, so undoing
+        them after redo is safe, with one exception: a change to the
+        structure of an index that committed on its own while a loser held
+        the page.  As in {@link #rollback}, a page's updates are only undone
+        back to the last update another transaction made to it.
+        <p>
+        The time taken and the number of update records installed are
+        available from {@link #getRecoveryMillis} and
+        {@link #getRecoveryRecordsReplayed}.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                long start = System.currentTimeMillis();
+                int replayed = 0;
+
+                if (channel.size() < HEADER_SIZE) {
+                    channel.truncate(0);
+                    baseLSN = 0;
+                    writeHeader(NO_CHECKPOINT_ID);
+                }
+                buffer.clear();
+                bufferStart = channel.size();
+                LogReader in = reader();
+                long cpLoc = in.readLong();
+                baseLSN = in.readLong();
+                long end = bufferStart + baseLSN;
+
+                // analysis
+                Map<Long,Long> losers = new HashMap<>(); // tid -> first record
+                Set<Long> committed = new HashSet<>();
+                Map<PageId, Long> dirtyPages = new HashMap<>();
+                long redoStart = baseLSN + HEADER_SIZE;
+                long cpEnd = redoStart;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    in.seek(cpLoc - baseLSN);
+                    if (in.readByte() != CHECKPOINT_RECORD)
+                        throw new IOException("Checkpoint pointer does not point to checkpoint record");
+                    in.readLong();
+                    readCheckpoint(in, losers, dirtyPages);
+                    in.readLong();
+                    cpEnd = in.position() + baseLSN;
+                    redoStart = cpEnd;
+                    for (long recLSN : dirtyPages.values())
+                        redoStart = Math.min(redoStart, recLSN);
+                }
+                in.seek(redoStart - baseLSN);
+                while (in.position() + baseLSN < end) {
+                    long recordStart = in.position() + baseLSN;
+                    int type = in.readByte();
+                    long record_tid = in.readLong();
+                    switch (type) {
+                    case BEGIN_RECORD:
+                        losers.put(record_tid, recordStart);
+                        break;
+                    case COMMIT_RECORD:
+                        losers.remove(record_tid);
+                        committed.add(record_tid);
+                        break;
+                    case ABORT_RECORD:
+                        losers.remove(record_tid);
+                        break;
+                    }
+                    skipRecord(in, type);
+                }
+
+                // redo
+                in.seek(redoStart - baseLSN);
+                while (in.position() + baseLSN < end) {
+                    long recordStart = in.position() + baseLSN;
+                    int type = in.readByte();
+                    long record_tid = in.readLong();
+                    if ((type == UPDATE_RECORD || type == DELTA_RECORD)
+                        && committed.contains(record_tid)) {
+                        long bodyStart = in.position();
+                        if (type == UPDATE_RECORD)
+                            skipPageData(in);
+                        PageId pid = type == UPDATE_RECORD ? readPageIdOfImage(in) : readPageId(in);
+                        Long recLSN = dirtyPages.get(pid);
+                        in.seek(bodyStart);
+                        if (recordStart >= cpEnd || (recLSN != null && recLSN <= recordStart)) {
+                            if (type == UPDATE_RECORD) {
+                                skipPageData(in);
+                                installPage(readPageData(in));
+                                in.readLong();
+                            } else {
+                                applyDelta(in, true);
+                            }
+                            replayed++;
+                            continue;
+                        }
+                    }
+                    skipRecord(in, type);
+                }
+
+                // undo
+                long undoStart = end;
+                for (long first : losers.values())
+                    undoStart = Math.min(undoStart, first);
+                Set<PageId> stopped = new HashSet<>();
+                long lsn = end;
+                while (lsn > undoStart) {
+                    in.seek(lsn - baseLSN - LONG_SIZE);
+                    lsn = in.readLong();
+                    in.seek(lsn - baseLSN);
+                    int type = in.readByte();
+                    long record_tid = in.readLong();
+                    if (type != UPDATE_RECORD && type != DELTA_RECORD)
+                        continue;
+                    PageId pid = recordPage(in, type);
+                    if (!losers.containsKey(record_tid)) {
+                        stopped.add(pid);
+                    } else if (!stopped.contains(pid)) {
+                        if (type == UPDATE_RECORD)
+                            installPage(readPageData(in));
+                        else
+                            applyDelta(in, false);
+                        replayed++;
+                    }
+                }
+
+                // record that the losers are finished, so that a later
+                // recovery does not undo them over newer committed updates
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                tidToLogBytes.clear();
+                for (long xid : losers.keySet()) {
+                    startRecord(ABORT_RECORD, xid, 0);
+                    endRecord();
+                }
+                force();
+
+                recoveryMillis = System.currentTimeMillis() - start;
+                recoveryRecordsReplayed = replayed;
+                Debug.log("RECOVERY replayed " + replayed + " records in " + recoveryMillis + " ms, "
+                          + losers.size() + " transactions rolled back");
             }
          }
     }
 
+    /** @return how long the last call to recover() took, in milliseconds */
+    public synchronized long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+
+    /** @return the number of update records installed by the last call to
+        recover(), counting both redo and undo */
+    public synchronized int getRecoveryRecordsReplayed() {
+        return recoveryRecordsReplayed;
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            flushBuffer();
+            if (bufferStart < HEADER_SIZE) {
+                System.out.println("<empty log>");
+                return;
+            }
+            LogReader in = reader();
+            long cpLoc = in.readLong();
+            long base = in.readLong();
+            System.out.println("header: checkpoint LSN " + cpLoc + ", base LSN " + base);
+            while (!in.atEnd()) {
+                long recordStart = in.position() + base;
+                int type = in.readByte();
+                long record_tid = in.readLong();
+                StringBuilder line = new StringBuilder();
+                line.append(recordStart).append(": ");
+                switch (type) {
+                case ABORT_RECORD:
+                    line.append("ABORT tid ").append(record_tid);
+                    break;
+                case COMMIT_RECORD:
+                    line.append("COMMIT tid ").append(record_tid);
+                    break;
+                case BEGIN_RECORD:
+                    line.append("BEGIN tid ").append(record_tid);
+                    break;
+                case UPDATE_RECORD:
+                    Page before = readPageData(in);
+                    Page after = readPageData(in);
+                    line.append("UPDATE tid ").append(record_tid)
+                        .append(" page ").append(before.getId().getTableId())
+                        .append(":").append(before.getId().getPageNumber());
+                    if (!before.getId().equals(after.getId()))
+                        line.append(" (after image is for another page!)");
+                    break;
+                case DELTA_RECORD:
+                    PageId pid = readPageId(in);
+                    line.append("DELTA tid ").append(record_tid)
+                        .append(" page ").append(pid.getTableId())
+                        .append(":").append(pid.getPageNumber()).append(" slots");
+                    int numSlots = in.readInt();
+                    while (numSlots-- > 0) {
+                        line.append(" ").append(in.readInt());
+                        in.skip(Math.max(in.readInt(), 0));
+                        in.skip(Math.max(in.readInt(), 0));
+                    }
+                    break;
+                case CHECKPOINT_RECORD:
+                    line.append("CHECKPOINT active");
+                    int numXactions = in.readInt();
+                    while (numXactions-- > 0) {
+                        long xid = in.readLong();
+                        line.append(" ").append(xid).append("@").append(in.readLong());
+                    }
+                    line.append(" dirty");
+                    int numPages = in.readInt();
+                    while (numPages-- > 0) {
+                        PageId dirty = readPageId(in);
+                        line.append(" ").append(dirty.getTableId()).append(":")
+                            .append(dirty.getPageNumber()).append("@").append(in.readLong());
+                    }
+                    break;
+                default:
+                    line.append("unknown record type ").append(type);
+                    System.out.println(line);
+                    return;
+                }
+                long startOffset = in.readLong();
+                if (startOffset != recordStart)
+                    line.append(" (bad start LSN ").append(startOffset).append(")");
+                System.out.println(line);
+            }
+        }
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        long commits;
+        synchronized (commitLock) {
+            commits = commitsAppended;
+        }
+        flushBuffer();
+        channel.force(true);
+        forces++;
+        synchronized (commitLock) {
+            if (commits > commitsDurable) {
+                commitsDurable = commits;
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    // make room in the buffer for a record and start it; bodySize is the
+    // size of everything between the tid and the trailing LSN
+    private void startRecord(int type, long tid, int bodySize) throws IOException {
+        int size = RECORD_OVERHEAD + bodySize;
+        if (buffer.remaining() < size) {
+            flushBuffer();
+            if (buffer.capacity() < size)
+                buffer = ByteBuffer.allocate(size);
+        }
+        buffer.put((byte) type);
+        buffer.putLong(tid);
+    }
+
+    // finish the record being written and return its LSN
+    private long endRecord() {
+        long lsn = currentOffset;
+        buffer.putLong(lsn);
+        currentOffset = baseLSN + bufferStart + buffer.position();
+        if (currentOffset >= checkpointTrigger) {
+            checkpointTrigger = Long.MAX_VALUE;
+            synchronized (checkpointLock) {
+                checkpointLock.notifyAll();
+            }
+        }
+        return lsn;
+    }
+
+    // hand the buffered records to the file system
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bufferStart += channel.write(buffer, bufferStart);
+            writes++;
+        }
+        buffer.clear();
+    }
+
+    private void writeHeader(long checkpointLSN) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(checkpointLSN).putLong(baseLSN).flip();
+        long pos = 0;
+        while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+            writes++;
+        }
+    }
+
+    // a reader over everything written to the file so far, positioned at
+    // the start of the header
+    private LogReader reader() throws IOException {
+        return new LogReader(channel, channel.size());
+    }
+
+    /** Reads the log through a window of the file, so that the many small
+        fields of a record do not each cost a system call. */
+    static class LogReader {
+        private final FileChannel channel;
+        private final long end;
+        private ByteBuffer window = ByteBuffer.allocate(LOG_BUFFER_SIZE);
+        private long windowStart = 0;
+        private long pos = 0;
+
+        LogReader(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+            window.limit(0);
+        }
+
+        /** @param offset the file offset to read from next */
+        void seek(long offset) {
+            pos = offset;
+        }
+
+        /** @return the file offset that will be read next */
+        long position() {
+            return pos;
+        }
+
+        boolean atEnd() {
+            return pos >= end;
+        }
+
+        void skip(long n) {
+            pos += n;
+        }
+
+        // make sure bytes [pos, pos + n) are in the window
+        private int fill(int n) throws IOException {
+            if (pos >= windowStart && pos + n <= windowStart + window.limit())
+                return (int) (pos - windowStart);
+            if (pos + n > end)
+                throw new EOFException();
+            if (window.capacity() < n)
+                window = ByteBuffer.allocate(n);
+            window.clear();
+            windowStart = pos;
+            window.limit((int) Math.min(window.capacity(), end - pos));
+            while (window.position() < n) {
+                if (channel.read(window, windowStart + window.position()) < 0)
+                    throw new EOFException();
+            }
+            window.flip();
+            return 0;
+        }
+
+        byte readByte() throws IOException {
+            byte b = window.get(fill(1));
+            pos += 1;
+            return b;
+        }
+
+        short readShort() throws IOException {
+            short s = window.getShort(fill(2));
+            pos += 2;
+            return s;
+        }
+
+        int readInt() throws IOException {
+            int i = window.getInt(fill(INT_SIZE));
+            pos += INT_SIZE;
+            return i;
+        }
+
+        long readLong() throws IOException {
+            long l = window.getLong(fill(LONG_SIZE));
+            pos += LONG_SIZE;
+            return l;
+        }
+
+        void readFully(byte[] b) throws IOException {
+            ByteBuffer view = window.duplicate();
+            view.position(fill(b.length));
+            view.get(b);
+            pos += b.length;
+        }
+
+        String readUTF() throws IOException {
+            byte[] name = new byte[readShort()];
+            readFully(name);
+            return new String(name, StandardCharsets.UTF_8);
+        }
     }
 
 }
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,25 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Write the bytes getPageData would return into dst, starting at its
+   * position and advancing it.  Pages that keep their serialized form
+   * override this to copy it in one bulk put, without allocating.
+   *
+   * @param dst the buffer to write into; it must have getPageDataSize()
+   *   bytes remaining
+   */
+  default void writePageData(ByteBuffer dst) {
+      dst.put(getPageData());
+  }
+
+  /**
+   * @return the number of bytes in this page's serialized form
+   */
+  default int getPageDataSize() {
+      return getPageData().length;
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
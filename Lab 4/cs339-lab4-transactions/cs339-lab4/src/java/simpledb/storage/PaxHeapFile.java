@@ -0,0 +1,114 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapFile whose pages are {@link PaxPage}s, which store the values of
+ * each column together, for analytic tables that are mostly read a few
+ * columns at a time.  A projected scan ({@link #iterator(TransactionId,
+ * int[])}) decodes only the columns it returns, and
+ * {@link #intColumns} hands int columns to aggregation as arrays, a page
+ * at a time, without building tuples at all.
+ * <p>
+ * Use {@link HeapFileEncoder#convertPax} to build one from a text file, or
+ * add {@code pax} after a table's columns in the catalog.
+ *
+ * @see PaxPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a PAX heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping of the file.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public PaxHeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        super(f, td, memoryMapped);
+    }
+
+    @Override
+    protected TuplePage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new PaxPage(id, data);
+    }
+
+    /**
+     * Returns an iterator over the values of some int columns of this file,
+     * a page at a time.  Pages are read through the buffer pool, with read
+     * locks, as by a scan.
+     *
+     * @param columns the indexes of the columns, which must all be INT_TYPE
+     */
+    public IntColumnIterator intColumns(TransactionId tid, int[] columns) {
+        for (int col : columns) {
+            if (getTupleDesc().getFieldType(col) != Type.INT_TYPE)
+                throw new IllegalArgumentException("field " + col + " is not an int");
+        }
+        return new IntColumnIterator(tid, columns);
+    }
+
+    /**
+     * Reads int columns of a PaxHeapFile into arrays, one page at a time.
+     */
+    public class IntColumnIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final int[][] values;
+        private int pageNo = 0;
+
+        private IntColumnIterator(TransactionId tid, int[] columns) {
+            this.tid = tid;
+            this.columns = columns;
+            this.values = new int[columns.length][];
+        }
+
+        /**
+         * Read the columns of the tuples on the next page that has any.
+         *
+         * @return the number of tuples read, or -1 when every page has been
+         *   read; the values are then in {@link #values()}
+         */
+        public int next() throws DbException, TransactionAbortedException {
+            while (pageNo < numPages()) {
+                PaxPage p = (PaxPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(getId(), pageNo++), Permissions.READ_ONLY);
+                int n = 0;
+                for (int j = 0; j < columns.length; j++) {
+                    if (values[j] == null || values[j].length < p.getNumSlots())
+                        values[j] = new int[p.getNumSlots()];
+                    n = p.getInts(columns[j], values[j]);
+                }
+                if (n > 0)
+                    return n;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the values read by the last call to next, one array per
+         *   column in the order they were asked for, with the values of a
+         *   tuple at the same index in each; the arrays are reused
+         */
+        public int[][] values() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of PaxPage stores data for one page of a
+ * {@link PaxHeapFile}, with the values of each column stored together
+ * (the PAX layout).  A page holds as many tuples, and has the same header
+ * of slot bits, as a HeapPage of the same table, but the header is followed
+ * by one minipage per column instead of one slot per tuple: the minipage
+ * of column j holds the value of column j for each slot in turn, and
+ * starts numSlots * (the size of the columns before j) bytes after the
+ * header.
+ * <p>
+ * Reading one column of every tuple therefore touches only that column's
+ * bytes, and {@link #getInts} copies an int column straight into an array
+ * without building any tuples or fields.  Whole tuples are still available
+ * through {@link #iterator}; only the columns asked for are decoded by
+ * {@link #iterator(int[])}.
+ *
+ * @see PaxHeapFile
+ * @see HeapPage
+ */
+public class PaxPage implements SlotLoggedPage, TuplePage {
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    final int headerSize;
+    private final int[] columnStarts; // offset of each column's minipage
+
+    private final byte[] data;
+    private final ByteBuffer buf; // over data
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk, in the
+     * format described above.  The page keeps a copy of data, padded with
+     * zeroes if it is shorter than a page.
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+             Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a PaxPage from the bytes between the position and limit of a
+     * buffer.  The buffer's position is not changed.
+     *
+     * @see #PaxPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    // a page of the given table layout over data, which it takes over;
+    // data.length is the page size
+    PaxPage(HeapPageId id, TupleDesc td, byte[] data) {
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        this.numSlots = numSlots(td, data.length);
+        this.headerSize = (numSlots + 7) / 8;
+        this.columnStarts = columnStarts(td, numSlots, headerSize);
+        setBeforeImage();
+    }
+
+    // the number of tuples on a page, as for a HeapPage
+    private static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static int[] columnStarts(TupleDesc td, int numSlots, int headerSize) {
+        int[] starts = new int[td.numFields()];
+        int offset = headerSize;
+        for (int j = 0; j < starts.length; j++) {
+            starts[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+        return starts;
+    }
+
+    /**
+     * Rearrange a page in the HeapPage format into the PaxPage format of
+     * the same tuples, in the same slots.
+     *
+     * @param td the TupleDesc of the page's table
+     * @param heapPage the bytes of a HeapPage; its length is the page size
+     * @return the bytes of the PaxPage
+     */
+    public static byte[] fromHeapPageData(TupleDesc td, byte[] heapPage) {
+        int numSlots = numSlots(td, heapPage.length);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = columnStarts(td, numSlots, headerSize);
+        byte[] pax = new byte[heapPage.length];
+        System.arraycopy(heapPage, 0, pax, 0, headerSize);
+        for (int i = 0; i < numSlots; i++) {
+            int from = headerSize + i * td.getSize();
+            for (int j = 0; j < starts.length; j++) {
+                int len = td.getFieldType(j).getLen();
+                System.arraycopy(heapPage, from, pax, starts[j] + i * len, len);
+                from += len;
+            }
+        }
+        return pax;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public PaxPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new PaxPage(pid, td, oldDataRef.clone());
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    // offset of the value of column col for slot i
+    private int fieldOffset(int i, int col) {
+        return columnStarts[col] + i * td.getFieldType(col).getLen();
+    }
+
+    /**
+     * Read one field of a tuple straight from the page bytes, without
+     * decoding the rest of the tuple.
+     *
+     * @param slot the slot of the tuple; it must be in use
+     * @param col the index of the field
+     * @return the field
+     */
+    public Field getField(int slot, int col) {
+        int offset = fieldOffset(slot, col);
+        if (td.getFieldType(col) == Type.INT_TYPE)
+            return new IntField(buf.getInt(offset));
+        int strLen = Math.max(0, Math.min(buf.getInt(offset), Type.STRING_LEN));
+        return new StringField(new String(data, offset + 4, strLen), Type.STRING_LEN);
+    }
+
+    /**
+     * Read an integer field of a tuple straight from the page bytes.
+     *
+     * @param slot the slot of the tuple; it must be in use
+     * @param col the index of the field, which must be an INT_TYPE field
+     * @return the value of the field
+     */
+    public int getInt(int slot, int col) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        return buf.getInt(fieldOffset(slot, col));
+    }
+
+    /**
+     * Copy the values of an int column of the tuples on this page into an
+     * array, in slot order, so that the same index in the arrays for two
+     * columns refers to the same tuple.
+     *
+     * @param col the index of the column, which must be an INT_TYPE field
+     * @param values where to put the values; it must have room for
+     *   getNumSlots() of them
+     * @return the number of values copied, which is the number of tuples
+     */
+    public int getInts(int col, int[] values) {
+        if (td.getFieldType(col) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + col + " is not an int");
+        int start = columnStarts[col];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                values[n++] = buf.getInt(start + i * 4);
+        }
+        return n;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the PaxPage constructor and
+     * have it produce an identical PaxPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void writePageData(ByteBuffer dst) {
+        dst.put(data);
+    }
+
+    public int getPageDataSize() {
+        return data.length;
+    }
+
+    public ByteBuffer pageBuffer() {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Delete the specified tuple from the page; its slot is marked empty and
+     * its values zeroed.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tried to delete null tuple.");
+        setSlotData(rid.getTupleNumber(), null);
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        int slot = -1;
+        for (int i = 0; i < numSlots && slot == -1; i++) {
+            if (!isSlotUsed(i))
+                slot = i;
+        }
+        if (slot == -1)
+            throw new DbException("called addTuple on page with no empty slots.");
+
+        byte[] bytes = new byte[td.getSize()];
+        DataOutputStream dos = new DataOutputStream(new ByteBufferOutputStream(ByteBuffer.wrap(bytes)));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.getField(j).serialize(dos);
+        } catch (IOException e) {
+            throw new DbException("could not serialize tuple: " + e.getMessage());
+        }
+        setSlotData(slot, bytes);
+        Debug.log(1, "PaxPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d",
+                  pid.getTableId(), pid.getPageNumber(), slot);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        int cnt = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                cnt++;
+        return cnt;
+    }
+
+    public boolean hasRoom() {
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                return true;
+        return false;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Returns the fields of the tuple in slot i in the HeapPage tuple
+     * format, so that a logged slot means the same on both kinds of page.
+     */
+    public byte[] getSlotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        byte[] bytes = new byte[td.getSize()];
+        int to = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            System.arraycopy(data, fieldOffset(i, j), bytes, to, len);
+            to += len;
+        }
+        return bytes;
+    }
+
+    public void setSlotData(int i, byte[] slotData) {
+        int from = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            if (slotData == null)
+                Arrays.fill(data, fieldOffset(i, j), fieldOffset(i, j) + len, (byte) 0);
+            else
+                System.arraycopy(slotData, from, data, fieldOffset(i, j), len);
+            from += len;
+        }
+        int bit = 1 << (i % 8);
+        if (slotData != null)
+            data[i / 8] |= bit;
+        else
+            data[i / 8] &= ~bit;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        int[] all = new int[td.numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = j;
+        return iterator(td, all);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that decodes only the
+     * given columns, in the given order.
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        return iterator(td.project(columns), columns);
+    }
+
+    private Iterator<Tuple> iterator(TupleDesc outTd, int[] columns) {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = new Tuple(outTd);
+                t.setRecordId(new RecordId(pid, next));
+                for (int j = 0; j < columns.length; j++)
+                    t.setField(j, getField(next, columns[j]));
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+}
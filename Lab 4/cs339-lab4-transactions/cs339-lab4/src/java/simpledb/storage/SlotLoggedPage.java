@@ -0,0 +1,28 @@
+package simpledb.storage;
+
+/**
+ * A page made of numbered slots that the log can record changes to slot by
+ * slot, instead of with whole page images.  A logged change is the complete
+ * contents of each slot that changed, before and after, so applying it
+ * (in either direction) does not depend on the state of the slot it
+ * overwrites and can safely be repeated.
+ *
+ * @see LogFile#logWrite
+ */
+public interface SlotLoggedPage extends Page {
+
+    /** @return the number of slots on this page, used or not */
+    int getNumSlots();
+
+    /**
+     * @return a copy of the bytes stored in slot i, or null if the slot is
+     *   empty
+     */
+    byte[] getSlotData(int i);
+
+    /**
+     * Overwrite slot i with the given bytes, as returned by getSlotData on
+     * a page of the same file, or empty it if data is null.
+     */
+    void setSlotData(int i, byte[] data);
+}
@@ -0,0 +1,44 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapFile whose pages are {@link SlottedPage}s, which store each tuple
+ * in only as many bytes as its values need.  It is the better choice for
+ * tables with string columns whose values are mostly much shorter than
+ * Type.STRING_LEN: more tuples fit on a page, so a scan reads fewer pages.
+ * Everything but the page format is the same as for a HeapFile.
+ * <p>
+ * Use {@link HeapFileEncoder#convertSlotted} to build one from a text file,
+ * or add {@code slotted} after a table's columns in the catalog.
+ *
+ * @see SlottedPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file backed by the specified file,
+     * optionally reading its pages through a memory mapping of the file.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public SlottedHeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        super(f, td, memoryMapped);
+    }
+
+    @Override
+    protected TuplePage newPage(HeapPageId id, ByteBuffer data) throws IOException {
+        return new SlottedPage(id, data);
+    }
+}
@@ -0,0 +1,420 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a
+ * {@link SlottedHeapFile}.  Where every tuple on a HeapPage takes
+ * td.getSize() bytes, a SlottedPage stores each tuple in only the bytes it
+ * needs: an int field takes 4 bytes, and a string field 2 bytes of length
+ * followed by its characters, instead of Type.STRING_LEN + 4 bytes.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of
+ * entries in the slot directory, and the number of bytes at the end of the
+ * page taken by the record area.  The slot directory follows, with two
+ * unsigned shorts per slot: the offset of the slot's record in the page, or
+ * 0 if the slot is empty, and the record's length.  Records are added from
+ * the end of the page towards the directory.  A deleted record leaves a
+ * hole, which is reclaimed by compacting the record area when a record
+ * would not otherwise fit; slots keep their numbers, so RecordIds stay
+ * valid.  A page of all zeroes is an empty page.
+ * <p>
+ * Offsets are 16 bits, so pages can be at most 65536 bytes.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedPage implements SlotLoggedPage, TuplePage {
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int maxRecordSize;
+
+    private byte[] data;
+    private ByteBuffer buf; // over data
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in
+     * the format described above.  The page keeps a copy of data, padded
+     * with zeroes if it is shorter than a page.
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()),
+             Arrays.copyOf(data, Math.max(data.length, BufferPool.getPageSize())));
+    }
+
+    /**
+     * Create a SlottedPage from the bytes between the position and limit of
+     * a buffer.  The buffer's position is not changed.
+     *
+     * @see #SlottedPage(HeapPageId, byte[])
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, copy(data));
+    }
+
+    private static byte[] copy(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    // a page of the given table layout over data, which it takes over;
+    // data.length is the page size
+    SlottedPage(HeapPageId id, TupleDesc td, byte[] data) {
+        if (data.length > 65536)
+            throw new IllegalArgumentException("slotted pages can be at most 65536 bytes");
+        this.pid = id;
+        this.td = td;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        int max = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            max += td.getFieldType(j) == Type.STRING_TYPE ? 2 + Type.STRING_LEN : td.getFieldType(j).getLen();
+        this.maxRecordSize = max;
+        setBeforeImage();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        byte[] oldDataRef;
+        synchronized (oldDataLock) {
+            oldDataRef = oldData;
+        }
+        return new SlottedPage(pid, td, oldDataRef.clone());
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data.clone();
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Encode a tuple in the record format of a slotted page.
+     */
+    static byte[] encodeRecord(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                Field f = t.getField(j);
+                if (f.getType() == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    f.serialize(dos);
+                }
+            }
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode the tuple in slot i from the page bytes.
+     */
+    private Tuple readTuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, i));
+        int offset = slotOffset(i);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = buf.getChar(offset);
+                t.setField(j, new StringField(new String(data, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            } else {
+                t.setField(j, new IntField(buf.getInt(offset)));
+                offset += 4;
+            }
+        }
+        return t;
+    }
+
+    private int numSlots() {
+        return buf.getChar(0);
+    }
+
+    // first byte of the record area
+    private int recordStart() {
+        return data.length - buf.getChar(2);
+    }
+
+    private int slotOffset(int i) {
+        return buf.getChar(HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(int i) {
+        return buf.getChar(HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putChar(HEADER_SIZE + i * SLOT_SIZE, (char) offset);
+        buf.putChar(HEADER_SIZE + i * SLOT_SIZE + 2, (char) length);
+    }
+
+    /**
+     * @return the number of bytes on this page not used by the header, the
+     *   slot directory or a record, whether or not they are contiguous
+     */
+    public int getFreeSpace() {
+        int n = numSlots();
+        int free = data.length - HEADER_SIZE - n * SLOT_SIZE;
+        for (int i = 0; i < n; i++)
+            free -= slotLength(i);
+        return free;
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        int count = 0;
+        for (int i = 0; i < numSlots(); i++)
+            if (isSlotUsed(i))
+                count++;
+        return count;
+    }
+
+    /**
+     * @return true if a record of the given length fits on the page, in
+     *   an empty slot or a new one at the end of the directory
+     */
+    boolean fits(int length) {
+        int n = numSlots();
+        int slot = firstEmptySlot();
+        return length + (slot < n ? 0 : SLOT_SIZE) <= getFreeSpace();
+    }
+
+    private int firstEmptySlot() {
+        int n = numSlots();
+        for (int i = 0; i < n; i++)
+            if (!isSlotUsed(i))
+                return i;
+        return n;
+    }
+
+    /**
+     * Returns true if there is room for the largest tuple of this page's
+     * table, so that a page the free-space map says has room can take any
+     * tuple.
+     */
+    public boolean hasRoom() {
+        return fits(maxRecordSize);
+    }
+
+    /**
+     * Move the records to the end of the page, in slot order, so that all
+     * of the free space is between the slot directory and the records.
+     */
+    private void compact() {
+        int n = numSlots();
+        byte[] compacted = new byte[data.length];
+        System.arraycopy(data, 0, compacted, 0, HEADER_SIZE + n * SLOT_SIZE);
+        ByteBuffer out = ByteBuffer.wrap(compacted);
+        int end = data.length;
+        for (int i = 0; i < n; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int length = slotLength(i);
+            end -= length;
+            System.arraycopy(data, slotOffset(i), compacted, end, length);
+            out.putChar(HEADER_SIZE + i * SLOT_SIZE, (char) end);
+        }
+        out.putChar(2, (char) (data.length - end));
+        // a buffer handed out by pageBuffer keeps the old array
+        data = compacted;
+        buf = out;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     * <p>
+     * The invariant here is that it should be possible to pass the byte
+     * array generated by getPageData to the SlottedPage constructor and
+     * have it produce an identical SlottedPage object.
+     *
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public void writePageData(ByteBuffer dst) {
+        dst.put(data);
+    }
+
+    public int getPageDataSize() {
+        return data.length;
+    }
+
+    public ByteBuffer pageBuffer() {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * Delete the specified tuple from the page, leaving its slot empty.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        if (!isSlotUsed(rid.getTupleNumber()))
+            throw new DbException("tried to delete null tuple.");
+        setSlotData(rid.getTupleNumber(), null);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or a new
+     * one; the tuple is updated to reflect that it is now stored on this
+     * page.
+     *
+     * @throws DbException if the tuple does not fit on the page, or
+     *         its tupledesc does not match
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+        byte[] record = encodeRecord(t);
+        if (!fits(record.length))
+            throw new DbException("called addTuple on page with no room for the tuple.");
+        int slot = firstEmptySlot();
+        setSlotData(slot, record);
+        Debug.log(1, "SlottedPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d",
+                  pid.getTableId(), pid.getPageNumber(), slot);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        if (dirty) this.dirtier = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    public int getNumSlots() {
+        return numSlots();
+    }
+
+    public byte[] getSlotData(int i) {
+        if (!isSlotUsed(i))
+            return null;
+        int offset = slotOffset(i);
+        return Arrays.copyOfRange(data, offset, offset + slotLength(i));
+    }
+
+    /**
+     * Overwrite slot i with a record, compacting the page if the record
+     * does not fit in the free space between the slot directory and the
+     * record area, and adding empty slots to the directory if it has no
+     * slot i yet.
+     *
+     * @throws IllegalStateException if the record does not fit on the page
+     */
+    public void setSlotData(int i, byte[] record) {
+        int n = numSlots();
+        if (i < n)
+            setSlot(i, 0, 0);
+        if (record == null)
+            return;
+
+        int directoryEnd = HEADER_SIZE + Math.max(n, i + 1) * SLOT_SIZE;
+        if (recordStart() - record.length < directoryEnd) {
+            compact();
+            if (recordStart() - record.length < directoryEnd)
+                throw new IllegalStateException("no room for a record of " + record.length
+                                                + " bytes in slot " + i + " of " + pid);
+        }
+        for (int j = n; j <= i; j++)
+            setSlot(j, 0, 0);
+        if (i >= n)
+            buf.putChar(0, (char) (i + 1));
+
+        int offset = recordStart() - record.length;
+        System.arraycopy(record, 0, data, offset, record.length);
+        buf.putChar(2, (char) (data.length - offset));
+        setSlot(i, offset, record.length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while (from < numSlots() && !isSlotUsed(from))
+                    from++;
+                return from;
+            }
+
+            public boolean hasNext() {
+                return next < numSlots();
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = readTuple(next);
+                next = advance(next + 1);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,129 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * A temporary file of tuples, for operators that run out of memory: tuples
+ * are appended to it, and then read back in the same order, as many times
+ * as needed.  Tuples are written compactly, not in the fixed-width page
+ * format, and without their RecordIds.  The file is removed by
+ * {@link #delete}, or else when the JVM exits.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Create an empty spill file.
+     *
+     * @param td the TupleDesc of the tuples it will hold
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb", ".spill");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples added to the file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("spill file is no longer being written");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                out.writeInt(((IntField) t.getField(j)).getValue());
+            else
+                out.writeUTF(((StringField) t.getField(j)).getValue());
+        }
+        size++;
+    }
+
+    /**
+     * Returns a reader over the tuples of the file, in the order they were
+     * added.  No more tuples can be added once the file has been read.
+     */
+    public Reader reader() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Remove the file from disk.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /**
+     * Reads the tuples of a spill file, in order.
+     */
+    public class Reader implements Closeable {
+        private final DataInputStream in;
+        private int read = 0;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return true if there are more tuples to read
+         */
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        /**
+         * @return the next tuple, or null if they have all been read
+         */
+        public Tuple next() throws IOException {
+            if (read == size)
+                return null;
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.INT_TYPE)
+                    t.setField(j, new IntField(in.readInt()));
+                else
+                    t.setField(j, new StringField(in.readUTF(), Type.STRING_LEN));
+            }
+            read++;
+            return t;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -145,6 +145,24 @@ public class TupleDesc implements Serializable {
         return size;
     }
 
+    /**
+     * Project a TupleDesc onto some of its fields.
+     *
+     * @param columns
+     *            the indexes of the fields to keep, in the order they are to
+     *            appear in the new TupleDesc
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = getFieldType(columns[i]);
+            names[i] = getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
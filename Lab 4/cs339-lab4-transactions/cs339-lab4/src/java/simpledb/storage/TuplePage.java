@@ -0,0 +1,131 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page of a {@link HeapFile}: a page that tuples can be added to and
+ * removed from.  HeapFile only works with its pages through this interface,
+ * so subclasses can store tuples in a different page format.
+ *
+ * @see HeapFile#newPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * Add a tuple to the page, and set its RecordId to where it is stored.
+     *
+     * @throws DbException if the tuple does not fit, or does not match the
+     *   page's TupleDesc
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Remove a tuple, given by its RecordId, from the page.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return an iterator over the tuples on this page
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Returns an iterator over the tuples on this page with only the given
+     * columns, in the given order.  Pages that can read a field without
+     * decoding the whole tuple override this to decode just those columns.
+     *
+     * @param columns the indexes of the fields to return
+     */
+    default Iterator<Tuple> iterator(int[] columns) {
+        Iterator<Tuple> it = iterator();
+        return new Iterator<Tuple>() {
+            private TupleDesc td = null;
+
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Tuple next() {
+                Tuple t = it.next();
+                if (td == null)
+                    td = t.getTupleDesc().project(columns);
+                Tuple projected = new Tuple(td);
+                projected.setRecordId(t.getRecordId());
+                for (int j = 0; j < columns.length; j++)
+                    projected.setField(j, t.getField(columns[j]));
+                return projected;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that pass a
+     * predicate.  Pages that store encoded values override this to evaluate
+     * the predicate on the encodings, without building the tuples that do
+     * not pass.
+     *
+     * @param filter the predicate, on the fields of the page's table
+     */
+    default Iterator<Tuple> iterator(Predicate filter) {
+        Iterator<Tuple> it = iterator();
+        return new Iterator<Tuple>() {
+            private Tuple next = advance();
+
+            private Tuple advance() {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (filter.filter(t))
+                        return t;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Returns the tuple in a slot of this page, as a RecordId gives it, or
+     * null if the slot is empty.  Pages that can find a slot directly
+     * override this to avoid scanning.
+     *
+     * @param slot the tuple number of a RecordId on this page
+     */
+    default Tuple getTuple(int slot) {
+        Iterator<Tuple> it = iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getTupleNumber() == slot)
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if any tuple of the page's table would fit on the page
+     */
+    boolean hasRoom();
+
+    /**
+     * @return a read-only buffer over the serialized page, for writing it
+     *   out without a copy; it is only valid until the page is next changed
+     */
+    ByteBuffer pageBuffer();
+}
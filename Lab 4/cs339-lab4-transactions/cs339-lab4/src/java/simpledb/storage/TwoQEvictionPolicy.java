@@ -0,0 +1,97 @@
+package simpledb.storage;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Full 2Q replacement (Johnson and Shasha).  Newly admitted pages enter a
+ * FIFO queue (A1in).  Pages evicted from A1in are remembered, without their
+ * contents, in a ghost queue (A1out); a page that is requested again while
+ * its id is still in A1out has proven it is re-referenced and is admitted
+ * into the main LRU queue (Am).  Scans therefore only ever cycle through
+ * A1in.  All operations are O(1).
+ */
+public class TwoQEvictionPolicy extends AbstractEvictionPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<>();
+    private final LinkedHashMap<PageId, Boolean> a1out = new LinkedHashMap<>();
+    private final LinkedHashMap<PageId, Boolean> am = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Uses the tuning suggested in the 2Q paper: A1in holds a quarter of
+     * the pool and A1out remembers half a pool's worth of page ids.
+     *
+     * @param capacity the number of pages the owning BufferPool may hold
+     */
+    public TwoQEvictionPolicy(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param capacity the number of pages the owning BufferPool may hold
+     * @param kin the target size of the A1in queue
+     * @param kout the number of page ids remembered in the A1out queue
+     */
+    public TwoQEvictionPolicy(int capacity, int kin, int kout) {
+        this.kin = Math.min(Math.max(kin, 1), Math.max(capacity, 1));
+        this.kout = Math.max(kout, 1);
+    }
+
+    protected void accessed(PageId pid) {
+        // hits in A1in are deliberately ignored: a page has to come back after
+        // falling out of A1in before it is considered hot
+        if (am.containsKey(pid))
+            am.get(pid);
+        else if (!a1in.containsKey(pid))
+            admitted(pid);
+    }
+
+    protected void admitted(PageId pid) {
+        if (am.containsKey(pid) || a1in.containsKey(pid)) {
+            accessed(pid);
+        } else if (a1out.remove(pid) != null) {
+            am.put(pid, Boolean.TRUE);
+        } else {
+            a1in.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) != null) {
+            a1out.put(pid, Boolean.TRUE);
+            if (a1out.size() > kout) {
+                Iterator<PageId> oldest = a1out.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = firstEvictable(a1in, evictable);
+            if (victim == null)
+                victim = firstEvictable(am, evictable);
+        } else {
+            victim = firstEvictable(am, evictable);
+            if (victim == null)
+                victim = firstEvictable(a1in, evictable);
+        }
+        return victim;
+    }
+
+    private static PageId firstEvictable(LinkedHashMap<PageId, Boolean> queue,
+                                         Predicate<PageId> evictable) {
+        for (PageId pid : queue.keySet()) {
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,559 @@
+package simpledb.transaction;
+
+import simpledb.common.Database;
+import simpledb.storage.PageId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the page-level shared/exclusive locks used for strict
+ * two-phase locking.
+ * <p>
+ * Every locked page has an entry in the lock table with the set of
+ * transactions holding it and a FIFO queue of waiting requests.  A request
+ * that cannot be granted parks its thread on a condition of its own; when
+ * locks are released the queue is granted from the front, either a single
+ * exclusive request or a batch of consecutive compatible shared requests,
+ * and only those threads are woken.  Lock upgrades (shared to exclusive by a
+ * transaction that already holds the shared lock) are queued ahead of
+ * ordinary requests, since the upgrading transaction is already blocking
+ * every writer.
+ * <p>
+ * The lock table is split by PageId hash into independent stripes, each with
+ * its own latch, so requests for different pages rarely contend.  The set of
+ * pages each transaction holds is kept in a concurrent map next to the
+ * stripes.
+ * <p>
+ * Deadlocks are detected with a waits-for graph.  Each waiting request
+ * records the transactions it is blocked by: the conflicting holders of the
+ * page and the conflicting requests queued ahead of it.  The edges are
+ * recomputed whenever a request is queued or the holders of a page change,
+ * and every time they are the graph is searched for a cycle through the
+ * waiting transaction.  One transaction on the cycle, chosen by the
+ * {@link VictimPolicy}, has its wait cancelled with a
+ * TransactionAbortedException.  The graph has a lock of its own that is only
+ * taken on the slow path, after the stripe latch (never before it).
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** How to choose the transaction to abort when a deadlock is found. */
+    public enum VictimPolicy {
+        /** abort the transaction that started last */
+        YOUNGEST,
+        /** abort the transaction holding the fewest locks */
+        FEWEST_LOCKS,
+        /** abort the transaction that has written the least log */
+        LEAST_LOG
+    }
+
+    /** Default number of lock table stripes. */
+    public static final int DEFAULT_STRIPES = 64;
+
+    /** Deadlocks counted by {@link #getDeadlocksPerSecond} are those found this long ago or less. */
+    private static final long RATE_WINDOW_MS = 10000;
+
+    /** A lock request that has not been granted yet. */
+    private static class Request {
+        final TransactionId tid;
+        final Stripe stripe;
+        final boolean exclusive;
+        final boolean upgrade;
+        final Condition ready;
+        final Set<TransactionId> blockers = new HashSet<>(); // protected by graph
+        volatile boolean granted = false; // written under stripe.latch
+        volatile boolean aborted = false; // written under stripe.latch
+
+        Request(TransactionId tid, Stripe stripe, boolean exclusive, boolean upgrade) {
+            this.tid = tid;
+            this.stripe = stripe;
+            this.exclusive = exclusive;
+            this.upgrade = upgrade;
+            this.ready = stripe.latch.newCondition();
+        }
+    }
+
+    /** Lock table entry for one page. */
+    private static class LockState {
+        TransactionId owner = null; // exclusive holder, if any
+        final Set<TransactionId> sharers = new HashSet<>();
+        final LinkedList<Request> waiters = new LinkedList<>();
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty() && waiters.isEmpty();
+        }
+
+        boolean holds(TransactionId tid, boolean exclusive) {
+            return tid.equals(owner) || (!exclusive && sharers.contains(tid));
+        }
+
+        boolean compatible(TransactionId tid, boolean exclusive) {
+            if (owner != null)
+                return owner.equals(tid);
+            if (!exclusive)
+                return true;
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+    }
+
+    /** One partition of the lock table. */
+    private static class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<PageId, LockState> table = new HashMap<>(); // protected by latch
+    }
+
+    private final Stripe[] stripes;
+    private final ConcurrentMap<TransactionId, Set<PageId>> locksHeld = new ConcurrentHashMap<>();
+
+    private final Object graph = new Object();
+    private final Map<TransactionId, Set<Request>> waiting = new HashMap<>(); // protected by graph
+
+    private volatile VictimPolicy victimPolicy;
+    private final AtomicLong deadlocks = new AtomicLong(0);
+    private final ArrayDeque<Long> recentDeadlocks = new ArrayDeque<>(); // protected by itself
+
+    public LockManager() {
+        this(VictimPolicy.YOUNGEST);
+    }
+
+    /**
+     * @param victimPolicy how to choose the transaction to abort on deadlock
+     */
+    public LockManager(VictimPolicy victimPolicy) {
+        this(victimPolicy, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param victimPolicy how to choose the transaction to abort on deadlock
+     * @param numStripes the number of independent partitions of the lock
+     *   table; rounded up to a power of two
+     */
+    public LockManager(VictimPolicy victimPolicy, int numStripes) {
+        this.victimPolicy = victimPolicy;
+        int n = 1;
+        while (n < numStripes)
+            n <<= 1;
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe();
+    }
+
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    /** @return the number of deadlocks detected since this lock manager was created */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    /** @return the average number of deadlocks detected per second over the last ten seconds */
+    public double getDeadlocksPerSecond() {
+        synchronized (recentDeadlocks) {
+            pruneRecentDeadlocks(System.currentTimeMillis());
+            return recentDeadlocks.size() * 1000.0 / RATE_WINDOW_MS;
+        }
+    }
+
+    /**
+     * Acquire a lock on a page for a transaction, blocking until it can be
+     * granted.  Re-requesting a lock that is already held (or a shared lock
+     * while holding the exclusive one) returns immediately.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive (write) lock, false for shared
+     * @throws TransactionAbortedException if the transaction was chosen as a
+     *   deadlock victim or the waiting thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        Stripe stripe = stripeFor(pid);
+        Request r;
+        LockState s;
+        stripe.latch.lock();
+        try {
+            s = stripe.table.computeIfAbsent(pid, k -> new LockState());
+            if (s.holds(tid, exclusive))
+                return;
+
+            boolean upgrade = exclusive && s.sharers.contains(tid);
+            if ((s.waiters.isEmpty() || upgrade) && s.compatible(tid, exclusive)) {
+                grant(s, pid, tid, exclusive);
+                return;
+            }
+
+            r = new Request(tid, stripe, exclusive, upgrade);
+            enqueue(s, r);
+            synchronized (graph) {
+                waiting.computeIfAbsent(tid, k -> new HashSet<>()).add(r);
+            }
+            updateBlockers(s);
+        } finally {
+            stripe.latch.unlock();
+        }
+
+        List<TransactionId> check = Collections.singletonList(tid);
+        try {
+            detectDeadlocks(check);
+            stripe.latch.lock();
+            try {
+                while (!r.granted && !r.aborted)
+                    r.ready.await();
+            } finally {
+                stripe.latch.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            check = finishWait(stripe, s, pid, r);
+            detectDeadlocks(check);
+        }
+        if (!r.granted)
+            throw new TransactionAbortedException();
+    }
+
+    /**
+     * Acquire a lock on a page for a transaction if it can be granted at
+     * once, without waiting: for callers that hold latches no other
+     * transaction's locks may be made to wait on.
+     *
+     * @return true if the lock is now held, false if the transaction would
+     *   have had to wait
+     */
+    public boolean tryAcquireLock(TransactionId tid, PageId pid, boolean exclusive) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockState s = stripe.table.computeIfAbsent(pid, k -> new LockState());
+            if (s.holds(tid, exclusive))
+                return true;
+            boolean upgrade = exclusive && s.sharers.contains(tid);
+            if ((s.waiters.isEmpty() || upgrade) && s.compatible(tid, exclusive)) {
+                grant(s, pid, tid, exclusive);
+                return true;
+            }
+            if (s.isFree())
+                stripe.table.remove(pid);
+            return false;
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, granting it to the
+     * next waiting requests.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        locksHeld.computeIfPresent(tid, (k, held) -> {
+            held.remove(pid);
+            return held.isEmpty() ? null : held;
+        });
+        detectDeadlocks(release(tid, pid));
+    }
+
+    /**
+     * Release every lock held by a transaction.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        Set<PageId> held = locksHeld.remove(tid);
+        if (held == null)
+            return;
+        List<TransactionId> check = new ArrayList<>();
+        for (PageId pid : held)
+            check.addAll(release(tid, pid));
+        detectDeadlocks(check);
+    }
+
+    /** Return true if the transaction holds a (shared or exclusive) lock on the page. */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockState s = stripe.table.get(pid);
+            return s != null && s.holds(tid, false);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /** Return true if the transaction holds an exclusive lock on the page. */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockState s = stripe.table.get(pid);
+            return s != null && tid.equals(s.owner);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the pages the transaction currently holds locks on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> held = locksHeld.get(tid);
+        return held == null ? Collections.emptySet() : new HashSet<>(held);
+    }
+
+    // stop tracking a request that is no longer waiting; if it was not
+    // granted (deadlock victim, interrupted, or the thread was stopped) take
+    // it out of the queue, since requests behind it may now be grantable
+    private List<TransactionId> finishWait(Stripe stripe, LockState s, PageId pid, Request r) {
+        stripe.latch.lock();
+        try {
+            synchronized (graph) {
+                Set<Request> rs = waiting.get(r.tid);
+                if (rs != null) {
+                    rs.remove(r);
+                    if (rs.isEmpty())
+                        waiting.remove(r.tid);
+                }
+            }
+            if (r.granted)
+                return Collections.emptyList();
+            r.aborted = true;
+            s.waiters.remove(r);
+            return grantWaiters(stripe, s, pid);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    // upgrades go ahead of ordinary requests but behind earlier upgrades
+    private void enqueue(LockState s, Request r) {
+        if (!r.upgrade) {
+            s.waiters.addLast(r);
+            return;
+        }
+        ListIterator<Request> it = s.waiters.listIterator();
+        while (it.hasNext()) {
+            if (!it.next().upgrade) {
+                it.previous();
+                break;
+            }
+        }
+        it.add(r);
+    }
+
+    private void grant(LockState s, PageId pid, TransactionId tid, boolean exclusive) {
+        if (exclusive) {
+            s.sharers.remove(tid);
+            s.owner = tid;
+        } else {
+            s.sharers.add(tid);
+        }
+        locksHeld.compute(tid, (k, held) -> {
+            if (held == null)
+                held = ConcurrentHashMap.newKeySet();
+            held.add(pid);
+            return held;
+        });
+    }
+
+    // returns the transactions whose waits changed and need a deadlock check
+    private List<TransactionId> release(TransactionId tid, PageId pid) {
+        Stripe stripe = stripeFor(pid);
+        stripe.latch.lock();
+        try {
+            LockState s = stripe.table.get(pid);
+            if (s == null)
+                return Collections.emptyList();
+            if (tid.equals(s.owner))
+                s.owner = null;
+            s.sharers.remove(tid);
+            return grantWaiters(stripe, s, pid);
+        } finally {
+            stripe.latch.unlock();
+        }
+    }
+
+    // called after the holders or the queue of a page changed: grant the
+    // longest prefix of the queue that is compatible with the current holders
+    // and with each other, and return the transactions still waiting on the
+    // page, whose waits-for edges have changed
+    private List<TransactionId> grantWaiters(Stripe stripe, LockState s, PageId pid) {
+        while (!s.waiters.isEmpty()) {
+            Request r = s.waiters.getFirst();
+            if (!s.compatible(r.tid, r.exclusive))
+                break;
+            s.waiters.removeFirst();
+            grant(s, pid, r.tid, r.exclusive);
+            r.granted = true;
+            r.ready.signal();
+        }
+        if (s.isFree()) {
+            stripe.table.remove(pid);
+            return Collections.emptyList();
+        }
+        if (s.waiters.isEmpty())
+            return Collections.emptyList();
+        updateBlockers(s);
+        List<TransactionId> check = new ArrayList<>();
+        for (Request r : s.waiters)
+            check.add(r.tid);
+        return check;
+    }
+
+    // recompute the waits-for edges of every request queued on a page
+    private void updateBlockers(LockState s) {
+        synchronized (graph) {
+            List<Request> ahead = new ArrayList<>();
+            for (Request r : s.waiters) {
+                r.blockers.clear();
+                if (s.owner != null && !s.owner.equals(r.tid))
+                    r.blockers.add(s.owner);
+                if (r.exclusive) {
+                    for (TransactionId t : s.sharers) {
+                        if (!t.equals(r.tid))
+                            r.blockers.add(t);
+                    }
+                }
+                for (Request a : ahead) {
+                    if ((a.exclusive || r.exclusive) && !a.tid.equals(r.tid))
+                        r.blockers.add(a.tid);
+                }
+                ahead.add(r);
+            }
+        }
+    }
+
+    /**
+     * Look for cycles in the waits-for graph through the given transactions
+     * and abort a victim on each one found.  A transaction can be on several
+     * cycles at once, so the search is repeated until none is left.  Must be
+     * called without holding any stripe latch, since aborting the victim
+     * takes the victim's.
+     */
+    private void detectDeadlocks(List<TransactionId> starts) {
+        for (TransactionId start : starts) {
+            while (breakCycle(start))
+                ;
+        }
+    }
+
+    // abort a victim on a cycle through start; returns false if there was
+    // no cycle, or if its victim stopped waiting before it could be aborted
+    private boolean breakCycle(TransactionId start) {
+        Set<Request> victims;
+        synchronized (graph) {
+            List<TransactionId> cycle = findCycle(start);
+            if (cycle == null)
+                return false;
+            TransactionId victim = chooseVictim(cycle);
+            victims = new HashSet<>(waiting.getOrDefault(victim, Collections.emptySet()));
+        }
+
+        boolean aborted = false;
+        for (Request r : victims) {
+            r.stripe.latch.lock();
+            try {
+                if (!r.granted && !r.aborted) {
+                    r.aborted = true;
+                    r.ready.signal();
+                    aborted = true;
+                }
+            } finally {
+                r.stripe.latch.unlock();
+            }
+        }
+
+        if (aborted) {
+            deadlocks.incrementAndGet();
+            long now = System.currentTimeMillis();
+            synchronized (recentDeadlocks) {
+                recentDeadlocks.addLast(now);
+                pruneRecentDeadlocks(now);
+            }
+        }
+        return aborted;
+    }
+
+    // iterative depth-first search for a path from start back to itself;
+    // requests that have been granted or aborted are treated as gone, so a
+    // cycle is only broken once
+    private List<TransactionId> findCycle(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(start);
+        parent.put(start, null);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            for (TransactionId next : waitsFor(t)) {
+                if (next.equals(start)) {
+                    List<TransactionId> cycle = new ArrayList<>();
+                    for (TransactionId c = t; c != null; c = parent.get(c))
+                        cycle.add(c);
+                    return cycle;
+                }
+                if (!parent.containsKey(next)) {
+                    parent.put(next, t);
+                    stack.push(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    private Set<TransactionId> waitsFor(TransactionId tid) {
+        Set<Request> rs = waiting.get(tid);
+        if (rs == null)
+            return Collections.emptySet();
+        Set<TransactionId> out = new HashSet<>();
+        for (Request r : rs) {
+            if (!r.aborted && !r.granted)
+                out.addAll(r.blockers);
+        }
+        return out;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        long victimCost = 0;
+        for (TransactionId t : cycle) {
+            long cost;
+            switch (victimPolicy) {
+            case FEWEST_LOCKS:
+                cost = locksHeld.getOrDefault(t, Collections.emptySet()).size();
+                break;
+            case LEAST_LOG:
+                cost = Database.getLogFile().getLogBytesWritten(t);
+                break;
+            default:
+                // younger transactions have larger ids
+                cost = -t.getId();
+                break;
+            }
+            // ties go to the youngest transaction
+            if (victim == null || cost < victimCost
+                    || (cost == victimCost && t.getId() > victim.getId())) {
+                victim = t;
+                victimCost = cost;
+            }
+        }
+        return victim;
+    }
+
+    private void pruneRecentDeadlocks(long now) {
+        while (!recentDeadlocks.isEmpty() && recentDeadlocks.peekFirst() < now - RATE_WINDOW_MS)
+            recentDeadlocks.removeFirst();
+    }
+}
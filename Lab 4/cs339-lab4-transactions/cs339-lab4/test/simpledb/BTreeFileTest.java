@@ -0,0 +1,356 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.IndexScan;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreePageId;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+    private static final int ROWS = 3000;
+    private static final int KEYS = 1000;
+
+    private TupleDesc td;
+    private List<List<Integer>> rows;
+    private BTreeFile tree;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages, for a tree several levels deep
+        BufferPool.setPageSize(256);
+        td = new TupleDesc(TYPES, new String[]{"key", "value"});
+        rows = new ArrayList<>();
+        Random r = new Random(339);
+        File text = SystemTestUtil.createTempFile("btree", ".txt");
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < ROWS; i++) {
+                List<Integer> row = Arrays.asList(r.nextInt(KEYS), i);
+                rows.add(row);
+                w.write(row.get(0) + "," + row.get(1) + "\n");
+            }
+        }
+        File f = SystemTestUtil.createTempFile("btree", ".dat");
+        BTreeFileEncoder.convert(text, f, BufferPool.getPageSize(), TYPES, ',', 0);
+        tree = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(tree, "t");
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private static List<Integer> values(Tuple t) {
+        return Arrays.asList(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+    }
+
+    /** @return the tuples of an iterator, checking that they come in key order */
+    private static List<List<Integer>> inKeyOrder(DbFileIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            List<Integer> t = values(it.next());
+            if (!result.isEmpty())
+                assertTrue(result.get(result.size() - 1).get(0) <= t.get(0));
+            result.add(t);
+        }
+        it.close();
+        return result;
+    }
+
+    private static boolean passes(int key, Predicate.Op op, int c) {
+        switch (op) {
+            case EQUALS: return key == c;
+            case LESS_THAN: return key < c;
+            case LESS_THAN_OR_EQ: return key <= c;
+            case GREATER_THAN: return key > c;
+            case GREATER_THAN_OR_EQ: return key >= c;
+            default: throw new IllegalArgumentException(op.toString());
+        }
+    }
+
+    /**
+     * A bulk-loaded tree holds every tuple, and scans them in key order.
+     */
+    @Test public void bulkLoadAndScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertTrue(tree.height(tid) >= 3);
+        SystemTestUtil.assertSameTuples(rows, inKeyOrder(tree.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index iterator returns just the tuples whose keys pass its
+     * predicate, including at and beyond the ends of the range of keys.
+     */
+    @Test public void indexRanges() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+        for (Predicate.Op op : ops) {
+            for (int c : new int[]{-1, 0, rows.get(0).get(0), KEYS / 2, KEYS - 1, KEYS}) {
+                List<List<Integer>> expected = new ArrayList<>();
+                for (List<Integer> row : rows) {
+                    if (passes(row.get(0), op, c))
+                        expected.add(row);
+                }
+                SystemTestUtil.assertSameTuples(expected, inKeyOrder(tree.indexIterator(tid, op, new IntField(c))));
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An index scan returns the same tuples as a filtered scan, and the
+     * optimizer uses one for a selective filter on the key.
+     */
+    @Test public void indexScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(KEYS - 50));
+        IndexScan scan = new IndexScan(tid, tree.getId(), "t", p);
+        assertEquals("t.key", scan.getTupleDesc().getFieldName(0));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            if (row.get(0) >= KEYS - 50)
+                expected.add(row);
+        }
+        SystemTestUtil.matchTuples(scan, expected);
+
+        TableStats.setTableStats("t", new TableStats(tree.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tree.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertTrue(((simpledb.execution.Operator) plan).getChildren()[0] instanceof IndexScan);
+
+        lp = new LogicalPlan();
+        lp.addScan(tree.getId(), "t");
+        lp.addFilter("t.key", Predicate.Op.NOT_EQUALS, "17");
+        lp.addProjectField("t.value", null);
+        plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        assertFalse(((simpledb.execution.Operator) plan).getChildren()[0] instanceof IndexScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int freePages(BTreeFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeHeaderPage header = (BTreeHeaderPage) Database.getBufferPool().getPage(tid,
+                new BTreePageId(f.getId(), 0, BTreePageId.HEADER), simpledb.common.Permissions.READ_ONLY);
+        int free = 0;
+        for (int i = 1; i < f.numPages(); i++) {
+            if (header.isFree(i))
+                free++;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return free;
+    }
+
+    /**
+     * Inserts into an empty tree split leaves and internal pages; deletes
+     * that empty leaves free them, and later inserts reuse them.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        File f = SystemTestUtil.createTempFile("btree", ".dat");
+        BTreeFile empty = new BTreeFile(f, 0, td);
+        Database.getCatalog().addTable(empty, "empty");
+
+        Transaction t = new Transaction();
+        t.start();
+        for (List<Integer> row : rows)
+            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(
+                    new int[]{row.get(0), row.get(1)}));
+        t.commit();
+        TransactionId tid = new TransactionId();
+        assertTrue(empty.height(tid) >= 3);
+        SystemTestUtil.assertSameTuples(rows, inKeyOrder(empty.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+        int pages = empty.numPages();
+
+        // delete the lower half of the keys
+        t = new Transaction();
+        t.start();
+        List<Tuple> doomed = new ArrayList<>();
+        DbFileIterator it = empty.indexIterator(t.getId(), Predicate.Op.LESS_THAN, new IntField(KEYS / 2));
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        t.commit();
+        int freed = freePages(empty);
+        assertTrue(freed > 0);
+        List<List<Integer>> left = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            if (row.get(0) >= KEYS / 2)
+                left.add(row);
+        }
+        tid = new TransactionId();
+        SystemTestUtil.assertSameTuples(left, inKeyOrder(empty.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // put them back, in the freed pages
+        t = new Transaction();
+        t.start();
+        for (Tuple d : doomed)
+            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(
+                    new int[]{((IntField) d.getField(0)).getValue(), ((IntField) d.getField(1)).getValue()}));
+        t.commit();
+        assertTrue(freePages(empty) < freed);
+        assertTrue(empty.numPages() < pages + freed);
+        tid = new TransactionId();
+        SystemTestUtil.assertSameTuples(rows, inKeyOrder(empty.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts and deletes that change the shape of the tree are rolled back
+     * on abort, even after their pages are flushed.
+     */
+    @Test public void abort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(t.getId(), tree.getId(), Utility.getHeapTuple(
+                    new int[]{KEYS / 2, ROWS + i}));
+        DbFileIterator it = tree.indexIterator(t.getId(), Predicate.Op.LESS_THAN, new IntField(KEYS / 4));
+        List<Tuple> doomed = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.assertSameTuples(rows, inKeyOrder(tree.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A split does not keep other transactions out of the header and
+     * internal pages until its transaction ends: another transaction can
+     * search the tree and split leaves elsewhere, and its changes stay when
+     * the first one aborts.
+     */
+    @Test public void splitReleasesInternalPages() throws Exception {
+        Transaction t1 = new Transaction();
+        t1.start();
+        int before = tree.numPages();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(t1.getId(), tree.getId(), Utility.getHeapTuple(
+                    new int[]{KEYS / 2, ROWS + i}));
+        assertTrue(tree.numPages() > before);
+
+        List<List<Integer>> added = new ArrayList<>();
+        Exception[] error = {null};
+        Thread other = new Thread(() -> {
+            try {
+                Transaction t2 = new Transaction();
+                t2.start();
+                assertTrue(tree.height(t2.getId()) >= 3);
+                for (int i = 0; i < 100; i++) {
+                    Database.getBufferPool().insertTuple(t2.getId(), tree.getId(), Utility.getHeapTuple(
+                            new int[]{1, ROWS + 100 + i}));
+                    added.add(Arrays.asList(1, ROWS + 100 + i));
+                }
+                inKeyOrder(tree.indexIterator(t2.getId(), Predicate.Op.LESS_THAN, new IntField(KEYS / 4)));
+                t2.commit();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        other.setDaemon(true);
+        other.start();
+        other.join(10000);
+        assertFalse("blocked by the split of another transaction", other.isAlive());
+        assertNull(error[0]);
+        t1.abort();
+
+        List<List<Integer>> expected = new ArrayList<>(rows);
+        expected.addAll(added);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.assertSameTuples(expected, inKeyOrder(tree.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages reused by inserts are made empty in memory, not on disk, so
+     * committing writes nothing to the file but zeroes for new pages at its
+     * end; after a crash the log restores them.
+     */
+    @Test public void reusedPagesAreLogged() throws Exception {
+        Database.resetBufferPool(1000);
+        Transaction t = new Transaction();
+        t.start();
+        List<Tuple> doomed = new ArrayList<>();
+        DbFileIterator it = tree.indexIterator(t.getId(), Predicate.Op.LESS_THAN, new IntField(KEYS / 2));
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        t.commit();
+        Database.getBufferPool().flushAllPages();
+        int freed = freePages(tree);
+        assertTrue(freed > 0);
+        byte[] before = Files.readAllBytes(tree.getFile().toPath());
+
+        t = new Transaction();
+        t.start();
+        for (Tuple d : doomed)
+            Database.getBufferPool().insertTuple(t.getId(), tree.getId(), Utility.getHeapTuple(
+                    new int[]{((IntField) d.getField(0)).getValue(), ((IntField) d.getField(1)).getValue()}));
+        t.commit();
+        assertTrue(freePages(tree) < freed);
+        // new pages past the end of the file are only reserved
+        byte[] after = Files.readAllBytes(tree.getFile().toPath());
+        assertArrayEquals(before, Arrays.copyOf(after, before.length));
+        for (int i = before.length; i < after.length; i++)
+            assertEquals(0, after[i]);
+
+        Database.reset();
+        tree = new BTreeFile(tree.getFile(), 0, td);
+        Database.getCatalog().addTable(tree, "t");
+        Database.getLogFile().recover();
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.assertSameTuples(rows, inKeyOrder(tree.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -1,7 +1,11 @@
 package simpledb;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -14,6 +18,7 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.index.HashIndexFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -97,6 +102,50 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /** @return a catalog file for one empty table, with the given suffix */
+    private static File schema(String suffix) throws IOException {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File f = new File(dir, "catalog.txt");
+        f.deleteOnExit();
+        Files.write(f.toPath(), Collections.singletonList("t (a int, b int) " + suffix));
+        return f;
+    }
+
+    /**
+     * A hash index whose file is missing is not built by loadSchema, which
+     * would write to the log before it could be recovered, but by
+     * buildIndexes, in a transaction of its own.
+     */
+    @Test public void loadSchemaDefersIndexBuild() throws Exception {
+        File f = schema("hash b");
+        int records = Database.getLogFile().getTotalRecords();
+        Database.getCatalog().loadSchema(f.getPath());
+        int t = Database.getCatalog().getTableId("t");
+        assertNull(Database.getCatalog().getIndex(t, 1));
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+
+        Database.getCatalog().buildIndexes();
+        HashIndexFile index = Database.getCatalog().getIndex(t, 1);
+        assertNotNull(index);
+        assertTrue(index.numPages() > 0);
+        // BEGIN and COMMIT
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        index.getFile().deleteOnExit();
+
+        // once built, loading the schema again adds it straight away
+        Database.getCatalog().loadSchema(f.getPath());
+        assertNotNull(Database.getCatalog().getIndex(Database.getCatalog().getTableId("t"), 1));
+    }
+
+    /**
+     * A hash index on an unknown field is an error, not an exit.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void loadSchemaUnknownHashField() throws Exception {
+        Database.getCatalog().loadSchema(schema("hash c").getPath());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,207 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompressedPageTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+    private static final String[] CITIES = {"Chicago", "Evanston", "Skokie", "Wilmette", "Oak Park"};
+    private static final int ROWS = 5000;
+
+    private TupleDesc td;
+    private List<String> rows;
+    private HeapFile heap;
+    private CompressedHeapFile compressed;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(TYPES);
+        rows = new ArrayList<>();
+        Random r = new Random(339);
+        File text = SystemTestUtil.createTempFile("compressed", ".txt");
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < ROWS; i++) {
+                // ids in order, a few cities, ages in a small range and a
+                // status that changes rarely
+                String row = i + "," + CITIES[r.nextInt(CITIES.length)] + "," + (20 + r.nextInt(40))
+                        + "," + (i < ROWS / 2 ? "active" : "closed");
+                rows.add(row.replace(',', '\t'));
+                w.write(row + "\n");
+            }
+        }
+        File hf = SystemTestUtil.createTempFile("compressed", ".dat");
+        HeapFileEncoder.convert(text, hf, BufferPool.getPageSize(), TYPES.length, TYPES, ',');
+        heap = new HeapFile(hf, td);
+        Database.getCatalog().addTable(heap, UUID.randomUUID().toString());
+        File cf = SystemTestUtil.createTempFile("compressed", ".dat");
+        HeapFileEncoder.convertCompressed(text, cf, BufferPool.getPageSize(), TYPES, ',');
+        compressed = new CompressedHeapFile(cf, td);
+        Database.getCatalog().addTable(compressed, UUID.randomUUID().toString());
+    }
+
+    private static List<String> sorted(OpIterator it) throws DbException, TransactionAbortedException {
+        List<String> values = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            values.add(it.next().toString());
+        it.close();
+        Collections.sort(values);
+        return values;
+    }
+
+    private List<String> expected(java.util.function.Predicate<String[]> keep) {
+        List<String> values = new ArrayList<>();
+        for (String row : rows) {
+            if (keep.test(row.split("\t")))
+                values.add(row);
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    /**
+     * A compressed table holds the same tuples in far fewer pages, and its
+     * pages survive a round trip through getPageData.
+     */
+    @Test public void sameTuplesInFewerPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        assertEquals(expected(v -> true), sorted(new SeqScan(tid, compressed.getId())));
+        assertTrue(compressed.numPages() * 5 < heap.numPages());
+
+        CompressedPage page = (CompressedPage) compressed.readPage(new HeapPageId(compressed.getId(), 0));
+        CompressedPage copy = new CompressedPage(page.getId(), page.getPageData());
+        assertEquals(page.getNumSlots(), copy.getNumSlots());
+        for (int i = 0; i < page.getNumSlots(); i++)
+            assertArrayEquals(page.getSlotData(i), copy.getSlotData(i));
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A Filter over a scan of a compressed table hands its predicate to the
+     * scan, which compares strings by dictionary code, and returns the same
+     * tuples as filtering each one.
+     */
+    @Test public void filterOnCodes() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate evanston = new Predicate(1, Predicate.Op.EQUALS, new StringField("Evanston", Type.STRING_LEN));
+        SeqScan scan = new SeqScan(tid, compressed.getId());
+        assertEquals(expected(v -> v[1].equals("Evanston")), sorted(new Filter(evanston, scan)));
+        assertTrue(scan.pushPredicate(evanston));
+
+        Predicate after = new Predicate(1, Predicate.Op.GREATER_THAN, new StringField("Oak Park", Type.STRING_LEN));
+        assertEquals(expected(v -> v[1].compareTo("Oak Park") > 0),
+                sorted(new Filter(after, new SeqScan(tid, compressed.getId()))));
+
+        Predicate closed = new Predicate(3, Predicate.Op.EQUALS, new StringField("closed", Type.STRING_LEN));
+        assertEquals(expected(v -> v[3].equals("closed")),
+                sorted(new Filter(closed, new SeqScan(tid, compressed.getId()))));
+
+        Predicate nowhere = new Predicate(1, Predicate.Op.EQUALS, new StringField("Gary", Type.STRING_LEN));
+        assertEquals(Collections.emptyList(), sorted(new Filter(nowhere, new SeqScan(tid, compressed.getId()))));
+
+        Predicate old = new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(50));
+        assertEquals(expected(v -> Integer.parseInt(v[2]) >= 50),
+                sorted(new Filter(old, new SeqScan(tid, compressed.getId()))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String city, int age, String status) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(city, Type.STRING_LEN));
+        t.setField(2, new IntField(age));
+        t.setField(3, new StringField(status, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Inserts, including of values not yet in a page's dictionary, and
+     * deletes are kept on commit and rolled back on abort.
+     */
+    @Test public void insertDeleteAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), compressed.getId(), tuple(-1, "Gary", 1000000, "new"));
+        DbFileIterator it = compressed.iterator(t.getId());
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), first);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(expected(v -> true), sorted(new SeqScan(tid, compressed.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+
+        t = new Transaction();
+        t.start();
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(t.getId(), compressed.getId(), tuple(ROWS + i, "Gary", i, "new"));
+        it = compressed.iterator(t.getId());
+        it.open();
+        Tuple deleted = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(t.getId(), deleted);
+        t.commit();
+
+        tid = new TransactionId();
+        List<String> expected = expected(v -> !String.join("\t", v).equals(deleted.toString()));
+        for (int i = 0; i < 100; i++)
+            expected.add(tuple(ROWS + i, "Gary", i, "new").toString());
+        Collections.sort(expected);
+        assertEquals(expected, sorted(new SeqScan(tid, compressed.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A page takes tuples until the next might not fit, and each column is
+     * compressed to fit far more tuples than a HeapPage holds.
+     */
+    @Test public void fillPage() throws Exception {
+        CompressedPage page = new CompressedPage(new HeapPageId(compressed.getId(), 0),
+                new byte[BufferPool.getPageSize()]);
+        int n = 0;
+        while (page.hasRoom())
+            page.insertTuple(tuple(n++, CITIES[n % CITIES.length], n % 7, "open"));
+        int heapTuples = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * heapTuples);
+        assertEquals(n, page.getNumTuples());
+
+        CompressedPage copy = new CompressedPage(page.getId(), page.getPageData());
+        Iterator<Tuple> a = page.iterator(), b = copy.iterator();
+        while (a.hasNext())
+            assertEquals(a.next().toString(), b.next().toString());
+        assertFalse(b.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageTest.class);
+    }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int n) {
+        return new HeapPageId(1, n);
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        EvictionPolicy p = new ClockEvictionPolicy(3);
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+
+        // the first sweep clears every bit, then the hand stops at page 0
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(0));
+        p.pageAdded(pid(3));
+
+        // page 1 is referenced again, so page 2 goes before it
+        p.pageHit(pid(1));
+        assertEquals(pid(2), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * LRU-K evicts pages seen fewer than K times before hot pages, even if
+     * the hot pages were referenced longer ago.
+     */
+    @Test public void lruKScanResistance() {
+        EvictionPolicy p = new LRUKEvictionPolicy(2);
+        p.pageAdded(pid(0));
+        p.pageHit(pid(0));
+        for (int i = 1; i <= 3; i++)
+            p.pageAdded(pid(i));
+
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(1));
+        assertEquals(pid(2), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * LRU-K keeps the history of a recently evicted page, so a hot page that
+     * is read again comes back hot; with no history retained it comes back
+     * cold.
+     */
+    @Test public void lruKRetainedHistory() {
+        for (int retained : new int[]{1, 0}) {
+            EvictionPolicy p = new LRUKEvictionPolicy(2, retained);
+            p.pageAdded(pid(0));
+            p.pageHit(pid(0));
+            p.pageRemoved(pid(0));
+            p.pageAdded(pid(0));
+            p.pageAdded(pid(1));
+            assertEquals(retained > 0 ? pid(1) : pid(0), p.chooseVictim(x -> true));
+        }
+    }
+
+    /**
+     * 2Q promotes a page into the main queue when it comes back while its id
+     * is still remembered in the ghost queue.
+     */
+    @Test public void twoQGhostPromotion() {
+        EvictionPolicy p = new TwoQEvictionPolicy(4, 1, 4);
+        p.pageAdded(pid(0));
+        p.pageRemoved(pid(0));
+        p.pageAdded(pid(0));   // back from A1out into Am
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+
+        // A1in is over its target, so it gives up its oldest page first
+        assertEquals(pid(1), p.chooseVictim(x -> true));
+        p.pageRemoved(pid(1));
+        p.pageRemoved(pid(2));
+        assertEquals(pid(0), p.chooseVictim(x -> true));
+    }
+
+    /**
+     * No policy may return a page that the pool says cannot be evicted.
+     */
+    @Test public void skipsUnevictablePages() {
+        EvictionPolicy[] policies = {
+                new ClockEvictionPolicy(3), new LRUKEvictionPolicy(), new TwoQEvictionPolicy(3)
+        };
+        for (EvictionPolicy p : policies) {
+            for (int i = 0; i < 3; i++)
+                p.pageAdded(pid(i));
+            assertEquals(pid(1), p.chooseVictim(x -> x.equals(pid(1))));
+            assertNull(p.chooseVictim(x -> false));
+        }
+    }
+
+    /**
+     * The pool reports hits and misses through its policy.
+     */
+    @Test public void hitMissCounters() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(2);
+        assertTrue(bp.getEvictionPolicy() instanceof ClockEvictionPolicy);
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < hf.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), hf.numPages() - 1), Permissions.READ_ONLY);
+        // the last request repeats the previous one, so it must be a hit
+        assertTrue(bp.getEvictionPolicy().getMisses() >= hf.numPages());
+        assertTrue(bp.getEvictionPolicy().getHits() >= 1);
+        assertEquals(2 * hf.numPages() + 1,
+                bp.getEvictionPolicy().getHits() + bp.getEvictionPolicy().getMisses());
+    }
+
+    /**
+     * An insert references its page once, through getPage, so for LRU-K it
+     * stays cold and goes before a page read after it, and for either
+     * policy the pool counts a single miss.
+     */
+    @Test public void insertReferencesPageOnce() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        EvictionPolicy[] policies = { new LRUKEvictionPolicy(2), new TwoQEvictionPolicy(3) };
+        for (EvictionPolicy p : policies) {
+            BufferPool bp = Database.resetBufferPool(3, p);
+            TransactionId tid = new TransactionId();
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{1, 2}));
+            assertEquals(0, p.getHits());
+            assertEquals(1, p.getMisses());
+
+            bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+            if (p instanceof LRUKEvictionPolicy)
+                assertEquals(new HeapPageId(hf.getId(), 0), p.chooseVictim(x -> true));
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private File file;
+    private LogFile log;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("groupcommit", ".log");
+        file.deleteOnExit();
+        log = new LogFile(file);
+    }
+
+    @After public void tearDown() {
+        log.disableGroupCommit();
+    }
+
+    /** Commits one transaction on a separate thread. */
+    private static class Committer extends Thread {
+        final LogFile log;
+        final TransactionId tid = new TransactionId();
+        volatile boolean done = false;
+        volatile Exception error = null;
+
+        Committer(LogFile log) {
+            this.log = log;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                log.logXactionBegin(tid);
+                log.logCommit(tid);
+                done = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Without group commit every commit forces the log.
+     */
+    @Test public void forcesEveryCommit() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logCommit(tid);
+        }
+        assertEquals(3, log.getForceCount());
+    }
+
+    /**
+     * A full batch is forced at once, without waiting out the delay.
+     */
+    @Test public void fullBatchForcedOnce() throws Exception {
+        log.enableGroupCommit(8, 60 * 1000 * 1000L);
+        List<Committer> committers = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            committers.add(new Committer(log));
+        for (Committer c : committers) {
+            c.join(10000);
+            assertNull(c.error);
+            assertTrue(c.done);
+        }
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * A lone commit is forced once the delay runs out.
+     */
+    @Test public void partialBatchForcedAfterDelay() throws Exception {
+        log.enableGroupCommit(100, 50 * 1000);
+        Committer c = new Committer(log);
+        c.join(10000);
+        assertTrue(c.done);
+        assertEquals(1, log.getForceCount());
+    }
+
+    /**
+     * Turning group commit off releases the commits that were waiting.
+     */
+    @Test public void disableReleasesWaiters() throws Exception {
+        log.enableGroupCommit(100, 60 * 1000 * 1000L);
+        Committer c = new Committer(log);
+        Thread.sleep(100);
+        assertFalse(c.done);
+        log.disableGroupCommit();
+        c.join(10000);
+        assertTrue(c.done);
+        assertFalse(log.isGroupCommitEnabled());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private static final int KEYS = 500;
+
+    private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    private List<Tuple> left, right;
+
+    private Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new StringField("k" + key, Type.STRING_LEN));
+        t.setField(2, new IntField(value));
+        return t;
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(339);
+        left = new ArrayList<>();
+        right = new ArrayList<>();
+        for (int i = 0; i < 3000; i++)
+            left.add(tuple(r.nextInt(KEYS), i));
+        // one key is far more common than the others, so its partition of
+        // the left child does not fit in a small budget
+        for (int i = 0; i < 800; i++)
+            left.add(tuple(7, 3000 + i));
+        for (int i = 0; i < 2000; i++)
+            right.add(tuple(r.nextInt(KEYS), i));
+    }
+
+    private HashEquiJoin join(int field, int budget) {
+        return new HashEquiJoin(new JoinPredicate(field, Predicate.Op.EQUALS, field),
+                new TupleIterator(td, left), new TupleIterator(td, right), budget);
+    }
+
+    /** @return the rows of a join, as strings, sorted */
+    private static List<String> rows(OpIterator op) throws Exception {
+        List<String> result = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            result.add(op.next().toString());
+        op.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return the rows of a join, read a batch at a time, sorted */
+    private static List<String> batchRows(BatchOpIterator op) throws Exception {
+        List<String> result = new ArrayList<>();
+        TupleBatch b;
+        while ((b = op.nextBatch()) != null) {
+            assertTrue(b.size() > 0);
+            for (int i = 0; i < b.size(); i++)
+                result.add(b.getTuple(b.row(i)).toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * A join whose left child fits in its budget does not spill.
+     */
+    @Test public void inMemory() throws Exception {
+        HashEquiJoin j = join(0, HashEquiJoin.MAP_SIZE);
+        j.open();
+        while (j.hasNext())
+            j.next();
+        assertFalse(j.hasSpilled());
+        j.close();
+    }
+
+    /**
+     * Joins that partition their children to disk return the same tuples
+     * as a nested loops join, whether a partition fits in the budget, is
+     * joined in chunks, or the budget holds a single tuple, and on int or
+     * string fields.
+     */
+    @Test public void spilled() throws Exception {
+        for (int field : new int[]{0, 1}) {
+            List<String> expected = rows(new Join(new JoinPredicate(field, Predicate.Op.EQUALS, field),
+                    new TupleIterator(td, left), new TupleIterator(td, right)));
+            assertEquals(expected, rows(join(field, HashEquiJoin.MAP_SIZE)));
+            for (int budget : new int[]{1000, 100, 1}) {
+                HashEquiJoin j = join(field, budget);
+                assertEquals(expected, rows(j));
+
+                j.open();
+                assertTrue(j.hasSpilled());
+                assertEquals(expected, batchRows(j));
+                j.close();
+            }
+        }
+    }
+
+    /**
+     * A spilled join can be rewound, part way through reading it either
+     * way, and returns all its tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        List<String> expected = rows(join(0, HashEquiJoin.MAP_SIZE));
+        HashEquiJoin j = join(0, 100);
+        j.open();
+        for (int i = 0; i < expected.size() / 2; i++)
+            j.next();
+        j.rewind();
+        List<String> again = new ArrayList<>();
+        while (j.hasNext())
+            again.add(j.next().toString());
+        Collections.sort(again);
+        assertEquals(expected, again);
+
+        j.nextBatch();
+        j.rewind();
+        assertEquals(expected, batchRows(j));
+        j.close();
+        assertFalse(j.hasSpilled());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,245 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.HashHeaderPage;
+import simpledb.index.HashIndexFile;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+    private static final int KEYS = 500;
+
+    private List<List<Integer>> rows;
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages, for many buckets with overflow pages
+        BufferPool.setPageSize(256);
+        rows = new ArrayList<>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, KEYS, null, rows, "c");
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    /** @return an empty index on the first field of the table, in the catalog */
+    private HashIndexFile emptyIndex() throws IOException {
+        HashIndexFile index = new HashIndexFile(SystemTestUtil.createTempFile("hash", ".dat"), table, 0);
+        Database.getCatalog().addIndex(index);
+        return index;
+    }
+
+    private static List<List<Integer>> tuples(DbFileIterator it) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    /** Every key, and some that are not in the table, looks up its tuples. */
+    private static void checkLookups(HashIndexFile index, List<List<Integer>> rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key = -1; key <= KEYS; key++) {
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> row : rows) {
+                if (row.get(0) == key)
+                    expected.add(row);
+            }
+            SystemTestUtil.assertSameTuples(expected, tuples(index.lookup(tid, new IntField(key))));
+        }
+        assertEquals(rows.size(), tuples(index.iterator(tid)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int numBuckets(HashIndexFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashHeaderPage header = (HashHeaderPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(index.getId(), 0), Permissions.READ_ONLY);
+        int n = header.getNumBuckets();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * A built index finds the tuples with each key.
+     */
+    @Test public void buildAndLookup() throws Exception {
+        HashIndexFile index = new HashIndexFile(SystemTestUtil.createTempFile("hash", ".dat"), table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addIndex(index);
+        assertTrue(numBuckets(index) > 1);
+        checkLookups(index, rows);
+    }
+
+    /**
+     * Building an index whose empty header was read through the buffer pool
+     * replaces the cached header, so later inserts see the built buckets.
+     */
+    @Test public void buildAfterRead() throws Exception {
+        // a pool that keeps the header while the table is read
+        Database.resetBufferPool(1000);
+        HashIndexFile index = emptyIndex();
+        assertEquals(0, numBuckets(index));
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(numBuckets(index) > 1);
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{KEYS, ROWS}));
+        t.commit();
+        rows.add(Arrays.asList(KEYS, ROWS));
+        checkLookups(index, rows);
+    }
+
+    /**
+     * Inserts into the table fill an empty index, which splits its buckets
+     * as it grows; deletes from the table remove their entries.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        rows.clear();
+        table = SystemTestUtil.createRandomHeapFile(2, 0, KEYS, null, rows, "c");
+        HashIndexFile index = emptyIndex();
+        Random r = new Random(339);
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> row = Arrays.asList(r.nextInt(KEYS), i);
+            rows.add(row);
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{row.get(0), row.get(1)}));
+        }
+        t.commit();
+        int buckets = numBuckets(index);
+        assertTrue(buckets > 10);
+        checkLookups(index, rows);
+
+        // delete the lower half of the keys
+        t = new Transaction();
+        t.start();
+        List<Tuple> doomed = new ArrayList<>();
+        DbFileIterator it = table.iterator(t.getId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple d = it.next();
+            if (((IntField) d.getField(0)).getValue() < KEYS / 2)
+                doomed.add(d);
+        }
+        it.close();
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        t.commit();
+        rows.removeIf(row -> row.get(0) < KEYS / 2);
+        checkLookups(index, rows);
+        assertEquals(buckets, numBuckets(index));
+    }
+
+    /**
+     * Inserts that split buckets, and deletes, are rolled back on abort,
+     * even after their pages are flushed.
+     */
+    @Test public void abort() throws Exception {
+        HashIndexFile index = new HashIndexFile(SystemTestUtil.createTempFile("hash", ".dat"), table, 0);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addIndex(index);
+        int buckets = numBuckets(index);
+
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{i, ROWS + i}));
+        DbFileIterator it = index.lookup(t.getId(), new IntField(rows.get(0).get(0)));
+        List<Tuple> doomed = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            doomed.add(it.next());
+        it.close();
+        for (Tuple d : doomed)
+            Database.getBufferPool().deleteTuple(t.getId(), d);
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        assertEquals(buckets, numBuckets(index));
+        checkLookups(index, rows);
+    }
+
+    /**
+     * An index nested loop join returns the same tuples as a nested loop
+     * join, applying the filters over the inner scan, and the optimizer
+     * uses one for an equality join on an indexed field.
+     */
+    @Test public void indexNestedLoopJoin() throws Exception {
+        HashIndexFile index = emptyIndex();
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        List<List<Integer>> outerRows = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 200, KEYS + 20, null, outerRows, "c");
+
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        Predicate f = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(KEYS / 2));
+        OpIterator expected = new Join(p, new SeqScan(tid, outer.getId(), "o"),
+                new Filter(f, new SeqScan(tid, table.getId(), "t")));
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(p, new SeqScan(tid, outer.getId(), "o"),
+                new Filter(f, new SeqScan(tid, table.getId(), "t")));
+        assertEquals(expected.getTupleDesc(), join.getTupleDesc());
+        List<List<Integer>> result = new ArrayList<>();
+        expected.open();
+        while (expected.hasNext())
+            result.add(SystemTestUtil.tupleToList(expected.next()));
+        expected.close();
+        assertFalse(result.isEmpty());
+        SystemTestUtil.matchTuples(join, result);
+        SystemTestUtil.matchTuples(join, result);
+
+        // only equality, and only on the indexed field
+        assertFalse(IndexNestedLoopJoin.canProbe(Predicate.Op.LESS_THAN, 0,
+                new SeqScan(tid, table.getId(), "t")));
+        assertFalse(IndexNestedLoopJoin.canProbe(Predicate.Op.EQUALS, 1,
+                new SeqScan(tid, table.getId(), "t")));
+
+        LogicalJoinNode lj = new LogicalJoinNode("o", "t", "o.c1", "t.c0", Predicate.Op.EQUALS);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "o"),
+                new SeqScan(tid, table.getId(), "t")) instanceof IndexNestedLoopJoin);
+        assertFalse(JoinOptimizer.instantiateJoin(lj.swapInnerOuter(), new SeqScan(tid, table.getId(), "t"),
+                new SeqScan(tid, outer.getId(), "o")) instanceof IndexNestedLoopJoin);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
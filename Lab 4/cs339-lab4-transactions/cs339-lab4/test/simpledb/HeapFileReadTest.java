@@ -125,6 +125,24 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A memory-mapped HeapFile reads the same pages, including one added
+     * after the file was first mapped.
+     */
+    @Test
+    public void memoryMappedReadPage() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped);
+        assertTrue(mapped.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        mapped.writePage(new HeapPage(next, HeapPage.createEmptyPageData()));
+        assertEquals(2, mapped.numPages());
+        assertEquals(504, ((HeapPage) mapped.readPage(next)).getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
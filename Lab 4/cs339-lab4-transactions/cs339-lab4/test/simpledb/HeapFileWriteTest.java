@@ -7,12 +7,14 @@ import org.junit.Test;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
+import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
 import java.util.Arrays;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +52,30 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts skip pages the free-space map knows are full, without
+     * locking them, and the map is kept across reopening the table.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 1, null, null);
+        HeapPageId first = new HeapPageId(hf.getId(), 0);
+        HeapPageId second = new HeapPageId(hf.getId(), 1);
+        // writing the full pages records them in the map
+        hf.writePage(hf.readPage(first));
+        hf.writePage(hf.readPage(second));
+
+        hf = Utility.openHeapFile(2, hf.getFile());
+        TransactionId other = new TransactionId();
+        Database.getBufferPool().getPage(other, first, Permissions.READ_WRITE);
+        Database.getBufferPool().getPage(other, second, Permissions.READ_WRITE);
+        try {
+            List<Page> dirtied = hf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+            assertEquals(2, dirtied.get(0).getId().getPageNumber());
+        } finally {
+            Database.getBufferPool().transactionComplete(other);
+        }
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -9,10 +9,12 @@ import simpledb.systemtest.SystemTestUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +125,44 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getInt() and HeapPage.getField()
+     */
+    @Test public void getInt() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; ++row) {
+            for (int col = 0; col < 2; ++col) {
+                assertEquals(EXAMPLE_VALUES[row][col], page.getInt(row, col));
+                assertEquals(new IntField(EXAMPLE_VALUES[row][col]), page.getField(row, col));
+            }
+        }
+    }
+
+    /**
+     * Changing a page leaves its before image as it was.
+     */
+    @Test public void beforeImageUnchanged() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+        assertEquals(485, page.getNumEmptySlots());
+        assertEquals(484, page.getBeforeImage().getNumEmptySlots());
+        assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
+    /**
+     * writePageData puts the same bytes as getPageData into a reused buffer.
+     */
+    @Test public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        ByteBuffer buf = ByteBuffer.allocate(page.getPageDataSize() + 4);
+        buf.putInt(42);
+        page.writePageData(buf);
+        assertFalse(buf.hasRemaining());
+        assertArrayEquals(EXAMPLE_DATA, Arrays.copyOfRange(buf.array(), 4, buf.capacity()));
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -11,8 +11,9 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
-import simpledb.execution.Predicate;
+import simpledb.execution.*;
 import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.JoinOptimizer.JoinAlgorithm;
 import simpledb.optimizer.LogicalJoinNode;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
@@ -629,4 +630,74 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /** @return the join operator in a physical plan, or null */
+    private static OpIterator findJoin(OpIterator plan) {
+        if (plan instanceof Join || plan instanceof BlockNestedLoopJoin || plan instanceof HashEquiJoin
+                || plan instanceof SortMergeJoin)
+            return plan;
+        if (!(plan instanceof Operator))
+            return null;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            OpIterator j = findJoin(child);
+            if (j != null)
+                return j;
+        }
+        return null;
+    }
+
+    /**
+     * Verify that each join is given the algorithm that estimateJoinCost
+     * finds cheapest, and is instantiated with it
+     */
+    @Test
+    public void chooseJoinAlgorithmTest() throws ParsingException, IOException {
+        Assert.assertEquals(JoinAlgorithm.HASH, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.EQUALS, 1000, 10000, 100.0, 1000.0, false, false));
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.LESS_THAN, 1000, 10000, 100.0, 1000.0, false, false));
+        Assert.assertEquals(JoinAlgorithm.BLOCK_NESTED_LOOP, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.NOT_EQUALS, 1000, 10000, 100.0, 1000.0, false, false));
+        Assert.assertEquals(JoinAlgorithm.NESTED_LOOP, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.LESS_THAN, 1, 10000, 100.0, 1000.0, false, false));
+        // sides that are already sorted make merging them as cheap as hashing
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE, JoinOptimizer.chooseJoinAlgorithm(
+                Predicate.Op.EQUALS, 1000, 10000, 100.0, 1000.0, true, true));
+
+        // spilling a hash join that does not fit in memory costs extra
+        int big = HashEquiJoin.MAP_SIZE * 2;
+        Assert.assertTrue(JoinOptimizer.estimateJoinCost(JoinAlgorithm.HASH, Predicate.Op.EQUALS,
+                big, 10, 1000.0, 10.0, false, false)
+                > JoinOptimizer.estimateJoinCost(JoinAlgorithm.HASH, Predicate.Op.EQUALS,
+                10, big, 10.0, 1000.0, false, false));
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, "
+                + tableName2 + " t2 WHERE t1.c1 = t2.c2;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertTrue(findJoin(plan) instanceof HashEquiJoin);
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, "
+                + tableName2 + " t2 WHERE t1.c1 < t2.c2;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertTrue(findJoin(plan) instanceof SortMergeJoin);
+        plan = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, "
+                + tableName2 + " t2 WHERE t1.c1 <> t2.c2;").physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertTrue(findJoin(plan) instanceof BlockNestedLoopJoin);
+    }
+
+    /**
+     * Verify that a join of the output of a sort-merge join on the same
+     * field is a sort-merge join that does not sort it again
+     */
+    @Test
+    public void interestingOrderTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        OpIterator plan = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, "
+                + tableName1 + " t2, " + tableName1 + " t3 WHERE t1.c1 < t2.c1 AND t2.c1 < t3.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        SortMergeJoin top = (SortMergeJoin) findJoin(plan);
+        Assert.assertTrue(top.getChildren()[0] instanceof SortMergeJoin
+                || top.getChildren()[1] instanceof SortMergeJoin);
+        Assert.assertEquals(1, top.numSorts());
+    }
 }
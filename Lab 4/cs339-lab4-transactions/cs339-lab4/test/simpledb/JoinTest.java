@@ -5,14 +5,21 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.execution.BlockNestedLoopJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
 import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -112,6 +119,97 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext(), with blocks smaller than,
+   * and as large as, the outer child
+   */
+  @Test public void blockNestedLoopJoin() throws Exception {
+    for (int blockSize : new int[] { 1, 3, 4 }) {
+      JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+      BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2, blockSize);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      gtJoin.close();
+
+      op.rewind();
+      int count = 0;
+      while (op.hasNext()) {
+        assertNotNull(op.next());
+        count++;
+      }
+      assertEquals(11, count);
+      op.close();
+    }
+  }
+
+  /** @return the tuples of an iterator, as strings, sorted */
+  private static List<String> sortedTuples(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<>();
+    op.open();
+    while (op.hasNext())
+      result.add(op.next().toString());
+    op.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext(), on each predicate it supports,
+   * with duplicate values on both sides
+   */
+  @Test public void sortMergeJoin() throws Exception {
+    int[] left = { 3, 0, 1, 1, 4, 2, 1, 3, 5, 4, 2, 5 };
+    int[] right = { 1, 0, 4, 1, 0, 2, 3, 3, 1, 4, 6, 5, 2, 6 };
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ }) {
+      JoinPredicate pred = new JoinPredicate(0, op, 1);
+      List<String> expected = sortedTuples(new Join(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right)));
+      SortMergeJoin smj = new SortMergeJoin(pred,
+          TestUtil.createTupleList(2, left), TestUtil.createTupleList(2, right));
+      assertEquals(2, smj.numSorts());
+      assertEquals(expected, sortedTuples(smj));
+
+      // a rewound join returns the same tuples, in its child1 order
+      smj.open();
+      List<String> again = new ArrayList<>();
+      Tuple prev = null;
+      smj.rewind();
+      while (smj.hasNext()) {
+        Tuple t = smj.next();
+        if (prev != null)
+          assertTrue(prev.getField(0).equals(t.getField(0))
+              || prev.getField(0).compare(smj.isAscending() ? Predicate.Op.LESS_THAN
+                  : Predicate.Op.GREATER_THAN, t.getField(0)));
+        prev = t;
+        again.add(t.toString());
+      }
+      smj.close();
+      Collections.sort(again);
+      assertEquals(expected, again);
+    }
+  }
+
+  /**
+   * Unit test for SortMergeJoin reading children that are already in order
+   */
+  @Test public void sortMergeJoinSorted() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin smj = new SortMergeJoin(pred, new OrderBy(0, true, scan1),
+        new OrderBy(0, false, scan2));
+    assertEquals(1, smj.numSorts());
+    smj.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, smj);
+    smj.close();
+
+    // its output is in order of both join fields
+    assertTrue(OrderBy.isSorted(smj, 0, true));
+    assertTrue(OrderBy.isSorted(smj, width1, true));
+    assertEquals(0, new SortMergeJoin(pred, smj, new OrderBy(0, true, eqJoin)).numSorts());
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,245 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private LockManager lm;
+    private PageId pid;
+
+    @Before public void setUp() {
+        lm = new LockManager();
+        pid = new HeapPageId(1, 0);
+    }
+
+    /** Acquires a lock on a separate thread so that the test can watch it block. */
+    private static class Acquirer extends Thread {
+        final LockManager lm;
+        final TransactionId tid;
+        final PageId pid;
+        final boolean exclusive;
+        volatile boolean acquired = false;
+        volatile Exception error = null;
+
+        Acquirer(LockManager lm, TransactionId tid, PageId pid, boolean exclusive) {
+            this.lm = lm;
+            this.tid = tid;
+            this.pid = pid;
+            this.exclusive = exclusive;
+            setDaemon(true);
+            start();
+        }
+
+        public void run() {
+            try {
+                lm.acquireLock(tid, pid, exclusive);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * A blocked request is woken once the conflicting lock is released, and
+     * consecutive shared requests are granted together.
+     */
+    @Test public void grantsQueuedSharedBatch() throws Exception {
+        TransactionId writer = new TransactionId();
+        lm.acquireLock(writer, pid, true);
+
+        Acquirer r1 = new Acquirer(lm, new TransactionId(), pid, false);
+        Acquirer r2 = new Acquirer(lm, new TransactionId(), pid, false);
+        Thread.sleep(TIMEOUT);
+        assertFalse(r1.acquired);
+        assertFalse(r2.acquired);
+
+        lm.releaseAllLocks(writer);
+        r1.join(TIMEOUT * 10);
+        r2.join(TIMEOUT * 10);
+        assertTrue(r1.acquired);
+        assertTrue(r2.acquired);
+        assertFalse(lm.holdsLock(writer, pid));
+    }
+
+    /**
+     * Readers that arrive after a queued writer wait behind it, so writers
+     * are not starved.
+     */
+    @Test public void fifoPreventsWriterStarvation() throws Exception {
+        TransactionId reader = new TransactionId();
+        lm.acquireLock(reader, pid, false);
+
+        TransactionId writerTid = new TransactionId();
+        Acquirer writer = new Acquirer(lm, writerTid, pid, true);
+        Thread.sleep(TIMEOUT);
+        Acquirer lateReader = new Acquirer(lm, new TransactionId(), pid, false);
+        Thread.sleep(TIMEOUT);
+        assertFalse(writer.acquired);
+        assertFalse(lateReader.acquired);
+
+        lm.releaseLock(reader, pid);
+        writer.join(TIMEOUT * 10);
+        assertTrue(writer.acquired);
+        assertFalse(lateReader.acquired);
+
+        lm.releaseAllLocks(writerTid);
+        lateReader.join(TIMEOUT * 10);
+        assertTrue(lateReader.acquired);
+    }
+
+    /**
+     * A sole reader upgrades immediately; an upgrade that has to wait for
+     * another reader goes ahead of queued writers.
+     */
+    @Test public void upgrades() throws Exception {
+        TransactionId t1 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t1, pid, true);
+        assertTrue(lm.holdsExclusiveLock(t1, pid));
+        lm.releaseAllLocks(t1);
+
+        TransactionId t2 = new TransactionId();
+        lm.acquireLock(t1, pid, false);
+        lm.acquireLock(t2, pid, false);
+        Acquirer writer = new Acquirer(lm, new TransactionId(), pid, true);
+        Thread.sleep(TIMEOUT);
+        Acquirer upgrade = new Acquirer(lm, t1, pid, true);
+        Thread.sleep(TIMEOUT);
+        assertFalse(upgrade.acquired);
+
+        lm.releaseAllLocks(t2);
+        upgrade.join(TIMEOUT * 10);
+        assertTrue(upgrade.acquired);
+        assertFalse(writer.acquired);
+        assertEquals(1, lm.getLockedPages(t1).size());
+    }
+
+    /**
+     * tryAcquireLock grants a compatible lock, or an upgrade of a sole
+     * reader, at once, and refuses a conflicting one without waiting or
+     * queueing.
+     */
+    @Test public void tryAcquire() throws Exception {
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        assertTrue(lm.tryAcquireLock(t1, pid, false));
+        assertTrue(lm.tryAcquireLock(t2, pid, false));
+        assertFalse(lm.tryAcquireLock(t1, pid, true));
+        assertFalse(lm.holdsExclusiveLock(t1, pid));
+
+        lm.releaseAllLocks(t2);
+        assertTrue(lm.tryAcquireLock(t1, pid, true));
+        assertFalse(lm.tryAcquireLock(t2, pid, false));
+        assertFalse(lm.holdsLock(t2, pid));
+
+        // a refused request leaves nothing queued behind the holder
+        lm.releaseAllLocks(t1);
+        assertTrue(lm.tryAcquireLock(t2, pid, true));
+    }
+
+    /**
+     * Two transactions that each wait for the other's lock form a cycle in
+     * the waits-for graph; the younger one is aborted and the older one
+     * gets its lock once the victim releases.
+     */
+    @Test public void detectsDeadlock() throws Exception {
+        PageId pid2 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, false);
+        lm.acquireLock(younger, pid2, false);
+
+        Acquirer a1 = new Acquirer(lm, older, pid2, true);
+        Thread.sleep(TIMEOUT);
+        Acquirer a2 = new Acquirer(lm, younger, pid, true);
+        a2.join(TIMEOUT * 10);
+        assertTrue(a2.error instanceof TransactionAbortedException);
+        assertFalse(a1.acquired);
+        assertEquals(1, lm.getDeadlockCount());
+        assertTrue(lm.getDeadlocksPerSecond() > 0);
+
+        lm.releaseAllLocks(younger);
+        a1.join(TIMEOUT * 10);
+        assertTrue(a1.acquired);
+        assertNull(a1.error);
+    }
+
+    /**
+     * With FEWEST_LOCKS the transaction holding less is aborted, even if it
+     * is the older one.
+     */
+    @Test public void fewestLocksVictim() throws Exception {
+        lm.setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+        PageId pid2 = new HeapPageId(1, 1);
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquireLock(older, pid, false);
+        lm.acquireLock(younger, pid2, false);
+        lm.acquireLock(younger, new HeapPageId(1, 2), false);
+
+        Acquirer a1 = new Acquirer(lm, older, pid2, true);
+        Thread.sleep(TIMEOUT);
+        Acquirer a2 = new Acquirer(lm, younger, pid, true);
+        a1.join(TIMEOUT * 10);
+        assertTrue(a1.error instanceof TransactionAbortedException);
+
+        lm.releaseAllLocks(older);
+        a2.join(TIMEOUT * 10);
+        assertTrue(a2.acquired);
+    }
+
+    /**
+     * Three readers that all try to upgrade are on more than one cycle;
+     * victims are aborted until the remaining upgrade can go through.
+     */
+    @Test public void upgradeCycles() throws Exception {
+        TransactionId[] tids = {new TransactionId(), new TransactionId(), new TransactionId()};
+        Acquirer[] upgrades = new Acquirer[tids.length];
+        for (TransactionId t : tids)
+            lm.acquireLock(t, pid, false);
+        for (int i = 0; i < tids.length; i++) {
+            upgrades[i] = new Acquirer(lm, tids[i], pid, true);
+            Thread.sleep(TIMEOUT);
+        }
+
+        // victims give up their shared locks, as an aborting transaction would
+        for (int i = 0; i < tids.length; i++) {
+            if (upgrades[i].error != null)
+                lm.releaseAllLocks(tids[i]);
+        }
+        for (Acquirer a : upgrades)
+            a.join(TIMEOUT * 10);
+
+        int granted = 0;
+        for (Acquirer a : upgrades) {
+            if (a.acquired)
+                granted++;
+            else
+                assertTrue(a.error instanceof TransactionAbortedException);
+        }
+        assertEquals(1, granted);
+        assertEquals(2, lm.getDeadlockCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private HeapPageId pid;
+    private LogFile log;
+
+    /** A page class with no registered type code. */
+    public static class UnregisteredPage extends HeapPage {
+        public UnregisteredPage(HeapPageId id, byte[] data) throws IOException {
+            super(id, data);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        pid = new HeapPageId(hf.getId(), 0);
+        log = Database.getLogFile();
+    }
+
+    private HeapPage page() throws Exception {
+        return (HeapPage) Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * An update record is the two page images plus a few dozen bytes, and
+     * is not written until the log is forced.
+     */
+    @Test public void compactBufferedUpdates() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        long start = log.getCurrentLSN();
+        long writes = log.getWriteCount();
+        HeapPage p = page();
+        for (int i = 0; i < 5; i++) {
+            long lsn = log.getCurrentLSN();
+            assertEquals(lsn, log.logWrite(tid, p, p));
+        }
+        long perRecord = (log.getCurrentLSN() - start) / 5;
+        assertTrue(perRecord < 2 * BufferPool.getPageSize() + 64);
+        assertEquals(writes, log.getWriteCount());
+
+        log.force();
+        assertEquals(writes + 1, log.getWriteCount());
+    }
+
+    /**
+     * LSNs keep growing when a checkpoint truncates the log.
+     */
+    @Test public void lsnsSurviveTruncation() throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        HeapPage p = page();
+        log.logWrite(tid, p, p);
+        log.logCommit(tid);
+        long before = log.getCurrentLSN();
+        long fileBefore = new File("log").length();
+
+        log.logCheckpoint();
+        assertTrue(log.getCurrentLSN() > before);
+        assertTrue(new File("log").length() < fileBefore);
+
+        tid = new TransactionId();
+        log.logXactionBegin(tid);
+        assertTrue(log.logWrite(tid, p, p) > before);
+    }
+
+    /**
+     * Pages of unregistered classes are logged by class name and can still
+     * be rolled back.
+     */
+    @Test public void unregisteredPageType() throws Exception {
+        byte[] original = page().getPageData();
+        UnregisteredPage before = new UnregisteredPage(pid, original);
+        byte[] changed = HeapPage.createEmptyPageData();
+        UnregisteredPage after = new UnregisteredPage(pid, changed);
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, after);
+        hf.writePage(after);
+        log.rollback(tid);
+
+        assertTrue(Arrays.equals(original, hf.readPage(pid).getPageData()));
+    }
+
+    /**
+     * Once a page has been imaged, changing one tuple logs just that slot,
+     * and rolling it back restores the page.
+     */
+    @Test public void slotDeltas() throws Exception {
+        byte[] original = page().getPageData();
+        HeapPage before = new HeapPage(pid, original);
+        HeapPage after = new HeapPage(pid, original);
+        Tuple t = after.iterator().next();
+        after.deleteTuple(t);
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, before, before);
+        long start = log.getCurrentLSN();
+        log.logWrite(tid, before, after);
+        assertTrue(log.getCurrentLSN() - start < 128);
+
+        hf.writePage(after);
+        log.rollback(tid);
+        assertTrue(Arrays.equals(original, hf.readPage(pid).getPageData()));
+    }
+
+    /**
+     * A type code can only be registered once.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateTypeCode() {
+        LogFile.registerPageType(1, UnregisteredPage.class, HeapPageId.class);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private final TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+    private List<Tuple> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(339);
+        tuples = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(td);
+            int key = r.nextInt(ROWS / 4);
+            t.setField(0, new IntField(key));
+            t.setField(1, new StringField("s" + key, Type.STRING_LEN));
+            t.setField(2, new IntField(i));
+            tuples.add(t);
+        }
+    }
+
+    /** @return the tuples, stably sorted on a field, as strings */
+    private List<String> expected(int field, boolean asc) {
+        List<Tuple> sorted = new ArrayList<>(tuples);
+        sorted.sort((a, b) -> {
+            Field f = a.getField(field), g = b.getField(field);
+            int c = f.equals(g) ? 0 : f.compare(Predicate.Op.LESS_THAN, g) ? -1 : 1;
+            return asc ? c : -c;
+        });
+        List<String> result = new ArrayList<>();
+        for (Tuple t : sorted)
+            result.add(t.toString());
+        return result;
+    }
+
+    private static List<String> read(OpIterator op) throws Exception {
+        List<String> result = new ArrayList<>();
+        while (op.hasNext())
+            result.add(op.next().toString());
+        return result;
+    }
+
+    /**
+     * A child that fits in the budget is sorted in memory, and one that
+     * does not is sorted into runs on disk, in one merge or, with more runs
+     * than are merged at once, in several; each is stable.
+     */
+    @Test public void sort() throws Exception {
+        for (int budget : new int[]{OrderBy.RUN_SIZE, 100, 7}) {
+            for (boolean asc : new boolean[]{true, false}) {
+                for (int field : new int[]{0, 1}) {
+                    OrderBy o = new OrderBy(field, asc, new TupleIterator(td, tuples), budget);
+                    o.open();
+                    if (budget == OrderBy.RUN_SIZE)
+                        assertEquals(0, o.getNumRuns());
+                    else if (budget == 100)
+                        assertEquals((ROWS - 1) / budget, o.getNumRuns());
+                    else
+                        assertTrue(o.getNumRuns() < OrderBy.MERGE_FAN_IN);
+                    assertEquals(expected(field, asc), read(o));
+                    o.close();
+                    assertEquals(0, o.getNumRuns());
+                }
+            }
+        }
+    }
+
+    /**
+     * A sort that spilled to disk can be rewound part way through, and
+     * opened again once closed.
+     */
+    @Test public void rewind() throws Exception {
+        List<String> expected = expected(0, true);
+        OrderBy o = new OrderBy(0, true, new TupleIterator(td, tuples), 100);
+        o.open();
+        for (int i = 0; i < ROWS / 2; i++)
+            o.next();
+        o.rewind();
+        assertEquals(expected, read(o));
+        o.rewind();
+        assertEquals(expected, read(o));
+        o.close();
+
+        o.open();
+        assertEquals(expected, read(o));
+        o.close();
+    }
+
+    /**
+     * An empty child, or one that exactly fills the budget, sorts in memory.
+     */
+    @Test public void boundaries() throws Exception {
+        OrderBy o = new OrderBy(0, true, new TupleIterator(td, new ArrayList<>()), 10);
+        o.open();
+        assertFalse(o.hasNext());
+        o.close();
+
+        o = new OrderBy(0, true, new TupleIterator(td, tuples), ROWS);
+        o.open();
+        assertEquals(0, o.getNumRuns());
+        assertEquals(expected(0, true), read(o));
+        o.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PaxPageTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 4;
+
+    private List<List<Integer>> tuples;
+    private HeapFile heap;
+    private PaxHeapFile pax;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        heap = SystemTestUtil.createRandomHeapFile(COLUMNS, 1500, 20, null, tuples);
+
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            for (List<Integer> t : tuples)
+                w.write(Utility.listToString(t).replace('\t', ',') + "\n");
+        }
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFileEncoder.convertPax(text, f, BufferPool.getPageSize(), Utility.getTypes(COLUMNS), ',');
+        pax = new PaxHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(pax, UUID.randomUUID().toString());
+    }
+
+    /**
+     * A PAX page holds the same tuples in the same slots as the HeapPage it
+     * was converted from, and gives a column as an array.
+     */
+    @Test public void sameTuplesAsHeapPage() throws Exception {
+        assertEquals(heap.numPages(), pax.numPages());
+        HeapPage hp = (HeapPage) heap.readPage(new HeapPageId(heap.getId(), 0));
+        PaxPage pp = (PaxPage) pax.readPage(new HeapPageId(pax.getId(), 0));
+        assertEquals(hp.getNumSlots(), pp.getNumSlots());
+
+        int[] values = new int[pp.getNumSlots()];
+        assertEquals(pp.getNumSlots(), pp.getInts(2, values));
+        Iterator<Tuple> it = hp.iterator();
+        for (int i = 0; i < pp.getNumSlots(); i++) {
+            Tuple t = it.next();
+            assertEquals(t.getField(2), new IntField(values[i]));
+            assertArrayEquals(hp.getSlotData(i), pp.getSlotData(i));
+            assertEquals(t.getField(1), pp.getField(i, 1));
+        }
+    }
+
+    /**
+     * A scan of some columns returns just those columns, from either kind
+     * of file.
+     */
+    @Test public void projectedScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (HeapFile f : new HeapFile[]{heap, pax}) {
+            SeqScan scan = new SeqScan(tid, f.getId(), "t", new int[]{3, 1});
+            assertEquals(2, scan.getTupleDesc().numFields());
+
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> t : tuples)
+                expected.add(Arrays.asList(t.get(3), t.get(1)));
+            SystemTestUtil.matchTuples(scan, expected);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static Map<Integer, Integer> results(OpIterator it) throws Exception {
+        Map<Integer, Integer> results = new HashMap<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int group = t.getTupleDesc().numFields() == 1 ? 0 : ((IntField) t.getField(0)).getValue();
+            results.put(group, ((IntField) t.getField(t.getTupleDesc().numFields() - 1)).getValue());
+        }
+        it.close();
+        return results;
+    }
+
+    /**
+     * Aggregates over a PAX table read its int columns as arrays and give
+     * the same answers as over a HeapFile.
+     */
+    @Test public void columnAggregates() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN,
+                Aggregator.Op.MAX, Aggregator.Op.COUNT, Aggregator.Op.AVG}) {
+            for (int group : new int[]{Aggregator.NO_GROUPING, 0}) {
+                Aggregate overHeap = new Aggregate(new SeqScan(tid, heap.getId()), 2, group, op);
+                Aggregate overPax = new Aggregate(new SeqScan(tid, pax.getId()), 2, group, op);
+                assertEquals(results(overHeap), results(overPax));
+            }
+        }
+        // grouped by the second field of a projection
+        Aggregate projected = new Aggregate(new SeqScan(tid, pax.getId(), "t", new int[]{2, 0}),
+                0, 1, Aggregator.Op.SUM);
+        assertEquals(results(new Aggregate(new SeqScan(tid, heap.getId()), 2, 0, Aggregator.Op.SUM)),
+                results(projected));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Tuples inserted into a PAX table are stored by column and rolled
+     * back on abort.
+     */
+    @Test public void insertAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Tuple inserted = Utility.getHeapTuple(new int[]{7, 8, 9, 10});
+        Database.getBufferPool().insertTuple(t.getId(), pax.getId(), inserted);
+        PaxPage page = (PaxPage) Database.getBufferPool().getPage(t.getId(),
+                inserted.getRecordId().getPageId(), Permissions.READ_ONLY);
+        assertEquals(9, page.getInt(inserted.getRecordId().getTupleNumber(), 2));
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(pax, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxPageTest.class);
+    }
+}
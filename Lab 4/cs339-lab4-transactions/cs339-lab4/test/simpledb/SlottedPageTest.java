@@ -0,0 +1,173 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private TupleDesc td;
+    private SlottedHeapFile sf;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(TYPES);
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        sf = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(sf);
+        pid = new HeapPageId(sf.getId(), 0);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static List<String> strings(Iterator<Tuple> it) {
+        List<String> values = new ArrayList<>();
+        while (it.hasNext())
+            values.add(((StringField) it.next().getField(1)).getValue());
+        return values;
+    }
+
+    /**
+     * Tuples take only the bytes their values need, and survive a round
+     * trip through getPageData.
+     */
+    @Test public void variableLengthRecords() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoom())
+            page.insertTuple(tuple(n, "name" + n++));
+        // a HeapPage holds 30 of these tuples
+        assertTrue(n > 200);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(n, copy.getNumTuples());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + i, Type.STRING_LEN), t.getField(1));
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Deleted records leave holes that a longer record can use once the
+     * page is compacted, and slots keep their numbers.
+     */
+    @Test public void reuseDeletedSpace() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        while (page.hasRoom()) {
+            Tuple t = tuple(inserted.size(), "abcdefgh");
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        int free = page.getFreeSpace();
+        for (int i = 0; i < 20; i += 2)
+            page.deleteTuple(inserted.get(i));
+        String longer = "a string longer than any of the holes left by deleting a record";
+        Tuple t = tuple(-1, longer);
+        page.insertTuple(t);
+        assertEquals(0, t.getRecordId().getTupleNumber());
+        assertEquals(inserted.size() - 9, page.getNumTuples());
+        // records are an int, then a string's length and characters
+        assertEquals(free + 10 * (4 + 2 + 8) - (4 + 2 + longer.length()), page.getFreeSpace());
+
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(new StringField(longer, Type.STRING_LEN), it.next().getField(1));
+        assertEquals(inserted.get(1).getField(0), it.next().getField(0));
+
+        try {
+            page.deleteTuple(inserted.get(2));
+            fail("deleted an empty slot");
+        } catch (DbException expected) {
+        }
+    }
+
+    /**
+     * The encoder packs a text file into slotted pages, which read back
+     * through the file and the buffer pool.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < 1000; i++)
+                w.write(i + ",city" + (i % 10) + "\n");
+        }
+        HeapFileEncoder.convertSlotted(text, sf.getFile(), BufferPool.getPageSize(), TYPES, ',');
+        assertTrue(sf.numPages() < 1000 / 30);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(new StringField("city" + (count % 10), Type.STRING_LEN), t.getField(1));
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through the buffer pool land in the slotted file, and are
+     * logged and rolled back like those on a HeapPage.
+     */
+    @Test public void insertAndAbort() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(1, "kept"));
+        t.commit();
+
+        // the page was imaged when the first transaction committed, so these
+        // inserts are logged as slot deltas when the page is flushed
+        t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(2, "first"));
+        Database.getBufferPool().insertTuple(t.getId(), sf.getId(), tuple(3, "second"));
+        Database.getBufferPool().flushAllPages();
+        t.abort();
+
+        assertEquals(1, sf.numPages());
+        List<String> values = strings(((SlottedPage) sf.readPage(pid)).iterator());
+        assertEquals(1, values.size());
+        assertEquals("kept", values.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
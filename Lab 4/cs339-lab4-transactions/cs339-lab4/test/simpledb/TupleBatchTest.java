@@ -0,0 +1,211 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 5000;
+
+    private List<List<Integer>> tuples;
+    private HeapFile heap;
+    private PaxHeapFile pax;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<>();
+        heap = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 50, null, tuples);
+
+        File text = File.createTempFile("batch", ".txt");
+        text.deleteOnExit();
+        try (FileWriter w = new FileWriter(text)) {
+            for (List<Integer> t : tuples)
+                w.write(Utility.listToString(t).replace('\t', ',') + "\n");
+        }
+        File f = File.createTempFile("batch", ".dat");
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        HeapFileEncoder.convertPax(text, f, BufferPool.getPageSize(), Utility.getTypes(COLUMNS), ',');
+        pax = new PaxHeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(pax, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of an operator, read one at a time */
+    private static List<List<Integer>> tuples(OpIterator op) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        op.open();
+        while (op.hasNext())
+            result.add(SystemTestUtil.tupleToList(op.next()));
+        op.close();
+        return result;
+    }
+
+    /** @return the tuples of an operator, read a batch at a time */
+    private static List<List<Integer>> batchTuples(BatchOpIterator op) throws Exception {
+        List<List<Integer>> result = new ArrayList<>();
+        op.open();
+        TupleBatch b;
+        while ((b = op.nextBatch()) != null) {
+            assertTrue(b.size() > 0);
+            assertTrue(b.size() <= b.capacity());
+            assertEquals(op.getTupleDesc().numFields(), b.getTupleDesc().numFields());
+            for (int i = 0; i < b.size(); i++)
+                result.add(SystemTestUtil.tupleToList(b.getTuple(b.row(i))));
+        }
+        op.close();
+        return result;
+    }
+
+    /**
+     * A scan returns the same tuples in batches as one at a time, whether
+     * it builds tuples or copies a PAX page's columns.
+     */
+    @Test public void seqScan() throws Exception {
+        for (HeapFile f : new HeapFile[]{heap, pax}) {
+            List<List<Integer>> batched = batchTuples(new SeqScan(tid, f.getId(), "t"));
+            assertEquals(ROWS, batched.size());
+            assertEquals(tuples(new SeqScan(tid, f.getId(), "t")), batched);
+            SystemTestUtil.assertSameTuples(tuples, batched);
+            assertEquals(tuples(new SeqScan(tid, f.getId(), "t", new int[]{2, 0})),
+                    batchTuples(new SeqScan(tid, f.getId(), "t", new int[]{2, 0})));
+        }
+    }
+
+    /**
+     * A filter shortens the selection of its child's batches, with each
+     * operator, and a project shares their columns.
+     */
+    @Test public void filterAndProject() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            Predicate p = new Predicate(1, op, new IntField(25));
+            for (HeapFile f : new HeapFile[]{heap, pax}) {
+                List<List<Integer>> expected = tuples(new Filter(p, new SeqScan(tid, f.getId(), "t")));
+                assertEquals(expected, batchTuples(new Filter(p, new SeqScan(tid, f.getId(), "t"))));
+                assertEquals(expected, batchTuples(new Filter(p, new BatchAdapter(new SeqScan(tid, f.getId(), "t")))));
+            }
+        }
+
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        List<Integer> fields = Arrays.asList(2, 0);
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        assertEquals(tuples(new Project(fields, types, new Filter(p, new SeqScan(tid, pax.getId(), "t")))),
+                batchTuples(new Project(fields, types, new Filter(p, new SeqScan(tid, pax.getId(), "t")))));
+    }
+
+    /**
+     * A filter on a string field applies the predicate to each value of a
+     * batch read from a child that returns tuples one at a time.
+     */
+    @Test public void stringFilter() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+        List<Tuple> in = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("s" + (i % 7), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            in.add(t);
+        }
+        Predicate p = new Predicate(0, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN));
+        Filter f = new Filter(p, new TupleIterator(td, in));
+        f.open();
+        int n = 0;
+        TupleBatch b;
+        while ((b = f.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++) {
+                assertEquals(p.getOperand(), b.getField(0, b.row(i)));
+                assertEquals(3, b.getInt(1, b.row(i)) % 7);
+                n++;
+            }
+        }
+        f.close();
+        assertEquals((3000 + 3) / 7, n);
+    }
+
+    /**
+     * A hash join returns the same tuples in batches as one at a time.
+     */
+    @Test public void hashEquiJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        Predicate small = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(3));
+        List<List<Integer>> expected = tuples(new HashEquiJoin(p,
+                new Filter(small, new SeqScan(tid, heap.getId(), "a")), new SeqScan(tid, pax.getId(), "b")));
+        assertTrue(expected.size() > TupleBatch.DEFAULT_SIZE);
+        SystemTestUtil.assertSameTuples(expected, batchTuples(new HashEquiJoin(p,
+                new Filter(small, new SeqScan(tid, heap.getId(), "a")), new SeqScan(tid, pax.getId(), "b"))));
+
+        HashEquiJoin j = new HashEquiJoin(p,
+                new Filter(small, new SeqScan(tid, heap.getId(), "a")), new SeqScan(tid, pax.getId(), "b"));
+        j.open();
+        j.nextBatch();
+        j.rewind();
+        List<List<Integer>> rewound = new ArrayList<>();
+        TupleBatch b;
+        while ((b = j.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++)
+                rewound.add(SystemTestUtil.tupleToList(b.getTuple(b.row(i))));
+        }
+        j.close();
+        SystemTestUtil.assertSameTuples(expected, rewound);
+    }
+
+    /**
+     * An aggregate over a child that returns batches merges their columns,
+     * and gives the same result as over tuples.
+     */
+    @Test public void aggregate() throws Exception {
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(10));
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (int gfield : new int[]{Aggregator.NO_GROUPING, 0}) {
+                // a TupleIterator child is read a tuple at a time
+                List<Tuple> in = new ArrayList<>();
+                OpIterator scan = new Filter(p, new SeqScan(tid, heap.getId(), "t"));
+                scan.open();
+                while (scan.hasNext())
+                    in.add(scan.next());
+                scan.close();
+                List<List<Integer>> expected = tuples(new Aggregate(
+                        new TupleIterator(scan.getTupleDesc(), in), 2, gfield, op));
+                SystemTestUtil.assertSameTuples(expected, tuples(new Aggregate(
+                        new Filter(p, new SeqScan(tid, heap.getId(), "t")), 2, gfield, op)));
+                SystemTestUtil.assertSameTuples(expected, batchTuples(new Aggregate(
+                        new Filter(p, new SeqScan(tid, pax.getId(), "t")), 2, gfield, op)));
+            }
+        }
+    }
+
+    /**
+     * A BatchAdapter returns the tuples of a batch operator one at a time.
+     */
+    @Test public void adapter() throws Exception {
+        Predicate p = new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7));
+        assertEquals(tuples(new Filter(p, new SeqScan(tid, pax.getId(), "t"))),
+                tuples(new BatchAdapter(new Filter(p, new SeqScan(tid, pax.getId(), "t")))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
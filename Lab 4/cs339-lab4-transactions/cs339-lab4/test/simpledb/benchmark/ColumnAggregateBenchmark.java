@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.PaxHeapFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Measures how fast a grouped SUM over two columns of a wide table runs
+ * when the table is a HeapFile, whose tuples are all decoded, and when it
+ * is a PaxHeapFile, whose two columns are handed to the aggregator as
+ * arrays, in tuples per second.  The tables fit in the buffer pool, and are
+ * scanned once before timing.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=ColumnAggregateBenchmark};
+ * the optional arguments are the number of tuples, the number of columns,
+ * and the number of rounds.
+ */
+public class ColumnAggregateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int columns = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File text = File.createTempFile("columns", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(0);
+        try (FileWriter w = new FileWriter(text)) {
+            for (int i = 0; i < rows; i++) {
+                StringBuilder line = new StringBuilder();
+                for (int j = 0; j < columns; j++)
+                    line.append(j == 0 ? "" : ",").append(j == 0 ? r.nextInt(100) : r.nextInt(1 << 16));
+                w.write(line.append('\n').toString());
+            }
+        }
+        File heapData = File.createTempFile("columns", ".dat");
+        File paxData = File.createTempFile("columns", ".dat");
+        heapData.deleteOnExit();
+        paxData.deleteOnExit();
+        HeapFileEncoder.convert(text, heapData, BufferPool.getPageSize(), columns, Utility.getTypes(columns));
+        HeapFileEncoder.convertPax(text, paxData, BufferPool.getPageSize(), Utility.getTypes(columns), ',');
+
+        HeapFile heap = new HeapFile(heapData, Utility.getTupleDesc(columns));
+        HeapFile pax = new PaxHeapFile(paxData, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(heap, "heap");
+        Database.getCatalog().addTable(pax, "pax");
+        Database.resetBufferPool(2 * heap.numPages() + 10);
+        aggregate(heap, rows);
+        aggregate(pax, rows);
+
+        System.out.printf("%-8s %16s %16s%n", "round", "heap tuples/s", "pax tuples/s");
+        for (int i = 1; i <= rounds; i++) {
+            double h = aggregate(heap, rows);
+            double p = aggregate(pax, rows);
+            System.out.printf("%-8d %16.0f %16.0f%n", i, h, p);
+        }
+    }
+
+    // returns tuples per second
+    private static double aggregate(HeapFile f, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        long begin = System.nanoTime();
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, Aggregator.Op.SUM);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            agg.next();
+            groups++;
+        }
+        agg.close();
+        double rate = rows / ((System.nanoTime() - begin) / 1e9);
+        Database.getBufferPool().transactionComplete(tid);
+        if (groups == 0)
+            throw new IOException("empty table");
+        return rate;
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb.benchmark;
+
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures commit throughput of the log, in commits per second, for 1 to
+ * 32 concurrent clients, with each commit forcing the log and with group
+ * commit.  Each client loops writing a BEGIN and a COMMIT record, so the
+ * numbers are dominated by the cost of forcing the log.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=GroupCommitBenchmark}; the
+ * optional arguments are the number of seconds to run each configuration,
+ * the group commit batch size and its maximum delay in microseconds.
+ */
+public class GroupCommitBenchmark {
+
+    private static final int[] CLIENTS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        int batch = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long delayMicros = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+        System.out.printf("%-8s %14s %14s %14s%n", "clients", "force/s", "group/s", "commits/force");
+        for (int clients : CLIENTS) {
+            double plain = run(clients, seconds, 0, 0)[0];
+            double[] group = run(clients, seconds, batch, delayMicros);
+            System.out.printf("%-8d %14.0f %14.0f %14.1f%n", clients, plain, group[0], group[1]);
+        }
+    }
+
+    // returns commits per second and commits per force
+    private static double[] run(int clients, double seconds, int batch, long delayMicros)
+            throws IOException, InterruptedException {
+        File f = File.createTempFile("groupcommit", ".log");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        if (batch > 0)
+            log.enableGroupCommit(batch, delayMicros);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicLong commits = new AtomicLong(0);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            workers[i] = new Thread(() -> {
+                long count = 0;
+                try {
+                    start.await();
+                    while (!done.get()) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                        count++;
+                    }
+                } catch (InterruptedException | IOException e) {
+                    e.printStackTrace();
+                }
+                commits.addAndGet(count);
+            });
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread t : workers)
+            t.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        log.disableGroupCommit();
+        long forces = Math.max(1, log.getForceCount());
+        f.delete();
+        return new double[]{commits.get() / elapsed, (double) commits.get() / forces};
+    }
+}
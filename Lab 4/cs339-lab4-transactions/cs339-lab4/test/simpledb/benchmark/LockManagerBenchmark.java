@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures LockManager throughput, in lock acquisitions per second, for 1 to
+ * 32 threads.  Each thread runs short transactions that take a handful of
+ * shared locks, and occasionally an exclusive one, on pages chosen at random
+ * from a large table, then release everything.  The same workload is run
+ * against a lock table with a single stripe (equivalent to one global
+ * monitor) and against the default striped table.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=LockManagerBenchmark}; the
+ * optional arguments are the number of seconds to run each configuration
+ * and the number of distinct pages.
+ */
+public class LockManagerBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final int LOCKS_PER_TRANSACTION = 8;
+
+    public static void main(String[] args) throws Exception {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+        int pages = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        System.out.printf("%-8s %16s %16s%n", "threads", "1 stripe/s",
+                LockManager.DEFAULT_STRIPES + " stripes/s");
+        for (int threads : THREADS) {
+            double single = run(new LockManager(LockManager.VictimPolicy.YOUNGEST, 1),
+                    threads, pages, seconds);
+            double striped = run(new LockManager(), threads, pages, seconds);
+            System.out.printf("%-8d %16.0f %16.0f%n", threads, single, striped);
+        }
+    }
+
+    private static double run(LockManager lm, int threads, int pages, double seconds)
+            throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicLong acquisitions = new AtomicLong(0);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread(() -> {
+                Random rand = new Random(seed);
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (!done.get()) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        for (int j = 0; j < LOCKS_PER_TRANSACTION; j++) {
+                            PageId pid = new HeapPageId(0, rand.nextInt(pages));
+                            lm.acquireLock(tid, pid, rand.nextInt(10) == 0);
+                            count++;
+                        }
+                    } catch (TransactionAbortedException e) {
+                        // deadlock victim; just move on to the next transaction
+                    }
+                    lm.releaseAllLocks(tid);
+                }
+                acquisitions.addAndGet(count);
+            });
+            workers[i].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep((long) (seconds * 1000));
+        done.set(true);
+        for (Thread t : workers)
+            t.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        return acquisitions.get() / elapsed;
+    }
+}
@@ -0,0 +1,114 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Measures how fast a full two-column heap page can be serialized, in
+ * megabytes per second: the way getPageData used to do it (the header and
+ * then every field written through a DataOutputStream), getPageData as it
+ * is now, and writePageData into one reused buffer, as the log does.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=PageSerializationBenchmark};
+ * the optional arguments are the number of pages serialized per round and
+ * the number of rounds.
+ */
+public class PageSerializationBenchmark {
+
+    private static long sink;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        File f = File.createTempFile("pages", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++)
+            page.insertTuple(Utility.getHeapTuple(new int[]{i, -i}));
+        ByteBuffer reused = ByteBuffer.allocate(page.getPageDataSize());
+
+        // warm up
+        streamed(page, td, pages);
+        copied(page, pages);
+        written(page, reused, pages);
+
+        System.out.printf("%-8s %14s %14s %14s%n", "round", "stream MB/s", "copy MB/s", "reused MB/s");
+        for (int r = 1; r <= rounds; r++) {
+            double s = streamed(page, td, pages);
+            double c = copied(page, pages);
+            double w = written(page, reused, pages);
+            System.out.printf("%-8d %14.0f %14.0f %14.0f%n", r, s, c, w);
+        }
+        if (sink == 42)
+            System.out.println();
+        f.delete();
+    }
+
+    private static double rate(int pages, long begin) {
+        double bytes = (double) pages * BufferPool.getPageSize();
+        return bytes / (1 << 20) / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    // the serialization getPageData did before pages kept their bytes
+    private static double streamed(HeapPage page, TupleDesc td, int pages) throws IOException {
+        int slots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (int) Math.ceil(slots / 8.0);
+        long begin = System.nanoTime();
+        for (int n = 0; n < pages; n++) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+            DataOutputStream dos = new DataOutputStream(baos);
+            for (int i = 0; i < headerSize; i++) {
+                int b = 0;
+                for (int j = 0; j < 8 && i * 8 + j < slots; j++)
+                    if (page.isSlotUsed(i * 8 + j))
+                        b |= 1 << j;
+                dos.writeByte(b);
+            }
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            int pad = BufferPool.getPageSize() - dos.size();
+            dos.write(new byte[pad], 0, pad);
+            dos.flush();
+            sink += baos.toByteArray()[n % 8];
+        }
+        return rate(pages, begin);
+    }
+
+    private static double copied(HeapPage page, int pages) {
+        long begin = System.nanoTime();
+        for (int n = 0; n < pages; n++)
+            sink += page.getPageData()[n % 8];
+        return rate(pages, begin);
+    }
+
+    private static double written(HeapPage page, ByteBuffer buf, int pages) {
+        long begin = System.nanoTime();
+        for (int n = 0; n < pages; n++) {
+            buf.clear();
+            page.writePageData(buf);
+            sink += buf.get(n % 8);
+        }
+        return rate(pages, begin);
+    }
+}
@@ -0,0 +1,72 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Measures how fast every page of a two-column table can be read and its
+ * tuples iterated, in pages per second, reading pages through the file
+ * channel and through a memory mapping.  Pages are read with
+ * {@link HeapFile#readPage} directly, so the buffer pool is not involved,
+ * and the file is read once before timing so that it is in the OS page
+ * cache.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=ScanBenchmark}; the optional
+ * arguments are the number of pages in the table and the number of times
+ * it is scanned.
+ */
+public class ScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File f = File.createTempFile("scan", ".dat");
+        f.deleteOnExit();
+        int perPage = (BufferPool.getPageSize() * 8) / (2 * 4 * 8 + 1);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < pages * perPage; i++)
+            tuples.add(Arrays.asList(i, -i));
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+
+        HeapFile channel = new HeapFile(f, Utility.getTupleDesc(2), false);
+        HeapFile mapped = new HeapFile(f, Utility.getTupleDesc(2), true);
+        Database.getCatalog().addTable(channel);
+        scan(channel);
+
+        System.out.printf("%-8s %14s %14s%n", "round", "channel pg/s", "mmap pg/s");
+        for (int r = 1; r <= rounds; r++) {
+            double c = scan(channel);
+            double m = scan(mapped);
+            System.out.printf("%-8d %14.0f %14.0f%n", r, c, m);
+        }
+        f.delete();
+    }
+
+    // returns pages per second
+    private static double scan(HeapFile hf) throws IOException {
+        long begin = System.nanoTime();
+        long tuples = 0;
+        int pages = hf.numPages();
+        for (int i = 0; i < pages; i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            for (Iterator<?> it = p.iterator(); it.hasNext(); it.next())
+                tuples++;
+        }
+        if (tuples == 0)
+            throw new IOException("empty table");
+        return pages / ((System.nanoTime() - begin) / 1e9);
+    }
+}
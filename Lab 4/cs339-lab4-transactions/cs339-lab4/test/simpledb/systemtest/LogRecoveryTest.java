@@ -0,0 +1,174 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Tests LogFile rollback and crash recovery.  A crash is simulated by
+ * throwing away the Database instance (and so the buffer pool and catalog)
+ * and then reopening the same table and log.
+ */
+public class LogRecoveryTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        file = hf.getFile();
+        Database.resetBufferPool(2);
+    }
+
+    private void crash() throws IOException {
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+    }
+
+    private boolean magicTupleExists() throws DbException, TransactionAbortedException, IOException {
+        Transaction t = new Transaction();
+        t.start();
+        boolean found = AbortEvictionTest.findMagicTuple(hf, t);
+        t.commit();
+        return found;
+    }
+
+    /**
+     * An aborted transaction whose page already reached the disk is undone
+     * from the before image in the log.
+     */
+    @Test public void abortRollsBackFlushedPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        AbortEvictionTest.insertRow(hf, t);
+        Database.getBufferPool().flushAllPages();
+        t.transactionComplete(true);
+
+        Database.resetBufferPool(2);
+        assertFalse(magicTupleExists());
+    }
+
+    /**
+     * Recovery installs committed updates whose page writes were lost, and
+     * removes updates of transactions that never finished.
+     */
+    @Test public void redoCommittedUndoUncommitted() throws Exception {
+        byte[] original = Files.readAllBytes(file.toPath());
+        Transaction t1 = new Transaction();
+        t1.start();
+        AbortEvictionTest.insertRow(hf, t1);
+        t1.commit();
+        // as if the page write never made it to disk
+        Files.write(file.toPath(), original);
+
+        crash();
+        assertTrue(magicTupleExists());
+        assertEquals(1, Database.getLogFile().getRecoveryRecordsReplayed());
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        AbortEvictionTest.insertRow(hf, t2);
+        Database.getBufferPool().flushAllPages();
+
+        crash();
+        Transaction t3 = new Transaction();
+        t3.start();
+        int count = 0;
+        SeqScan ss = new SeqScan(t3.getId(), hf.getId(), "");
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t3.commit();
+        // t2's tuple is gone, t1's is still there
+        assertEquals(11, count);
+    }
+
+    /**
+     * Updates logged before the last checkpoint to pages that were on disk
+     * when it was taken are not replayed again.
+     */
+    @Test public void recoveryStartsAtCheckpoint() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            AbortEvictionTest.insertRow(hf, t);
+            t.commit();
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        Transaction t = new Transaction();
+        t.start();
+        AbortEvictionTest.insertRow(hf, t);
+        t.commit();
+
+        crash();
+        assertEquals(1, Database.getLogFile().getRecoveryRecordsReplayed());
+        assertTrue(Database.getLogFile().getRecoveryMillis() >= 0);
+    }
+
+    /**
+     * A checkpoint does not write dirty pages; it records them, and
+     * recovery redoes their committed updates from before the checkpoint.
+     */
+    @Test public void fuzzyCheckpointRedoesDirtyPages() throws Exception {
+        byte[] original = Files.readAllBytes(file.toPath());
+        Transaction t = new Transaction();
+        t.start();
+        AbortEvictionTest.insertRow(hf, t);
+        t.commit();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Arrays.equals(original, Files.readAllBytes(file.toPath())));
+        assertEquals(1, Database.getBufferPool().getDirtyPageTable().size());
+
+        crash();
+        assertEquals(1, Database.getLogFile().getRecoveryRecordsReplayed());
+        assertTrue(magicTupleExists());
+    }
+
+    /**
+     * The background checkpointer writes pages that stay dirty across two
+     * of its checkpoints.
+     */
+    @Test public void checkpointerWritesOldPages() throws Exception {
+        byte[] original = Files.readAllBytes(file.toPath());
+        Database.getLogFile().enableCheckpointer(1, 10);
+        try {
+            Transaction t = new Transaction();
+            t.start();
+            AbortEvictionTest.insertRow(hf, t);
+            t.commit();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!Database.getBufferPool().getDirtyPageTable().isEmpty()
+                   && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+        } finally {
+            Database.getLogFile().disableCheckpointer();
+        }
+        assertTrue(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        assertFalse(Arrays.equals(original, Files.readAllBytes(file.toPath())));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogRecoveryTest.class);
+    }
+}
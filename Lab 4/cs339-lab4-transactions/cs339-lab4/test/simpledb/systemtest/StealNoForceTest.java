@@ -0,0 +1,155 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Insert;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.Transaction;
+
+/**
+ * Tests that transactions can dirty more pages than the buffer pool holds
+ * (STEAL) and that commit only forces the log (NO-FORCE).
+ */
+public class StealNoForceTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    /** enough two-int tuples to fill about three times the pool */
+    private static final int ROWS = 504 * POOL_PAGES * 3;
+
+    private HeapFile hf;
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        file = hf.getFile();
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void insertRows(Transaction t, int rows) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            Tuple tup = new Tuple(Utility.getTupleDesc(2));
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new IntField(-i));
+            tuples.add(tup);
+        }
+        Insert insert = new Insert(t.getId(), new TupleIterator(Utility.getTupleDesc(2), tuples), hf.getId());
+        insert.open();
+        assertEquals(rows, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+    }
+
+    private int countRows() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        SeqScan ss = new SeqScan(t.getId(), hf.getId(), "");
+        int count = 0;
+        ss.open();
+        while (ss.hasNext()) {
+            ss.next();
+            count++;
+        }
+        ss.close();
+        t.commit();
+        return count;
+    }
+
+    /**
+     * A transaction larger than the pool commits, with its stolen pages
+     * readable afterwards.
+     */
+    @Test public void largeTransactionCommits() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t, ROWS);
+        t.commit();
+        assertEquals(10 + ROWS, countRows());
+    }
+
+    /**
+     * Aborting a transaction larger than the pool undoes the pages that
+     * were stolen as well as the ones still cached.
+     */
+    @Test public void largeTransactionAborts() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t, ROWS);
+        t.abort();
+        assertEquals(10, countRows());
+    }
+
+    /**
+     * Aborting a transaction keeps the committed but unflushed updates
+     * of an earlier transaction on the same page.
+     */
+    @Test public void abortKeepsUnflushedCommits() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t, 1);
+        t.commit();
+
+        t = new Transaction();
+        t.start();
+        insertRows(t, 1);
+        t.abort();
+        assertEquals(11, countRows());
+    }
+
+    /**
+     * Committing does not write the transaction's pages; after a crash they
+     * are restored from the log.
+     */
+    @Test public void commitForcesOnlyTheLog() throws Exception {
+        byte[] original = Files.readAllBytes(file.toPath());
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t, 1);
+        t.commit();
+        assertTrue(Arrays.equals(original, Files.readAllBytes(file.toPath())));
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, file);
+        Database.getLogFile().recover();
+        assertEquals(11, countRows());
+    }
+
+    /**
+     * Committing leaves the transaction's pages clean, so writing them back
+     * later logs nothing more for the finished transaction.
+     */
+    @Test public void flushAfterCommitLogsNothing() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insertRows(t, 1);
+        t.commit();
+        assertFalse(Database.getBufferPool().getDirtyPageTable().isEmpty());
+
+        int records = Database.getLogFile().getTotalRecords();
+        Database.getBufferPool().flushAllPages();
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+        assertEquals(0, Database.getLogFile().getLogBytesWritten(t.getId()));
+        assertTrue(Database.getBufferPool().getDirtyPageTable().isEmpty());
+        assertEquals(11, countRows());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(StealNoForceTest.class);
+    }
+}
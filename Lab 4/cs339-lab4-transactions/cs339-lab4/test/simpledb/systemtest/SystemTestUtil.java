@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -86,10 +87,22 @@ public class SystemTestUtil {
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
         temp.deleteOnExit();
+        HeapFile.freeSpaceMapFile(temp).deleteOnExit();
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }
 
+    /**
+     * @return a new empty temporary file, deleted on exit along with any
+     *   free-space map a HeapFile keeps beside it
+     */
+    public static File createTempFile(String prefix, String suffix) throws IOException {
+        File f = File.createTempFile(prefix, suffix);
+        f.deleteOnExit();
+        HeapFile.freeSpaceMapFile(f).deleteOnExit();
+        return f;
+    }
+
     public static List<Integer> tupleToList(Tuple tuple) {
         List<Integer> list = new ArrayList<>();
         for (int i = 0; i < tuple.getTupleDesc().numFields(); ++i) {
@@ -151,6 +164,26 @@ public class SystemTestUtil {
         }
     }
 
+    /**
+     * Asserts that two lists of tuples, as from {@link #tupleToList}, hold
+     * the same tuples, in any order.
+     */
+    public static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        Comparator<List<Integer>> order = (a, b) -> {
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return Integer.compare(a.size(), b.size());
+        };
+        List<List<Integer>> e = new ArrayList<>(expected);
+        List<List<Integer>> a = new ArrayList<>(actual);
+        e.sort(order);
+        a.sort(order);
+        Assert.assertEquals(e, a);
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM